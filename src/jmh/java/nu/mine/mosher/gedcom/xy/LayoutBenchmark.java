@@ -0,0 +1,29 @@
+package nu.mine.mosher.gedcom.xy;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+public class LayoutBenchmark {
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int people;
+
+    private SyntheticChart chart;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.chart = SyntheticChart.of(this.people, 1L);
+    }
+
+    @Benchmark
+    public Layout cleanAll() {
+        final Layout layout = new Layout(this.chart.indis, this.chart.famis);
+        layout.cleanAll();
+        return layout;
+    }
+}
@@ -0,0 +1,182 @@
+package nu.mine.mosher.gedcom.xy;
+
+import javafx.geometry.Point2D;
+
+import java.util.*;
+
+/**
+ * Checks that {@link Layout} puts everyone exactly where {@link LayoutReference} (the layout
+ * before the rewrite) does. Each island, laid out on its own by the reference, must match the
+ * current layout up to one offset for the whole island. Also checks that the islands are placed
+ * left to right without overlapping, and that the result is the same from run to run.
+ * Runs over synthetic genealogies (several seeds), and over random graphs (where anyone can be
+ * in any number of families, in any role, and many birth dates are the same).
+ * Exits with status 1 if anything does not match.
+ */
+final class LayoutCheck {
+    private static final int[] SIZES_SYNTHETIC = {2, 10, 100, 1_000, 10_000, 50_000};
+    private static final int[] SIZES_RANDOM = {2, 3, 5, 20, 200, 2_000, 20_000};
+    private static final int SEEDS = 3;
+
+    private int cBad;
+
+    private LayoutCheck() {
+    }
+
+    public static void main(final String... args) {
+        final LayoutCheck check = new LayoutCheck();
+        for (final int people : SIZES_SYNTHETIC) {
+            for (long seed = 1L; seed <= SEEDS; ++seed) {
+                final SyntheticChart chart = SyntheticChart.of(people, seed);
+                check.check("synthetic", people, seed, chart.indis, chart.famis);
+            }
+        }
+        for (final int people : SIZES_RANDOM) {
+            for (long seed = 1L; seed <= SEEDS; ++seed) {
+                final List<Indi> indis = new ArrayList<>();
+                final List<Fami> famis = new ArrayList<>();
+                random(people, seed, indis, famis);
+                check.check("random", people, seed, indis, famis);
+            }
+        }
+        System.out.println(check.cBad == 0 ? "All layouts match." : check.cBad + " mismatches.");
+        System.exit(check.cBad == 0 ? 0 : 1);
+    }
+
+    private static void random(final int people, final long seed, final List<Indi> indis, final List<Fami> famis) {
+        final Random random = new Random(seed);
+        for (int i = 0; i < people; ++i) {
+            indis.add(new Indi(null, Optional.empty(), Integer.toString(i), null, "n" + i, "", random.nextInt(5) * 100L, "", random.nextInt(3)));
+        }
+        for (int f = 0; f < people * 2 / 3; ++f) {
+            final Fami fami = new Fami();
+            if (0 < random.nextInt(5)) {
+                fami.setHusb(indis.get(random.nextInt(people)));
+            }
+            if (0 < random.nextInt(5)) {
+                fami.setWife(indis.get(random.nextInt(people)));
+            }
+            final int cChild = random.nextInt(5);
+            for (int c = 0; c < cChild; ++c) {
+                fami.addChild(indis.get(random.nextInt(people)));
+            }
+            famis.add(fami);
+        }
+    }
+
+    private void check(final String kind, final int people, final long seed, final List<Indi> indis, final List<Fami> famis) {
+        final int cBadWas = this.cBad;
+        final long t0 = System.nanoTime();
+        final Map<Indi, Point2D> positions = new Layout(indis, famis).positions();
+        final long t1 = System.nanoTime();
+
+        // (by value: the positions map compares its values by identity)
+        final Map<Indi, Point2D> again = new Layout(indis, famis).positions();
+        if (again.size() != positions.size() || !positions.entrySet().stream().allMatch(e -> e.getValue().equals(again.get(e.getKey())))) {
+            bad(kind, people, seed, "different results from the same input");
+        }
+
+        final List<List<Indi>> islandsIndi = new ArrayList<>();
+        final List<List<Fami>> islandsFami = new ArrayList<>();
+        islands(indis, famis, islandsIndi, islandsFami);
+
+        double xRightPrev = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < islandsIndi.size(); ++k) {
+            final List<Indi> island = islandsIndi.get(k);
+            if (1 < indis.size() && !island.stream().allMatch(positions::containsKey)) {
+                bad(kind, people, seed, "someone was not placed");
+                continue;
+            }
+            if (island.size() <= 1) {
+                // the reference does not place anyone in a chart of one
+                continue;
+            }
+            new LayoutReference(island, islandsFami.get(k)).cleanAll();
+            final Point2D offset = positions.get(island.get(0)).subtract(island.get(0).laidOut().orElseThrow());
+            double xLeft = Double.POSITIVE_INFINITY;
+            double xRight = Double.NEGATIVE_INFINITY;
+            for (final Indi indi : island) {
+                final Point2D at = positions.get(indi);
+                if (!at.equals(indi.laidOut().orElseThrow().add(offset))) {
+                    bad(kind, people, seed, "individual " + indi.getId() + " at " + at + ", but reference has " + indi.laidOut().get().add(offset));
+                }
+                xLeft = Math.min(xLeft, at.getX());
+                xRight = Math.max(xRight, at.getX());
+            }
+            if (xLeft <= xRightPrev) {
+                bad(kind, people, seed, "island " + k + " overlaps the one before it");
+            }
+            xRightPrev = xRight;
+        }
+
+        System.out.printf("%s, %d people, seed %d: %d islands, %d ms, %s%n",
+            kind, people, seed, islandsIndi.size(), (t1 - t0) / 1_000_000L, this.cBad == cBadWas ? "ok" : "MISMATCH");
+    }
+
+    private void bad(final String kind, final int people, final long seed, final String what) {
+        // show only the first few, which are enough to go on
+        if (this.cBad < 10) {
+            System.out.printf("%s, %d people, seed %d: %s%n", kind, people, seed, what);
+        }
+        ++this.cBad;
+    }
+
+    /*
+        Finds the islands independently of Layout: people connected by families,
+        in order of their first individual, each keeping the original order.
+     */
+    private static void islands(final List<Indi> indis, final List<Fami> famis, final List<List<Indi>> islandsIndi, final List<List<Fami>> islandsFami) {
+        final Map<Indi, Integer> index = new IdentityHashMap<>();
+        for (int i = 0; i < indis.size(); ++i) {
+            index.put(indis.get(i), i);
+        }
+        final int[] parent = new int[indis.size()];
+        for (int i = 0; i < parent.length; ++i) {
+            parent[i] = i;
+        }
+        final int[] first = new int[famis.size()];
+        for (int f = 0; f < famis.size(); ++f) {
+            first[f] = -1;
+            for (final Indi indi : members(famis.get(f))) {
+                final int i = index.get(indi);
+                if (first[f] < 0) {
+                    first[f] = i;
+                } else {
+                    final int a = root(parent, first[f]);
+                    final int b = root(parent, i);
+                    parent[Math.max(a, b)] = Math.min(a, b);
+                }
+            }
+        }
+
+        final Map<Integer, Integer> islandOfRoot = new HashMap<>();
+        for (int i = 0; i < indis.size(); ++i) {
+            final int island = islandOfRoot.computeIfAbsent(root(parent, i), r -> islandOfRoot.size());
+            if (islandsIndi.size() <= island) {
+                islandsIndi.add(new ArrayList<>());
+                islandsFami.add(new ArrayList<>());
+            }
+            islandsIndi.get(island).add(indis.get(i));
+        }
+        for (int f = 0; f < famis.size(); ++f) {
+            if (0 <= first[f]) {
+                islandsFami.get(islandOfRoot.get(root(parent, first[f]))).add(famis.get(f));
+            }
+        }
+    }
+
+    private static List<Indi> members(final Fami fami) {
+        final List<Indi> members = new ArrayList<>(fami.getChildren());
+        fami.getHusb().ifPresent(members::add);
+        fami.getWife().ifPresent(members::add);
+        return members;
+    }
+
+    private static int root(final int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+}
@@ -0,0 +1,26 @@
+package nu.mine.mosher.gedcom.xy;
+
+import javafx.geometry.Point2D;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+    @Param({"10000", "100000"})
+    public int people;
+
+    private List<Point2D> laidOut;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final SyntheticChart chart = SyntheticChart.of(this.people, 1L);
+        new Layout(chart.indis, chart.famis).cleanAll();
+        this.laidOut = chart.indis.stream().map(Indi::laidOut).flatMap(Optional::stream).toList();
+    }
+
+    @Benchmark
+    public double calculateAverageX() {
+        return Metrics.calculateAverageX(this.laidOut.stream());
+    }
+}
@@ -0,0 +1,60 @@
+package nu.mine.mosher.gedcom.xy;
+
+import javafx.geometry.Point2D;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The small per-fact conversions done while reading a file (or saving one).
+ * Each benchmark cycles through a few typical values.
+ */
+@State(Scope.Thread)
+public class ParseBenchmark {
+    private static final String[] DATES = {"1257826304", "1257826368", "1257826305:1262052352", "2453645", "abt 1850", "-2147483648"};
+    // as FTM stores them: vertical-bar and slashed (hierarchical) forms, resolved or not, and one plain name
+    private static final String[] PLACES = {
+        "/Hamilton, Madison, New York, USA|/0.7474722/-1.318502",
+        "/Room 401, Flint Hall, Syracuse University/Syracuse/Onondaga/New York/USA/11269/0.7513314/-1.329023",
+        "/First Church/Salem/Essex/Massachusetts/USA/3442/0.7440318/-1.232193",
+        "/Place, Name w/some slash/es | and, vertical | bars|//",
+        "/another place / with slashes | and  bars, but, resolved, in///Connecticut/USA/-9//",
+        "Ireland"
+    };
+    private static final String[] XYS = {"123.45 678.90", "-1.5 22", "1000000.25 -3.75", "bad value"};
+    private static final Point2D[] POINTS = {new Point2D(123.456D, 678.9D), new Point2D(-1.5D, 22D), new Point2D(1000000.25D, -3.75D)};
+    private static final String[] NAMES = {"John /Smith/", "Mary Elizabeth /Mosher/ Jr.", "/Brown/", "Unknown", "/Hall/ III"};
+
+    private int i;
+
+    private int next(final int n) {
+        this.i = (this.i + 1) % 60;
+        return this.i % n;
+    }
+
+    @Benchmark
+    public FtmDate ftmDate() {
+        return FtmDate.fromFtmFactDate(DATES[next(DATES.length)]);
+    }
+
+    @Benchmark
+    public Place ftmPlace() {
+        return Place.fromFtmPlace(PLACES[next(PLACES.length)]);
+    }
+
+    @Benchmark
+    public Object coordsToCoord() {
+        return Coords.toCoord(XYS[next(XYS.length)]);
+    }
+
+    @Benchmark
+    public String coordsToValueXY() {
+        return Coords.toValueXY(POINTS[next(POINTS.length)]);
+    }
+
+    @Benchmark
+    public void indiNames(final Blackhole bh) {
+        final String name = NAMES[next(NAMES.length)];
+        bh.consume(Indi.parseNameGiven(name));
+        bh.consume(Indi.parseNameSur(name));
+    }
+}
@@ -0,0 +1,38 @@
+package nu.mine.mosher.gedcom.xy;
+
+import java.util.*;
+
+/**
+ * A {@link SyntheticGenealogy} as {@link Indi} and {@link Fami} objects
+ * (as if read from a file), with no _XY coordinates.
+ */
+final class SyntheticChart {
+    final List<Indi> indis;
+    final List<Fami> famis;
+
+    private SyntheticChart(final List<Indi> indis, final List<Fami> famis) {
+        this.indis = indis;
+        this.famis = famis;
+    }
+
+    static SyntheticChart of(final int people, final long seed) {
+        final SyntheticGenealogy genealogy = SyntheticGenealogy.generate(people, seed, false);
+
+        final List<Indi> indis = new ArrayList<>(genealogy.persons().size());
+        for (final SyntheticGenealogy.Person p : genealogy.persons()) {
+            final String lifespan = p.birth.getYear() + "–" + p.death.map(d -> Integer.toString(d.getYear())).orElse("");
+            indis.add(new Indi(null, p.xy, Integer.toString(p.id), null, p.name(), lifespan, p.birth.getYear() * 100L + p.birth.getMonthValue(), p.placeBirth, p.sex));
+        }
+
+        final List<Fami> famis = new ArrayList<>(genealogy.families().size());
+        for (final SyntheticGenealogy.Family f : genealogy.families()) {
+            final Fami fami = new Fami();
+            f.husb.ifPresent(p -> fami.setHusb(indis.get(p.id - 1)));
+            f.wife.ifPresent(p -> fami.setWife(indis.get(p.id - 1)));
+            f.children.forEach(c -> fami.addChild(indis.get(c.id - 1)));
+            famis.add(fami);
+        }
+
+        return new SyntheticChart(indis, famis);
+    }
+}
@@ -0,0 +1,481 @@
+package nu.mine.mosher.gedcom.xy;
+
+import javafx.geometry.Point2D;
+import org.slf4j.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.temporal.JulianFields;
+import java.util.*;
+
+/**
+ * Generates a random (but reproducible, from a seed) genealogy of a given size, for scale testing,
+ * and writes it as a GEDCOM file and as an FTM (SQLite) tree file.
+ * The trees have remarriages (so half-siblings), cousin marriages (pedigree collapse),
+ * single parents, childless couples, spouses from outside the tree, and separate islands.
+ * <pre>
+ * ./gradlew synthetic -Ppeople=100000 -Pseed=1 -Pxy=true -Pout=build/synthetic/tree100k
+ * </pre>
+ * writes tree100k.ged and tree100k.ftm.
+ */
+final class SyntheticGenealogy {
+    private static final Logger LOG = LoggerFactory.getLogger(SyntheticGenealogy.class);
+
+    static final class Person {
+        final int id;
+        final int sex;
+        final String given;
+        final String sur;
+        final LocalDate birth;
+        final DateKind birthKind;
+        final Optional<LocalDate> death;
+        final String placeBirth;
+        final int generation;
+        final Optional<Family> childOf;
+        final List<Family> spouseIn = new ArrayList<>(1);
+        Optional<Point2D> xy = Optional.empty();
+
+        private Person(final int id, final int sex, final String given, final String sur, final LocalDate birth, final DateKind birthKind, final Optional<LocalDate> death, final String placeBirth, final int generation, final Optional<Family> childOf) {
+            this.id = id;
+            this.sex = sex;
+            this.given = given;
+            this.sur = sur;
+            this.birth = birth;
+            this.birthKind = birthKind;
+            this.death = death;
+            this.placeBirth = placeBirth;
+            this.generation = generation;
+            this.childOf = childOf;
+        }
+
+        String name() {
+            return this.given + " /" + this.sur + "/";
+        }
+    }
+
+    static final class Family {
+        final int id;
+        final Optional<Person> husb;
+        final Optional<Person> wife;
+        final List<Person> children = new ArrayList<>();
+        final LocalDate marriage;
+        final String placeMarriage;
+
+        private Family(final int id, final Optional<Person> husb, final Optional<Person> wife, final LocalDate marriage, final String placeMarriage) {
+            this.id = id;
+            this.husb = husb;
+            this.wife = wife;
+            this.marriage = marriage;
+            this.placeMarriage = placeMarriage;
+        }
+    }
+
+    enum DateKind {
+        EXACT, YEAR, ABOUT
+    }
+
+    private static final String[] GIVEN_M = {"John", "William", "Thomas", "James", "George", "Henry", "Samuel", "Joseph", "Benjamin", "Richard", "Charles", "Edward", "Daniel", "Robert", "Nathaniel", "Josiah"};
+    private static final String[] GIVEN_F = {"Mary", "Elizabeth", "Sarah", "Anne", "Margaret", "Hannah", "Susan", "Jane", "Abigail", "Martha", "Lydia", "Ruth", "Catherine", "Rebecca", "Esther", "Alice"};
+    private static final String[] SUR = {"Smith", "Mosher", "Brown", "Taylor", "Wilson", "Clark", "Hall", "Allen", "Young", "King", "Wright", "Baker", "Hill", "Green", "Adams", "Nelson", "Carter", "Mitchell", "Roberts", "Turner", "Phillips", "Parker", "Evans", "Edwards", "Collins", "Stewart", "Morris", "Rogers", "Cook", "Morgan", "Bell", "Murphy"};
+    private static final String[] TOWN = {"Salem", "Dartmouth", "Plymouth", "Newport", "Hartford", "Springfield", "Greenwich", "Fairfield", "Concord", "Lexington", "Milford", "Danbury", "Bristol", "Exeter", "Dover", "Windsor", "Shelton", "Derby", "Albany", "Kingston"};
+    private static final String[] REGION = {"Essex, Massachusetts, USA", "Bristol, Massachusetts, USA", "Newport, Rhode Island, USA", "Hartford, Connecticut, USA", "Fairfield, Connecticut, USA", "Albany, New York, USA", "Devon, England", "Kent, England"};
+    private static final int[] CHILDREN_PERCENT = {20, 15, 20, 18, 12, 8, 4, 2, 1};
+
+    private final Random random;
+    private final List<Person> persons = new ArrayList<>();
+    private final List<Family> families = new ArrayList<>();
+    private final String[] places;
+
+    private SyntheticGenealogy(final long seed) {
+        this.random = new Random(seed);
+        this.places = new String[TOWN.length * REGION.length];
+        for (int i = 0; i < this.places.length; ++i) {
+            this.places[i] = TOWN[i % TOWN.length] + ", " + REGION[i / TOWN.length];
+        }
+    }
+
+    static SyntheticGenealogy generate(final int people, final long seed, final boolean xy) {
+        final SyntheticGenealogy genealogy = new SyntheticGenealogy(seed);
+        genealogy.populate(people);
+        if (xy) {
+            genealogy.placeXy();
+        }
+        LOG.info("Generated {} persons, {} families (seed {}).", genealogy.persons.size(), genealogy.families.size(), seed);
+        return genealogy;
+    }
+
+    List<Person> persons() {
+        return Collections.unmodifiableList(this.persons);
+    }
+
+    List<Family> families() {
+        return Collections.unmodifiableList(this.families);
+    }
+
+    public static void main(final String... args) throws IOException, SQLException {
+        if (args.length != 4) {
+            System.err.println("usage: SyntheticGenealogy PEOPLE SEED XY(true|false) OUTPUT-BASE-NAME");
+            System.exit(2);
+        }
+        final SyntheticGenealogy genealogy = generate(Integer.parseInt(args[0]), Long.parseLong(args[1]), Boolean.parseBoolean(args[2]));
+        final Path base = Paths.get(args[3]).toAbsolutePath();
+        Files.createDirectories(base.getParent());
+        genealogy.writeGedcom(Paths.get(base + ".ged"));
+        genealogy.writeFtm(Paths.get(base + ".ftm"));
+    }
+
+
+
+    private void populate(final int people) {
+        List<Person> pool = new ArrayList<>();
+        int generation = 0;
+        int year = 1600;
+        while (this.persons.size() < people) {
+            // start a new (unconnected) island now and then, and whenever a line dies out
+            if (pool.size() < 2 || this.random.nextInt(50) == 0) {
+                final int founders = Math.min(people - this.persons.size(), Math.max(2, Math.min(200, people / 100)));
+                for (int i = 0; i < founders; ++i) {
+                    pool.add(person(1 + (i % 2), year - 20 + this.random.nextInt(10), generation, Optional.empty(), randomSurname()));
+                }
+            }
+
+            final List<Person> men = new ArrayList<>();
+            final List<Person> women = new ArrayList<>();
+            pool.forEach(p -> (p.sex == 1 ? men : women).add(p));
+            Collections.shuffle(men, this.random);
+            Collections.shuffle(women, this.random);
+            final Set<Person> married = new HashSet<>();
+
+            final List<Person> next = new ArrayList<>();
+            for (final Person man : men) {
+                if (people <= this.persons.size()) {
+                    break;
+                }
+                if (this.random.nextInt(100) < 8) {
+                    continue;
+                }
+                final Optional<Person> wife = chooseWife(man, women, married, generation, people);
+                wife.ifPresent(married::add);
+                family(Optional.of(man), wife, next, people);
+                if (this.random.nextInt(100) < 12 && this.persons.size() < people) {
+                    // remarriage, with half-siblings
+                    final Person second = person(2, man.birth.getYear() + 5 + this.random.nextInt(10), generation, Optional.empty(), randomSurname());
+                    family(Optional.of(man), Optional.of(second), next, people);
+                }
+            }
+            for (final Person woman : women) {
+                if (people <= this.persons.size()) {
+                    break;
+                }
+                if (!married.contains(woman) && this.random.nextInt(100) < 10) {
+                    family(Optional.empty(), Optional.of(woman), next, people);
+                }
+            }
+
+            pool = next;
+            ++generation;
+            year += 28;
+        }
+    }
+
+    /*
+        Usually someone from outside the tree (or from the pool), but now and then
+        a first cousin, for pedigree collapse.
+     */
+    private Optional<Person> chooseWife(final Person man, final List<Person> women, final Set<Person> married, final int generation, final int people) {
+        if (this.random.nextInt(100) < 5) {
+            final Optional<Family> grandparents = man.childOf.flatMap(f -> f.husb.or(() -> f.wife)).flatMap(p -> p.childOf);
+            if (grandparents.isPresent()) {
+                for (final Person parentsSibling : grandparents.get().children) {
+                    // his own parent's children (by any marriage) are his siblings or half-siblings, not cousins
+                    if (isParentOf(parentsSibling, man)) {
+                        continue;
+                    }
+                    for (final Family f : parentsSibling.spouseIn) {
+                        for (final Person cousin : f.children) {
+                            if (cousin.sex == 2 && !married.contains(cousin) && !siblings(man, cousin)) {
+                                return Optional.of(cousin);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        for (int k = women.size() - 1; 0 <= k; --k) {
+            final Person w = women.get(k);
+            if (married.contains(w)) {
+                women.remove(k);
+            } else if (!siblings(man, w)) {
+                women.remove(k);
+                return Optional.of(w);
+            }
+        }
+        if (people <= this.persons.size()) {
+            // no room for anyone else; a single father
+            return Optional.empty();
+        }
+        return Optional.of(person(2, man.birth.getYear() - 5 + this.random.nextInt(10), generation, Optional.empty(), randomSurname()));
+    }
+
+    private static boolean isParentOf(final Person parent, final Person child) {
+        return child.childOf.filter(f -> f.husb.equals(Optional.of(parent)) || f.wife.equals(Optional.of(parent))).isPresent();
+    }
+
+    /*
+        Full or half siblings: they have a parent in common.
+     */
+    private static boolean siblings(final Person a, final Person b) {
+        return a.childOf.filter(f -> f.husb.filter(p -> isParentOf(p, b)).isPresent() || f.wife.filter(p -> isParentOf(p, b)).isPresent()).isPresent();
+    }
+
+    private void family(final Optional<Person> husb, final Optional<Person> wife, final List<Person> next, final int people) {
+        final int yearParents = Math.max(husb.map(p -> p.birth.getYear()).orElse(0), wife.map(p -> p.birth.getYear()).orElse(0));
+        final LocalDate marriage = randomDate(yearParents + 20 + this.random.nextInt(10));
+        final Family family = new Family(this.families.size() + 1, husb, wife, marriage, randomPlace());
+        this.families.add(family);
+        husb.ifPresent(p -> p.spouseIn.add(family));
+        wife.ifPresent(p -> p.spouseIn.add(family));
+
+        final String sur = husb.or(() -> wife).get().sur;
+        final int children = childCount();
+        for (int c = 0; c < children && this.persons.size() < people; ++c) {
+            final Person child = person(1 + this.random.nextInt(2), marriage.getYear() + 1 + c * 2 + this.random.nextInt(2), husb.or(() -> wife).get().generation + 1, Optional.of(family), sur);
+            family.children.add(child);
+            next.add(child);
+        }
+    }
+
+    private Person person(final int sex, final int yearBirth, final int generation, final Optional<Family> childOf, final String sur) {
+        final String given = (sex == 1 ? GIVEN_M : GIVEN_F)[this.random.nextInt(GIVEN_M.length)];
+        final DateKind kind = DateKind.values()[this.random.nextInt(DateKind.values().length)];
+        final LocalDate birth = randomDate(yearBirth);
+        // unknown death for some, and for everyone recent
+        final Optional<LocalDate> death = (this.random.nextInt(100) < 15 || 1920 < yearBirth) ? Optional.empty() : Optional.of(randomDate(yearBirth + 30 + this.random.nextInt(60)));
+        final Person person = new Person(this.persons.size() + 1, sex, given, sur, birth, kind, death, randomPlace(), generation, childOf);
+        this.persons.add(person);
+        return person;
+    }
+
+    private int childCount() {
+        int r = this.random.nextInt(100);
+        for (int c = 0; c < CHILDREN_PERCENT.length; ++c) {
+            r -= CHILDREN_PERCENT[c];
+            if (r < 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    private LocalDate randomDate(final int year) {
+        return LocalDate.of(year, 1, 1).plusDays(this.random.nextInt(365));
+    }
+
+    private String randomSurname() {
+        return SUR[this.random.nextInt(SUR.length)];
+    }
+
+    private String randomPlace() {
+        return this.places[this.random.nextInt(this.places.length)];
+    }
+
+    /*
+        Rough coordinates: one row per generation, in order of creation, with some jitter.
+     */
+    private void placeXy() {
+        final Map<Integer, Integer> countAtGeneration = new HashMap<>();
+        for (final Person p : this.persons) {
+            final int i = countAtGeneration.merge(p.generation, 1, Integer::sum);
+            p.xy = Optional.of(new Point2D(i * 120.0D + this.random.nextInt(20), p.generation * 108.0D + this.random.nextInt(10)));
+        }
+    }
+
+
+
+    private static final String[] MONTHS = {"JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+
+    void writeGedcom(final Path path) throws IOException {
+        try (final BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            out.write("0 HEAD\n1 SOUR GEDCOM_XY_SYNTHETIC\n1 GEDC\n2 VERS 5.5.1\n2 FORM LINEAGE-LINKED\n1 CHAR UTF-8\n");
+            for (final Person p : this.persons) {
+                out.write("0 @I" + p.id + "@ INDI\n");
+                out.write("1 NAME " + p.name() + "\n");
+                out.write("1 SEX " + (p.sex == 1 ? "M" : "F") + "\n");
+                out.write("1 BIRT\n2 DATE " + gedcomDate(p.birth, p.birthKind) + "\n2 PLAC " + p.placeBirth + "\n");
+                if (p.death.isPresent()) {
+                    out.write("1 DEAT\n2 DATE " + gedcomDate(p.death.get(), DateKind.EXACT) + "\n");
+                }
+                if (p.xy.isPresent()) {
+                    out.write("1 _XY " + Coords.toValueXY(p.xy.get()) + "\n");
+                }
+                if (p.childOf.isPresent()) {
+                    out.write("1 FAMC @F" + p.childOf.get().id + "@\n");
+                }
+                for (final Family f : p.spouseIn) {
+                    out.write("1 FAMS @F" + f.id + "@\n");
+                }
+            }
+            for (final Family f : this.families) {
+                out.write("0 @F" + f.id + "@ FAM\n");
+                if (f.husb.isPresent()) {
+                    out.write("1 HUSB @I" + f.husb.get().id + "@\n");
+                }
+                if (f.wife.isPresent()) {
+                    out.write("1 WIFE @I" + f.wife.get().id + "@\n");
+                }
+                out.write("1 MARR\n2 DATE " + gedcomDate(f.marriage, DateKind.EXACT) + "\n2 PLAC " + f.placeMarriage + "\n");
+                for (final Person c : f.children) {
+                    out.write("1 CHIL @I" + c.id + "@\n");
+                }
+            }
+            out.write("0 TRLR\n");
+        }
+        LOG.info("Wrote GEDCOM file: {}", path);
+    }
+
+    private static String gedcomDate(final LocalDate d, final DateKind kind) {
+        return switch (kind) {
+            case EXACT -> d.getDayOfMonth() + " " + MONTHS[d.getMonthValue() - 1] + " " + d.getYear();
+            case YEAR -> Integer.toString(d.getYear());
+            case ABOUT -> "ABT " + d.getYear();
+        };
+    }
+
+
+
+    private static final int LINK_TABLE_PERSON = 5;
+    private static final int LINK_TABLE_RELATIONSHIP = 7;
+    private static final long FACT_TYPE_NAME = 1L;
+    private static final long FACT_TYPE_SEX = 2L;
+    private static final long FACT_TYPE_BIRTH = 3L;
+    private static final long FACT_TYPE_DEATH = 4L;
+    private static final long FACT_TYPE_MARRIAGE = 5L;
+    private static final long FACT_TYPE_XY = 1001L;
+
+    /*
+        Only the tables and columns this program reads and writes.
+     */
+    private static final String[] FTM_SCHEMA = {
+        "CREATE TABLE Setting (ID INTEGER PRIMARY KEY AUTOINCREMENT, Name TEXT, StringValue TEXT)",
+        "CREATE TABLE Person (ID INTEGER PRIMARY KEY AUTOINCREMENT, Sex INTEGER, SyncVersion INTEGER)",
+        "CREATE TABLE FactType (ID INTEGER PRIMARY KEY AUTOINCREMENT, Name TEXT, ShortName TEXT, Abbreviation TEXT, FactClass INTEGER, Tag TEXT, SyncVersion INTEGER)",
+        "CREATE TABLE Place (ID INTEGER PRIMARY KEY AUTOINCREMENT, Name TEXT)",
+        "CREATE TABLE Fact (ID INTEGER PRIMARY KEY AUTOINCREMENT, LinkID INTEGER, LinkTableID INTEGER, FactTypeID INTEGER, Preferred INTEGER, Text TEXT, Date TEXT, PlaceID INTEGER, SyncVersion INTEGER)",
+        "CREATE TABLE Relationship (ID INTEGER PRIMARY KEY AUTOINCREMENT, Person1ID INTEGER, Person2ID INTEGER, SyncVersion INTEGER)",
+        "CREATE TABLE ChildRelationship (ID INTEGER PRIMARY KEY AUTOINCREMENT, RelationshipID INTEGER, PersonID INTEGER, SyncVersion INTEGER)",
+        "CREATE INDEX FactLink ON Fact (LinkID, LinkTableID)",
+        "CREATE INDEX ChildRelationshipRelationship ON ChildRelationship (RelationshipID)",
+        "INSERT INTO Setting (Name, StringValue) VALUES ('SyncVersion', '2')",
+        "INSERT INTO FactType (ID, Name, ShortName, Abbreviation, FactClass, Tag, SyncVersion) VALUES (1, 'Name', 'Name', 'NAME', 1, 'NAME', 1)",
+        "INSERT INTO FactType (ID, Name, ShortName, Abbreviation, FactClass, Tag, SyncVersion) VALUES (2, 'Sex', 'Sex', 'SEX', 1, 'SEX', 1)",
+        "INSERT INTO FactType (ID, Name, ShortName, Abbreviation, FactClass, Tag, SyncVersion) VALUES (3, 'Birth', 'Birth', 'BIRT', 1, 'BIRT', 1)",
+        "INSERT INTO FactType (ID, Name, ShortName, Abbreviation, FactClass, Tag, SyncVersion) VALUES (4, 'Death', 'Death', 'DEAT', 1, 'DEAT', 1)",
+        "INSERT INTO FactType (ID, Name, ShortName, Abbreviation, FactClass, Tag, SyncVersion) VALUES (5, 'Marriage', 'Marriage', 'MARR', 2, 'MARR', 1)"
+    };
+
+    void writeFtm(final Path path) throws IOException, SQLException {
+        Files.deleteIfExists(path);
+        try (final Connection conn = DriverManager.getConnection("jdbc:sqlite:" + path)) {
+            conn.setAutoCommit(false);
+            try (final Statement stmt = conn.createStatement()) {
+                for (final String sql : FTM_SCHEMA) {
+                    stmt.executeUpdate(sql);
+                }
+                if (this.persons.stream().anyMatch(p -> p.xy.isPresent())) {
+                    stmt.executeUpdate("INSERT INTO FactType (ID, Name, ShortName, Abbreviation, FactClass, Tag, SyncVersion) VALUES (" + FACT_TYPE_XY + ", '_XY', '_XY', '_XY', 263, 'EVEN', 1)");
+                }
+            }
+
+            final Map<String, Long> placeIds = new HashMap<>();
+            try (final PreparedStatement insert = conn.prepareStatement("INSERT INTO Place (ID, Name) VALUES (?, ?)")) {
+                for (final String place : this.places) {
+                    final long id = placeIds.size() + 1L;
+                    placeIds.put(place, id);
+                    insert.setLong(1, id);
+                    insert.setString(2, place);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+
+            try (final PreparedStatement person = conn.prepareStatement("INSERT INTO Person (ID, Sex, SyncVersion) VALUES (?, ?, 1)");
+                 final PreparedStatement fact = conn.prepareStatement("INSERT INTO Fact (LinkID, LinkTableID, FactTypeID, Preferred, Text, Date, PlaceID, SyncVersion) VALUES (?, ?, ?, 1, ?, ?, ?, 1)")) {
+                for (final Person p : this.persons) {
+                    person.setLong(1, p.id);
+                    person.setInt(2, p.sex);
+                    person.addBatch();
+                    addFact(fact, p.id, LINK_TABLE_PERSON, FACT_TYPE_NAME, p.name(), null, null);
+                    addFact(fact, p.id, LINK_TABLE_PERSON, FACT_TYPE_SEX, Integer.toString(p.sex), null, null);
+                    addFact(fact, p.id, LINK_TABLE_PERSON, FACT_TYPE_BIRTH, null, ftmDate(p.birth, p.birthKind), placeIds.get(p.placeBirth));
+                    if (p.death.isPresent()) {
+                        addFact(fact, p.id, LINK_TABLE_PERSON, FACT_TYPE_DEATH, null, ftmDate(p.death.get(), DateKind.EXACT), null);
+                    }
+                    if (p.xy.isPresent()) {
+                        addFact(fact, p.id, LINK_TABLE_PERSON, FACT_TYPE_XY, Coords.toValueXY(p.xy.get()), null, null);
+                    }
+                }
+                person.executeBatch();
+
+                try (final PreparedStatement rel = conn.prepareStatement("INSERT INTO Relationship (ID, Person1ID, Person2ID, SyncVersion) VALUES (?, ?, ?, 1)");
+                     final PreparedStatement child = conn.prepareStatement("INSERT INTO ChildRelationship (RelationshipID, PersonID, SyncVersion) VALUES (?, ?, 1)")) {
+                    for (final Family f : this.families) {
+                        rel.setLong(1, f.id);
+                        setId(rel, 2, f.husb);
+                        setId(rel, 3, f.wife);
+                        rel.addBatch();
+                        addFact(fact, f.id, LINK_TABLE_RELATIONSHIP, FACT_TYPE_MARRIAGE, null, ftmDate(f.marriage, DateKind.EXACT), placeIds.get(f.placeMarriage));
+                        for (final Person c : f.children) {
+                            child.setLong(1, f.id);
+                            child.setLong(2, c.id);
+                            child.addBatch();
+                        }
+                    }
+                    rel.executeBatch();
+                    child.executeBatch();
+                }
+                fact.executeBatch();
+            }
+            conn.commit();
+        }
+        LOG.info("Wrote FTM file: {}", path);
+    }
+
+    private static void addFact(final PreparedStatement fact, final long link, final int linkTable, final long type, final String text, final String date, final Long place) throws SQLException {
+        fact.setLong(1, link);
+        fact.setInt(2, linkTable);
+        fact.setLong(3, type);
+        fact.setString(4, text);
+        fact.setString(5, date);
+        if (Objects.isNull(place)) {
+            fact.setNull(6, Types.INTEGER);
+        } else {
+            fact.setLong(6, place);
+        }
+        fact.addBatch();
+    }
+
+    private static void setId(final PreparedStatement stmt, final int i, final Optional<Person> person) throws SQLException {
+        if (person.isPresent()) {
+            stmt.setLong(i, person.get().id);
+        } else {
+            stmt.setNull(i, Types.INTEGER);
+        }
+    }
+
+    /*
+        Packed FTM date, as decoded by FtmDate: Julian day number in bits 9-30,
+        and flags (before, after, no-month, no-day) in the low bits.
+     */
+    private static String ftmDate(final LocalDate d, final DateKind kind) {
+        final long jd = d.getLong(JulianFields.JULIAN_DAY);
+        final long flags = switch (kind) {
+            case EXACT -> 0L;
+            case YEAR -> (1L << 6) | (1L << 7);
+            case ABOUT -> (1L << 6) | (1L << 7) | 1L | (1L << 1);
+        };
+        return Long.toString((jd << 9) | flags);
+    }
+}
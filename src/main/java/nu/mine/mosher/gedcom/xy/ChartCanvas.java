@@ -0,0 +1,596 @@
+package nu.mine.mosher.gedcom.xy;
+
+import javafx.application.Platform;
+import javafx.geometry.*;
+import javafx.scene.Cursor;
+import javafx.scene.canvas.*;
+import javafx.scene.input.*;
+import javafx.scene.layout.*;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.text.TextAlignment;
+import nu.mine.mosher.gedcom.xy.util.FrameTimes;
+import org.slf4j.*;
+
+import java.util.*;
+
+/**
+ * Shows a chart by drawing it onto a grid of {@link Canvas} tiles, instead of building a node
+ * for every plaque and connector line, so the cost of a frame depends on what is on the screen,
+ * not on the size of the chart. Tiles exist only where they cover the viewport, and a tile is
+ * repainted only when it comes into view, or when something drawn on it changes (at the next pulse,
+ * which is requested only then).
+ * This does its own hit testing: drag a plaque to move it (along with everyone else selected),
+ * click a plaque to select it, shift-drag to select everyone within a rectangle,
+ * drag the background to pan, and scroll to zoom.
+ * Zoomed out, it draws less (see {@link LevelOfDetail}).
+ */
+public final class ChartCanvas extends Region {
+    private static final Logger LOG = LoggerFactory.getLogger(ChartCanvas.class);
+
+    private static final int TILE = 256;
+    private static final double ZOOM_INTENSITY = 0.005D;
+    private static final double SCALE_MIN = 0.01D;
+    private static final double SCALE_MAX = 16.0D;
+    private static final double MARGIN = 50.0D;
+    private static final double ARC = Indi.CORNERS.getTopLeftHorizontalRadius() * 2.0D;
+    private static final int LINES_NOMINAL = Metrics.PLAQUE_MAX.split("\n").length;
+
+    private final FamilyChart chart;
+    private final ChartModel model;
+    private final Metrics metrics;
+    private final Runnable pulse = this::paint;
+    private final Runnable changed = Platform::requestNextPulse;
+    private final FrameTimes frames = new FrameTimes();
+
+    // screen point (sx,sy) shows chart point ((sx+xView)/scale, (sy+yView)/scale)
+    private double scale = 1.0D;
+    private LevelOfDetail detail;
+    private double xView;
+    private double yView;
+
+    // the tiles covering the viewport, by column and row
+    private final Map<Long, Tile> tiles = new HashMap<>();
+    private final Deque<Tile> spare = new ArrayDeque<>();
+    private int colMin;
+    private int colMax;
+    private int rowMin;
+    private int rowMax;
+    private boolean anyDirty;
+    private long versionSeen;
+
+    private enum Gesture {NONE, PAN, DRAG, SELECT}
+
+    private Gesture gesture = Gesture.NONE;
+    private Point2D pressed;
+    private double xViewPressed;
+    private double yViewPressed;
+    private int indiPressed = -1;
+    private boolean wasSelected;
+    private Point2D selectStart;
+    private final Rectangle selector = new Rectangle();
+    private final double[] box = new double[4];
+    // families found while gathering (each only once)
+    private final BitSet famiFound = new BitSet();
+    private int[] famisFound = new int[64];
+    private int cFamiFound;
+
+    private static final class Tile {
+        private final Canvas canvas = new Canvas(TILE, TILE);
+        private int col;
+        private int row;
+        private boolean dirty;
+
+        // what to draw, gathered just before painting
+        private int[] famis = new int[64];
+        private int cFami;
+        private int[] indis = new int[64];
+        private int cIndi;
+
+        private void addFami(final int f) {
+            if (this.famis.length <= this.cFami) {
+                this.famis = Arrays.copyOf(this.famis, this.cFami * 2);
+            }
+            this.famis[this.cFami++] = f;
+        }
+
+        private void addIndi(final int i) {
+            if (this.indis.length <= this.cIndi) {
+                this.indis = Arrays.copyOf(this.indis, this.cIndi * 2);
+            }
+            this.indis[this.cIndi++] = i;
+        }
+    }
+
+    public ChartCanvas(final FamilyChart chart) {
+        this.chart = chart;
+        this.model = chart.model();
+        this.metrics = chart.metrics();
+        this.versionSeen = this.model.version();
+        this.detail = LevelOfDetail.of(this.metrics, this.scale);
+
+        setBackground(new Background(new BackgroundFill(this.metrics.colors().bg(), CornerRadii.EMPTY, Insets.EMPTY)));
+        final Rectangle clip = new Rectangle();
+        clip.widthProperty().bind(widthProperty());
+        clip.heightProperty().bind(heightProperty());
+        setClip(clip);
+
+        this.selector.setManaged(false);
+        this.selector.setVisible(false);
+        this.selector.setFill(Color.TRANSPARENT);
+        this.selector.setStrokeWidth(1.0D);
+        this.selector.setStroke(this.metrics.colors().selector());
+        this.selector.getStrokeDashArray().addAll(3.0D);
+        getChildren().add(this.selector);
+
+        final Bounds bounds = this.model.bounds();
+        this.xView = Math.rint(bounds.getMinX() - MARGIN);
+        this.yView = Math.rint(bounds.getMinY() - MARGIN);
+
+        setOnScroll(this::scrolled);
+        setOnMousePressed(this::pressed);
+        setOnMouseDragged(this::dragged);
+        setOnMouseReleased(this::released);
+        setOnMouseMoved(this::moved);
+
+        // paint after layout (which may have retiled), whenever a pulse happens; changes to the model request one
+        // (only while this is showing, so a dropped canvas is not kept by the model)
+        sceneProperty().addListener((prop, was, is) -> {
+            if (Objects.nonNull(was)) {
+                was.removePostLayoutPulseListener(this.pulse);
+                this.model.removeOnChange(this.changed);
+            }
+            if (Objects.nonNull(is)) {
+                is.addPostLayoutPulseListener(this.pulse);
+                this.model.addOnChange(this.changed);
+            }
+        });
+    }
+
+
+
+    @Override
+    protected void layoutChildren() {
+        retile();
+    }
+
+    /*
+        Makes sure there is a tile at each position in the viewport (and none outside it).
+     */
+    private void retile() {
+        this.colMin = (int)Math.floor(this.xView / TILE);
+        this.colMax = (int)Math.floor((this.xView + getWidth()) / TILE);
+        this.rowMin = (int)Math.floor(this.yView / TILE);
+        this.rowMax = (int)Math.floor((this.yView + getHeight()) / TILE);
+
+        final Iterator<Tile> i = this.tiles.values().iterator();
+        while (i.hasNext()) {
+            final Tile tile = i.next();
+            if (tile.col < this.colMin || this.colMax < tile.col || tile.row < this.rowMin || this.rowMax < tile.row) {
+                i.remove();
+                getChildren().remove(tile.canvas);
+                this.spare.push(tile);
+            }
+        }
+
+        for (int row = this.rowMin; row <= this.rowMax; ++row) {
+            for (int col = this.colMin; col <= this.colMax; ++col) {
+                Tile tile = this.tiles.get(key(col, row));
+                if (Objects.isNull(tile)) {
+                    tile = this.spare.isEmpty() ? new Tile() : this.spare.pop();
+                    tile.col = col;
+                    tile.row = row;
+                    dirty(tile);
+                    this.tiles.put(key(col, row), tile);
+                    // beneath the selection rectangle
+                    getChildren().add(0, tile.canvas);
+                }
+                tile.canvas.setLayoutX(col * TILE - this.xView);
+                tile.canvas.setLayoutY(row * TILE - this.yView);
+            }
+        }
+    }
+
+    private static long key(final int col, final int row) {
+        return ((long)col << 32) | (row & 0xFFFFFFFFL);
+    }
+
+
+
+    private void dirty(final Tile tile) {
+        tile.dirty = true;
+        if (!this.anyDirty) {
+            this.anyDirty = true;
+            Platform.requestNextPulse();
+        }
+    }
+
+    private void invalidateAll() {
+        this.tiles.values().forEach(this::dirty);
+    }
+
+    /*
+        Marks the tiles that show any of the given rectangle (in chart coordinates) as needing to be repainted.
+     */
+    private void invalidate(final double x0, final double y0, final double x1, final double y1) {
+        final int c0 = Math.max(this.colMin, col(x0));
+        final int c1 = Math.min(this.colMax, col(x1));
+        final int r0 = Math.max(this.rowMin, row(y0));
+        final int r1 = Math.min(this.rowMax, row(y1));
+        for (int row = r0; row <= r1; ++row) {
+            for (int col = c0; col <= c1; ++col) {
+                final Tile tile = this.tiles.get(key(col, row));
+                if (Objects.nonNull(tile)) {
+                    dirty(tile);
+                }
+            }
+        }
+    }
+
+    private void invalidateIndi(final int i) {
+        final double hw = this.model.width(i) / 2.0D + 1.0D;
+        final double hh = this.model.height(i) / 2.0D + 1.0D;
+        invalidate(this.model.x(i) - hw, this.model.y(i) - hh, this.model.x(i) + hw, this.model.y(i) + hh);
+    }
+
+    private void invalidateFami(final int f) {
+        if (famiBox(f)) {
+            invalidate(this.box[0], this.box[1], this.box[2], this.box[3]);
+        }
+    }
+
+    /*
+        Everyone selected, and all their families (which is everything that moves when they are dragged).
+     */
+    private void invalidateSelected() {
+        for (int i = this.model.firstSelected(); 0 <= i; i = this.model.nextSelected(i)) {
+            invalidateIndi(i);
+            this.model.forEachFami(i, this::invalidateFami);
+        }
+    }
+
+    /*
+        If anything in the model was changed by someone else (by normalizing, saving, or
+        reading more of a progressively opened chart, for example), everything is repainted.
+     */
+    private void sync() {
+        if (this.model.version() != this.versionSeen) {
+            this.versionSeen = this.model.version();
+            invalidateAll();
+        }
+    }
+
+    /*
+        Call after changing the model, and invalidating whatever the change affected.
+     */
+    private void synced() {
+        this.versionSeen = this.model.version();
+    }
+
+
+
+    private void paint() {
+        sync();
+        if (!this.anyDirty) {
+            return;
+        }
+        this.anyDirty = false;
+
+        final long t0 = System.nanoTime();
+        gather();
+        int cTile = 0;
+        for (final Tile tile : this.tiles.values()) {
+            if (tile.dirty) {
+                paint(tile);
+                tile.dirty = false;
+                ++cTile;
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Painted {} of {} tiles in {} ms (scale {}, detail {}).", cTile, this.tiles.size(), (System.nanoTime() - t0) / 1_000_000L, this.scale, this.detail);
+        }
+    }
+
+    /*
+        Finds the families and individuals to draw on each dirty tile, looking only at those near
+        the dirty tiles: any family drawn there has a member within its margin plus FAMI_REACH
+        of them, unless it is one of the (few) long families.
+     */
+    private void gather() {
+        int c0 = Integer.MAX_VALUE;
+        int c1 = Integer.MIN_VALUE;
+        int r0 = Integer.MAX_VALUE;
+        int r1 = Integer.MIN_VALUE;
+        for (final Tile tile : this.tiles.values()) {
+            tile.cFami = 0;
+            tile.cIndi = 0;
+            if (tile.dirty) {
+                c0 = Math.min(c0, tile.col);
+                c1 = Math.max(c1, tile.col);
+                r0 = Math.min(r0, tile.row);
+                r1 = Math.max(r1, tile.row);
+            }
+        }
+        if (c1 < c0) {
+            return;
+        }
+        final double x0 = (double)c0 * TILE / this.scale;
+        final double y0 = (double)r0 * TILE / this.scale;
+        final double x1 = (double)(c1 + 1) * TILE / this.scale;
+        final double y1 = (double)(r1 + 1) * TILE / this.scale;
+
+        final double reach = famiMargin() + ChartModel.FAMI_REACH;
+        this.model.forEachWithin(x0 - reach, y0 - reach, x1 - x0 + reach * 2.0D, y1 - y0 + reach * 2.0D, i -> this.model.forEachFami(i, this::found));
+        this.model.forEachLongFami(this::found);
+        for (int k = 0; k < this.cFamiFound; ++k) {
+            final int f = this.famisFound[k];
+            this.famiFound.clear(f);
+            if (famiBox(f)) {
+                gather(f, this.box[0], this.box[1], this.box[2], this.box[3], true);
+            }
+        }
+        this.cFamiFound = 0;
+
+        this.model.forEachWithin(x0 - 1.0D, y0 - 1.0D, x1 - x0 + 2.0D, y1 - y0 + 2.0D, i -> {
+            final double hw = this.model.width(i) / 2.0D + 1.0D;
+            final double hh = this.model.height(i) / 2.0D + 1.0D;
+            gather(i, this.model.x(i) - hw, this.model.y(i) - hh, this.model.x(i) + hw, this.model.y(i) + hh, false);
+        });
+    }
+
+    private void found(final int f) {
+        if (this.famiFound.get(f)) {
+            return;
+        }
+        this.famiFound.set(f);
+        if (this.famisFound.length <= this.cFamiFound) {
+            this.famisFound = Arrays.copyOf(this.famisFound, this.cFamiFound * 2);
+        }
+        this.famisFound[this.cFamiFound++] = f;
+    }
+
+    private void gather(final int item, final double x0, final double y0, final double x1, final double y1, final boolean fami) {
+        final int c0 = Math.max(this.colMin, col(x0));
+        final int c1 = Math.min(this.colMax, col(x1));
+        final int r0 = Math.max(this.rowMin, row(y0));
+        final int r1 = Math.min(this.rowMax, row(y1));
+        for (int row = r0; row <= r1; ++row) {
+            for (int col = c0; col <= c1; ++col) {
+                final Tile tile = this.tiles.get(key(col, row));
+                if (Objects.nonNull(tile) && tile.dirty) {
+                    if (fami) {
+                        tile.addFami(item);
+                    } else {
+                        tile.addIndi(item);
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+        Sets box to the extent (in chart coordinates) of everything drawn for the given family:
+        its members, with room for phantom parents and the lines above the children.
+        Returns false if the family has no members.
+     */
+    private boolean famiBox(final int f) {
+        double xMin = Double.POSITIVE_INFINITY;
+        double yMin = Double.POSITIVE_INFINITY;
+        double xMax = Double.NEGATIVE_INFINITY;
+        double yMax = Double.NEGATIVE_INFINITY;
+        final int cChild = this.model.childCount(f);
+        for (int c = -2; c < cChild; ++c) {
+            final int i = c == -2 ? this.model.husb(f) : c == -1 ? this.model.wife(f) : this.model.child(f, c);
+            if (0 <= i) {
+                xMin = Math.min(xMin, this.model.x(i));
+                yMin = Math.min(yMin, this.model.y(i));
+                xMax = Math.max(xMax, this.model.x(i));
+                yMax = Math.max(yMax, this.model.y(i));
+            }
+        }
+        if (xMax < xMin) {
+            return false;
+        }
+        final double margin = famiMargin();
+        this.box[0] = xMin - margin;
+        this.box[1] = yMin - margin;
+        this.box[2] = xMax + margin;
+        this.box[3] = yMax + margin;
+        return true;
+    }
+
+    private double famiMargin() {
+        return this.metrics.getMarrDistance() + this.metrics.getWidthMax() / 2.0D + this.metrics.getChildHeight() * 2.0D;
+    }
+
+    private int col(final double x) {
+        return (int)Math.floor(x * this.scale / TILE);
+    }
+
+    private int row(final double y) {
+        return (int)Math.floor(y * this.scale / TILE);
+    }
+
+    private void paint(final Tile tile) {
+        final ColorScheme colors = this.metrics.colors();
+        final GraphicsContext gc = tile.canvas.getGraphicsContext2D();
+        gc.setFill(colors.bg());
+        gc.fillRect(0D, 0D, TILE, TILE);
+
+        gc.save();
+        gc.translate(-tile.col * TILE, -tile.row * TILE);
+        gc.scale(this.scale, this.scale);
+        gc.setLineWidth(1.0D);
+        gc.setFont(this.metrics.getFont());
+        gc.setTextAlign(TextAlignment.CENTER);
+        gc.setTextBaseline(VPos.TOP);
+
+        // all lines beneath all plaques
+        for (int k = 0; k < tile.cFami; ++k) {
+            final Fami fami = this.model.fami(tile.famis[k]);
+            gc.setStroke(colors.lines());
+            if (this.detail == LevelOfDetail.FULL) {
+                for (final double[] line : fami.lines()) {
+                    gc.strokeLine(line[0], line[1], line[2], line[3]);
+                }
+                for (final Bounds phantom : fami.phantoms()) {
+                    plaque(gc, phantom.getMinX(), phantom.getMinY(), phantom.getWidth(), phantom.getHeight(), Fami.PHANTOM, false, false);
+                }
+            } else {
+                fami.glyph().ifPresent(line -> gc.strokeLine(line[0], line[1], line[2], line[3]));
+            }
+        }
+        for (int k = 0; k < tile.cIndi; ++k) {
+            final int i = tile.indis[k];
+            final double w = this.model.width(i);
+            final double h = this.model.height(i);
+            final double x = this.model.x(i) - w / 2.0D;
+            final double y = this.model.y(i) - h / 2.0D;
+            if (this.detail == LevelOfDetail.DOTS) {
+                gc.setFill(this.model.selected(i) ? colors.indiSelBg() : this.model.dirty(i) ? colors.indiBorderDirty() : colors.indiBorder());
+                gc.fillRect(x, y, w, h);
+            } else {
+                plaque(gc, x, y, w, h, this.model.label(i), this.model.selected(i), this.model.dirty(i));
+            }
+        }
+
+        gc.restore();
+    }
+
+    private void plaque(final GraphicsContext gc, final double x, final double y, final double w, final double h, final String label, final boolean selected, final boolean dirty) {
+        final ColorScheme colors = this.metrics.colors();
+        gc.setFill(selected ? colors.indiSelBg() : colors.indiBg());
+        gc.fillRoundRect(x, y, w, h, ARC, ARC);
+        gc.setStroke(dirty ? colors.indiBorderDirty() : colors.indiBorder());
+        gc.strokeRoundRect(x + 0.5D, y + 0.5D, w - 1.0D, h - 1.0D, ARC, ARC);
+        if (this.detail != LevelOfDetail.FULL) {
+            return;
+        }
+
+        // wrapped as a Text node would be (as it was measured); the maximum width only guards against rounding
+        gc.setFill(selected ? colors.indiSelText() : colors.indiText());
+        final List<String> lines = this.metrics.lines(label);
+        final double inset = this.metrics.getFontSize() / 2.0D;
+        final double hLine = this.metrics.getHeightNominal() / LINES_NOMINAL;
+        double yLine = y + (h - lines.size() * hLine) / 2.0D;
+        for (final String line : lines) {
+            gc.fillText(line, x + w / 2.0D, yLine, w - inset * 2.0D);
+            yLine += hLine;
+        }
+    }
+
+
+
+    private Point2D toChart(final double xScreen, final double yScreen) {
+        return new Point2D((xScreen + this.xView) / this.scale, (yScreen + this.yView) / this.scale);
+    }
+
+    /*
+        Chart point relative to the given individual (the same as the point within its plaque node,
+        which is what the selection's dragging is based on).
+     */
+    private Point2D relativeTo(final int i, final Point2D at) {
+        return at.subtract(this.model.x(i), this.model.y(i));
+    }
+
+    private void scrolled(final ScrollEvent t) {
+        sync();
+        final double scaleNew = Math.max(SCALE_MIN, Math.min(this.scale * Math.exp(ZOOM_INTENSITY * t.getDeltaY()), SCALE_MAX));
+        // keep the chart point under the mouse where it is
+        final Point2D at = toChart(t.getX(), t.getY());
+        this.scale = scaleNew;
+        this.detail = LevelOfDetail.of(this.metrics, this.scale);
+        this.xView = Math.rint(at.getX() * this.scale - t.getX());
+        this.yView = Math.rint(at.getY() * this.scale - t.getY());
+        invalidateAll();
+        retile();
+        this.frames.activity(this.detail.name());
+        t.consume();
+    }
+
+    private void pressed(final MouseEvent t) {
+        sync();
+        this.pressed = new Point2D(t.getX(), t.getY());
+        final Point2D at = toChart(t.getX(), t.getY());
+        if (t.isShiftDown()) {
+            this.gesture = Gesture.SELECT;
+            this.selectStart = at;
+            this.selector.setX(t.getX());
+            this.selector.setY(t.getY());
+            this.selector.setWidth(0D);
+            this.selector.setHeight(0D);
+            this.selector.setVisible(true);
+            this.chart.setSelectionFrom(at.getX(), at.getY(), 0D, 0D, this::invalidateIndi);
+        } else {
+            final int i = this.model.hit(at.getX(), at.getY());
+            if (0 <= i) {
+                this.gesture = Gesture.DRAG;
+                this.indiPressed = i;
+                this.wasSelected = this.model.selected(i);
+                setCursor(Cursor.MOVE);
+                this.chart.selection().select(this.model.indi(i), true, true);
+                this.chart.selection().beginDrag(relativeTo(i, at));
+                invalidateIndi(i);
+            } else {
+                this.gesture = Gesture.PAN;
+                this.xViewPressed = this.xView;
+                this.yViewPressed = this.yView;
+            }
+        }
+        synced();
+        t.consume();
+    }
+
+    private void dragged(final MouseEvent t) {
+        sync();
+        if (this.gesture == Gesture.PAN) {
+            this.xView = Math.rint(this.xViewPressed - (t.getX() - this.pressed.getX()));
+            this.yView = Math.rint(this.yViewPressed - (t.getY() - this.pressed.getY()));
+            retile();
+            this.frames.activity(this.detail.name());
+        } else if (this.gesture == Gesture.DRAG) {
+            invalidateSelected();
+            this.chart.selection().drag(relativeTo(this.indiPressed, toChart(t.getX(), t.getY())));
+            invalidateSelected();
+            this.frames.activity(this.detail.name());
+        } else if (this.gesture == Gesture.SELECT) {
+            this.selector.setX(Math.min(this.pressed.getX(), t.getX()));
+            this.selector.setY(Math.min(this.pressed.getY(), t.getY()));
+            this.selector.setWidth(Math.abs(t.getX() - this.pressed.getX()));
+            this.selector.setHeight(Math.abs(t.getY() - this.pressed.getY()));
+            final Point2D at = toChart(t.getX(), t.getY());
+            final double x = Math.min(this.selectStart.getX(), at.getX());
+            final double y = Math.min(this.selectStart.getY(), at.getY());
+            this.chart.setSelectionFrom(x, y, Math.abs(at.getX() - this.selectStart.getX()), Math.abs(at.getY() - this.selectStart.getY()), this::invalidateIndi);
+        }
+        synced();
+        t.consume();
+    }
+
+    private void released(final MouseEvent t) {
+        sync();
+        if (this.gesture == Gesture.DRAG) {
+            setCursor(Cursor.HAND);
+            if (this.wasSelected && t.isStillSincePress()) {
+                this.chart.selection().select(this.model.indi(this.indiPressed), false, true);
+                invalidateIndi(this.indiPressed);
+            }
+        } else if (this.gesture == Gesture.SELECT) {
+            this.selector.setVisible(false);
+        } else if (this.gesture == Gesture.PAN && t.isStillSincePress()) {
+            invalidateSelected();
+            this.chart.clearSelection();
+        }
+        this.gesture = Gesture.NONE;
+        this.indiPressed = -1;
+        this.wasSelected = false;
+        synced();
+        t.consume();
+    }
+
+    private void moved(final MouseEvent t) {
+        final Point2D at = toChart(t.getX(), t.getY());
+        setCursor(0 <= this.model.hit(at.getX(), at.getY()) ? Cursor.HAND : Cursor.DEFAULT);
+        t.consume();
+    }
+}
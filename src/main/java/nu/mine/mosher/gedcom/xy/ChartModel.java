@@ -0,0 +1,420 @@
+package nu.mine.mosher.gedcom.xy;
+
+import javafx.geometry.*;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntConsumer;
+
+/**
+ * The chart's core data, kept in primitive arrays indexed by each individual's (or family's)
+ * position in the chart: where each individual is, the size of its plaque, whether it is
+ * dirty or selected, its sex and birth sort key, its (interned) label, and who is in each family
+ * (and which families have connector lines that are stale, because a member has moved, and
+ * which families are spread so far apart that they cannot be found by way of a nearby member).
+ * Hit testing (by way of a {@link SpatialGrid}), saving, and exporting work from these arrays; the JavaFX nodes (plaques and
+ * connector lines) are only a view over them, and are built only for the GUI.
+ * Individuals and families are only ever added (in batches, for a progressively opened chart).
+ */
+public final class ChartModel {
+    private static final int INITIAL = 1024;
+    /**
+     * Any family whose members are all within this distance of each other (in both directions)
+     * can be found from any of its members; the others are listed by {@link ChartModel#forEachLongFami}.
+     */
+    public static final double FAMI_REACH = 2048.0D;
+
+    private final List<Indi> indis = new ArrayList<>();
+    private final List<Fami> famis = new ArrayList<>();
+
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> mapStringToId = new HashMap<>();
+
+    private int cIndi;
+    private double[] x = new double[INITIAL];
+    private double[] y = new double[INITIAL];
+    private double[] w = new double[INITIAL];
+    private double[] h = new double[INITIAL];
+    private byte[] sex = new byte[INITIAL];
+    private long[] birth = new long[INITIAL];
+    private int[] label = new int[INITIAL];
+    private final BitSet dirty = new BitSet();
+    private final BitSet selected = new BitSet();
+    private final SpatialGrid grid = new SpatialGrid(this, INITIAL);
+
+    private int cFami;
+    /* indexes of individuals, or -1 */
+    private int[] husb = new int[INITIAL];
+    private int[] wife = new int[INITIAL];
+    /* children of family f are child[childStart[f]] to child[childStart[f+1]-1] */
+    private int[] childStart = new int[INITIAL + 1];
+    private int[] child = new int[INITIAL * 2];
+    /* families of individual i (as husband, wife, or child) are linkFami[l] for l = famiHead[i], linkNext[l], ... until -1 */
+    private int[] famiHead = new int[INITIAL];
+    private int cLink;
+    private int[] linkNext = new int[INITIAL * 4];
+    private int[] linkFami = new int[INITIAL * 4];
+    private final BitSet famiStale = new BitSet();
+    private final BitSet famiLong = new BitSet();
+
+    private long version;
+    private final List<Runnable> onChange = new CopyOnWriteArrayList<>();
+
+    /**
+     * Adds a batch of individuals and families. All members of the families
+     * must be in the model already, or in the given batch of individuals.
+     */
+    public void add(final List<Indi> indisNew, final List<Fami> famisNew) {
+        ensureIndis(this.cIndi + indisNew.size());
+        for (final Indi indi : indisNew) {
+            final int i = this.cIndi++;
+            this.indis.add(indi);
+            this.sex[i] = (byte)indi.getSex();
+            this.birth[i] = indi.getBirthForSort();
+            this.famiHead[i] = -1;
+            indi.attach(this, i);
+        }
+
+        ensureFamis(this.cFami + famisNew.size());
+        for (final Fami fami : famisNew) {
+            final int f = this.cFami++;
+            this.famis.add(fami);
+            this.husb[f] = fami.getHusb().map(Indi::index).orElse(-1);
+            this.wife[f] = fami.getWife().map(Indi::index).orElse(-1);
+            link(this.husb[f], f);
+            link(this.wife[f], f);
+            final List<Indi> children = fami.getChildren();
+            int c = this.childStart[f];
+            ensureChildren(c + children.size());
+            for (final Indi indi : children) {
+                this.child[c++] = indi.index();
+                link(indi.index(), f);
+            }
+            this.childStart[f + 1] = c;
+            fami.attach(this, f);
+            spread(f);
+        }
+        changed();
+    }
+
+    private void link(final int i, final int f) {
+        if (i < 0) {
+            return;
+        }
+        if (this.linkNext.length <= this.cLink) {
+            this.linkNext = Arrays.copyOf(this.linkNext, this.cLink * 2);
+            this.linkFami = Arrays.copyOf(this.linkFami, this.cLink * 2);
+        }
+        final int l = this.cLink++;
+        this.linkFami[l] = f;
+        this.linkNext[l] = this.famiHead[i];
+        this.famiHead[i] = l;
+    }
+
+    private void ensureIndis(final int n) {
+        if (this.x.length < n) {
+            final int c = Math.max(n, this.x.length * 2);
+            this.x = Arrays.copyOf(this.x, c);
+            this.y = Arrays.copyOf(this.y, c);
+            this.w = Arrays.copyOf(this.w, c);
+            this.h = Arrays.copyOf(this.h, c);
+            this.sex = Arrays.copyOf(this.sex, c);
+            this.birth = Arrays.copyOf(this.birth, c);
+            this.label = Arrays.copyOf(this.label, c);
+            this.famiHead = Arrays.copyOf(this.famiHead, c);
+            this.grid.ensure(c);
+        }
+    }
+
+    private void ensureFamis(final int n) {
+        if (this.husb.length < n) {
+            final int c = Math.max(n, this.husb.length * 2);
+            this.husb = Arrays.copyOf(this.husb, c);
+            this.wife = Arrays.copyOf(this.wife, c);
+            this.childStart = Arrays.copyOf(this.childStart, c + 1);
+        }
+    }
+
+    private void ensureChildren(final int n) {
+        if (this.child.length < n) {
+            this.child = Arrays.copyOf(this.child, Math.max(n, this.child.length * 2));
+        }
+    }
+
+    /**
+     * @return ID of the given string, which is stored only once no matter how many times it is interned
+     */
+    public int intern(final String s) {
+        return this.mapStringToId.computeIfAbsent(s, k -> {
+            this.strings.add(k);
+            return this.strings.size() - 1;
+        });
+    }
+
+    public String string(final int id) {
+        return this.strings.get(id);
+    }
+
+    /**
+     * @return a number that changes whenever anything in the model changes
+     * (so a view can tell whether it needs to be redrawn)
+     */
+    public long version() {
+        return this.version;
+    }
+
+    /**
+     * @param listener called whenever the version changes (on whichever thread changed the model)
+     */
+    public void addOnChange(final Runnable listener) {
+        this.onChange.add(Objects.requireNonNull(listener));
+    }
+
+    public void removeOnChange(final Runnable listener) {
+        this.onChange.remove(listener);
+    }
+
+    private void changed() {
+        ++this.version;
+        this.onChange.forEach(Runnable::run);
+    }
+
+
+
+    public int indiCount() {
+        return this.cIndi;
+    }
+
+    public Indi indi(final int i) {
+        return this.indis.get(i);
+    }
+
+    public double x(final int i) {
+        return this.x[i];
+    }
+
+    public double y(final int i) {
+        return this.y[i];
+    }
+
+    public void moveTo(final int i, final double x, final double y) {
+        this.x[i] = x;
+        this.y[i] = y;
+        this.grid.put(i, x, y);
+        forEachFami(i, this::moved);
+        changed();
+    }
+
+    /**
+     * @return width of the plaque (0 until it is measured)
+     */
+    public double width(final int i) {
+        return this.w[i];
+    }
+
+    /**
+     * @return height of the plaque (0 until it is measured)
+     */
+    public double height(final int i) {
+        return this.h[i];
+    }
+
+    public void size(final int i, final double w, final double h) {
+        this.w[i] = w;
+        this.h[i] = h;
+        this.grid.extent(w, h);
+        changed();
+    }
+
+    public int sex(final int i) {
+        return this.sex[i];
+    }
+
+    public long birthForSort(final int i) {
+        return this.birth[i];
+    }
+
+    public String label(final int i) {
+        return this.strings.get(this.label[i]);
+    }
+
+    void label(final int i, final String label) {
+        this.label[i] = intern(label);
+    }
+
+    public boolean dirty(final int i) {
+        return this.dirty.get(i);
+    }
+
+    public void dirty(final int i, final boolean dirty) {
+        if (this.dirty.get(i) != dirty) {
+            this.dirty.set(i, dirty);
+            changed();
+        }
+    }
+
+    public boolean anyDirty() {
+        return !this.dirty.isEmpty();
+    }
+
+    /**
+     * @return dirty individuals, in chart order
+     */
+    public List<Indi> dirtyIndis() {
+        final List<Indi> r = new ArrayList<>(this.dirty.cardinality());
+        for (int i = this.dirty.nextSetBit(0); 0 <= i; i = this.dirty.nextSetBit(i + 1)) {
+            r.add(this.indis.get(i));
+        }
+        return r;
+    }
+
+    public boolean selected(final int i) {
+        return this.selected.get(i);
+    }
+
+    public void selected(final int i, final boolean selected) {
+        if (this.selected.get(i) != selected) {
+            this.selected.set(i, selected);
+            changed();
+        }
+    }
+
+    public int selectedCount() {
+        return this.selected.cardinality();
+    }
+
+    /**
+     * @return index of the first selected individual, or -1 if none is selected
+     */
+    public int firstSelected() {
+        return this.selected.nextSetBit(0);
+    }
+
+    /**
+     * @return index of the next selected individual after i, or -1 if there are no more
+     */
+    public int nextSelected(final int i) {
+        return this.selected.nextSetBit(i + 1);
+    }
+
+    public boolean intersects(final int i, final double xRect, final double yRect, final double wRect, final double hRect) {
+        final double x0 = this.x[i] - this.w[i] / 2.0D;
+        final double y0 = this.y[i] - this.h[i] / 2.0D;
+        return x0 + this.w[i] >= xRect && y0 + this.h[i] >= yRect && x0 <= xRect + wRect && y0 <= yRect + hRect;
+    }
+
+    public Bounds bounds(final int i) {
+        return new BoundingBox(this.x[i] - this.w[i] / 2.0D, this.y[i] - this.h[i] / 2.0D, this.w[i], this.h[i]);
+    }
+
+    /**
+     * Passes each individual whose plaque intersects the given rectangle to the given consumer (in no particular order).
+     */
+    public void forEachWithin(final double x, final double y, final double w, final double h, final IntConsumer consumer) {
+        this.grid.forEachWithin(x, y, w, h, consumer);
+    }
+
+    /**
+     * @return index of the topmost (last) individual whose plaque contains the given point, or -1 if none does
+     */
+    public int hit(final double x, final double y) {
+        return this.grid.hit(x, y);
+    }
+
+    /**
+     * @return bounds of all plaques
+     */
+    public Bounds bounds() {
+        return this.grid.bounds();
+    }
+
+
+
+    public int famiCount() {
+        return this.cFami;
+    }
+
+    public Fami fami(final int f) {
+        return this.famis.get(f);
+    }
+
+    /**
+     * @return index of the husband, or -1
+     */
+    public int husb(final int f) {
+        return this.husb[f];
+    }
+
+    /**
+     * @return index of the wife, or -1
+     */
+    public int wife(final int f) {
+        return this.wife[f];
+    }
+
+    public int childCount(final int f) {
+        return this.childStart[f + 1] - this.childStart[f];
+    }
+
+    /**
+     * @param c 0 to childCount(f)-1
+     * @return index of the family's c-th child
+     */
+    public int child(final int f, final int c) {
+        return this.child[this.childStart[f] + c];
+    }
+
+    /**
+     * Passes each family with a member who has moved since the last call
+     * to the given consumer, and then forgets them.
+     * @return number of families passed
+     */
+    public int takeStaleFamis(final IntConsumer consumer) {
+        final int c = this.famiStale.cardinality();
+        for (int f = this.famiStale.nextSetBit(0); 0 <= f; f = this.famiStale.nextSetBit(f + 1)) {
+            consumer.accept(f);
+        }
+        this.famiStale.clear();
+        return c;
+    }
+
+    private void moved(final int f) {
+        this.famiStale.set(f);
+        spread(f);
+    }
+
+    private void spread(final int f) {
+        double xMin = Double.POSITIVE_INFINITY;
+        double yMin = Double.POSITIVE_INFINITY;
+        double xMax = Double.NEGATIVE_INFINITY;
+        double yMax = Double.NEGATIVE_INFINITY;
+        for (int c = -2; c < childCount(f); ++c) {
+            final int i = c == -2 ? this.husb[f] : c == -1 ? this.wife[f] : child(f, c);
+            if (0 <= i) {
+                xMin = Math.min(xMin, this.x[i]);
+                yMin = Math.min(yMin, this.y[i]);
+                xMax = Math.max(xMax, this.x[i]);
+                yMax = Math.max(yMax, this.y[i]);
+            }
+        }
+        this.famiLong.set(f, FAMI_REACH < xMax - xMin || FAMI_REACH < yMax - yMin);
+    }
+
+    /**
+     * Passes each family whose members are spread more than {@link ChartModel#FAMI_REACH} apart to the given consumer.
+     */
+    public void forEachLongFami(final IntConsumer consumer) {
+        for (int f = this.famiLong.nextSetBit(0); 0 <= f; f = this.famiLong.nextSetBit(f + 1)) {
+            consumer.accept(f);
+        }
+    }
+
+    /**
+     * Passes each family that the given individual is in (as a parent or a child) to the given consumer.
+     */
+    public void forEachFami(final int i, final IntConsumer consumer) {
+        for (int l = this.famiHead[i]; 0 <= l; l = this.linkNext[l]) {
+            consumer.accept(this.linkFami[l]);
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package nu.mine.mosher.gedcom.xy;
+
+import javafx.geometry.Point2D;
+import nu.mine.mosher.gedcom.xy.util.*;
+import org.slf4j.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.*;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary snapshot of the model of a chart: the individuals and families as built from
+ * the GEDCOM or FTM file, before any layout. An unchanged file can then be re-opened
+ * from its snapshot, without parsing it (or running any SQL).
+ *
+ * Snapshots are kept in a directory next to the log files, one per input file, and are
+ * keyed by canonical path, size, last-modified time, and CRC-32C of the contents.
+ * The directory is kept under a size cap, by evicting the least recently used snapshots.
+ */
+public final class ChartSnapshot {
+    private static final Logger LOG = LoggerFactory.getLogger(ChartSnapshot.class);
+
+    private static final int MAGIC = 0x47585953; // GXYS
+    private static final int FORMAT_VERSION = 1;
+    private static final long MAX_CACHE_BYTES = 256L * 1024L * 1024L;
+    private static final String SUFFIX = ".snap";
+
+    private ChartSnapshot() {
+        throw new IllegalStateException("not intended to be instantiated");
+    }
+
+
+
+    /**
+     * Identifies one version of an input file.
+     */
+    public static final class Key {
+        private final String path;
+        private final long size;
+        private final long modified;
+        private final long crc;
+
+        private Key(final String path, final long size, final long modified, final long crc) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.crc = crc;
+        }
+
+        private boolean matches(final String path, final long size, final long modified, final long crc) {
+            return this.path.equals(path) && this.size == size && this.modified == modified && this.crc == crc;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s,size=%d,modified=%d,crc=%08x", this.path, this.size, this.modified, this.crc);
+        }
+    }
+
+    /**
+     * The individuals and families read from a snapshot.
+     */
+    public static final class Model {
+        private final List<Indi> indis;
+        private final List<Fami> famis;
+
+        Model(final List<Indi> indis, final List<Fami> famis) {
+            this.indis = indis;
+            this.famis = famis;
+        }
+
+        public List<Indi> indis() {
+            return this.indis;
+        }
+
+        public List<Fami> famis() {
+            return this.famis;
+        }
+
+        /**
+         * Lays out (if needed), normalizes, and measures the model, as the builders do.
+         * For a GEDCOM file, the tree will only be parsed later, if it is needed for saving.
+         */
+        public FamilyChart build(final File file, final boolean gedcom, final Options options, final PhaseReport report) {
+            if (this.indis.stream().noneMatch(Indi::hadOriginalXY) || options.destroyLayout()) {
+                LOG.info("No _XY coordinates found; laying out dropline chart automatically...");
+                try (final PhaseReport.Phase phase = report.begin("Layout.cleanAll")) {
+                    phase.items(this.indis.size());
+                    new Layout(this.indis, this.famis, report).cleanAll();
+                }
+            }
+
+            try (final PhaseReport.Phase phase = report.begin("normalize")) {
+                phase.items(this.indis.size());
+                final double x = this.indis.stream().map(Indi::laidOut).filter(Optional::isPresent).map(Optional::get).mapToDouble(Point2D::getX).min().orElse(0D);
+                final double y = this.indis.stream().map(Indi::laidOut).filter(Optional::isPresent).map(Optional::get).mapToDouble(Point2D::getY).min().orElse(0D);
+                final Point2D coordsTopLeftAfterLayout = new Point2D(x, y);
+                this.indis.forEach(i -> i.fillMissing(coordsTopLeftAfterLayout));
+            }
+
+            final Metrics metrics;
+            try (final PhaseReport.Phase phase = report.begin("Metrics.buildMetricsFor")) {
+                phase.items(this.famis.size());
+                metrics = Metrics.buildMetricsFor(this.indis, this.famis);
+            }
+            this.famis.forEach(f -> f.setMetrics(metrics));
+            this.indis.forEach(i -> i.setMetrics(metrics));
+
+            return new FamilyChart(this.indis, this.famis, metrics, file, gedcom);
+        }
+    }
+
+
+
+    /**
+     * Makes the key for the current contents of the given file.
+     * @param file GEDCOM or FTM file
+     * @return key, or empty if the file cannot be cached
+     */
+    public static Optional<Key> keyOf(final File file) {
+        try {
+            final File wal = new File(file.getPath() + "-wal");
+            if (wal.exists()) {
+                // an SQLite write-ahead log means the file itself is not the whole story
+                LOG.info("Not using a snapshot, because a write-ahead log exists: {}", wal);
+                return Optional.empty();
+            }
+            final long modified = file.lastModified();
+            final long size = file.length();
+            final long crc = crcOf(file.toPath());
+            return Optional.of(new Key(file.getCanonicalPath(), size, modified, crc));
+        } catch (final Throwable e) {
+            LOG.warn("Could not read file to make snapshot key: {}", file, e);
+            return Optional.empty();
+        }
+    }
+
+    private static long crcOf(final Path path) throws IOException {
+        final CRC32C crc = new CRC32C();
+        try (final FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = ch.size();
+            for (long pos = 0L; pos < size; ) {
+                final long len = Math.min(size - pos, Integer.MAX_VALUE);
+                crc.update(ch.map(FileChannel.MapMode.READ_ONLY, pos, len));
+                pos += len;
+            }
+        }
+        return crc.getValue();
+    }
+
+
+
+    /**
+     * Reads the snapshot for the given key, if there is a current one.
+     * A stale or unreadable snapshot is deleted.
+     * @param key key of the input file, as it is now
+     * @return individuals and families (not laid out, normalized, or calc'd), or empty
+     */
+    public static Optional<Model> read(final Key key) {
+        final Optional<Path> path = pathOf(key);
+        if (path.isEmpty() || !Files.isRegularFile(path.get())) {
+            return Optional.empty();
+        }
+
+        Optional<Model> model = Optional.empty();
+        try (final FileChannel ch = FileChannel.open(path.get(), StandardOpenOption.READ)) {
+            model = readIfCurrent(ch, key, path.get());
+        } catch (final Throwable e) {
+            LOG.warn("Ignoring unreadable snapshot: {}", path.get(), e);
+        }
+        if (model.isEmpty()) {
+            // only once the file is closed, because Windows cannot delete an open file
+            delete(path.get());
+        }
+        return model;
+    }
+
+    /*
+        The header is read, not mapped, so a stale snapshot (the usual reason to discard one)
+        is never mapped, and can be deleted right away, even on Windows. (An unreadable one
+        may stay mapped until it is garbage collected, so deleting it there may fail, and
+        it will be tried again the next time.)
+     */
+    private static Optional<Model> readIfCurrent(final FileChannel ch, final Key key, final Path path) throws IOException {
+        final ByteBuffer head = readFully(ch, Integer.BYTES * 3);
+        if (head.getInt() != MAGIC || head.getInt() != FORMAT_VERSION) {
+            LOG.info("Ignoring snapshot of unknown format: {}", path);
+            return Optional.empty();
+        }
+        final ByteBuffer rest = readFully(ch, head.getInt() + Long.BYTES * 3);
+        final String keyPath = StandardCharsets.UTF_8.decode(rest.slice(0, rest.limit() - Long.BYTES * 3)).toString();
+        rest.position(rest.limit() - Long.BYTES * 3);
+        if (!key.matches(keyPath, rest.getLong(), rest.getLong(), rest.getLong())) {
+            LOG.info("Ignoring stale snapshot: {}", path);
+            return Optional.empty();
+        }
+
+        final Model model = readModel(ch.map(FileChannel.MapMode.READ_ONLY, ch.position(), ch.size() - ch.position()));
+        Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        LOG.info("Read snapshot {} for {}: {} individuals, {} families.", path, key, model.indis.size(), model.famis.size());
+        return Optional.of(model);
+    }
+
+    private static ByteBuffer readFully(final FileChannel ch, final int len) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(len);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf) < 0) {
+                throw new EOFException("snapshot ends early");
+            }
+        }
+        return buf.flip();
+    }
+
+    private static Model readModel(final ByteBuffer buf) {
+        final int cIndi = buf.getInt();
+        final List<Indi> indis = new ArrayList<>(cIndi);
+        for (int i = 0; i < cIndi; ++i) {
+            final String id = getString(buf);
+            final String idCoords = getString(buf);
+            final String name = getString(buf);
+            final String lifespan = getString(buf);
+            final String tagline = getString(buf);
+            final int sex = buf.getInt();
+            final long birth = buf.getLong();
+            final Optional<Point2D> xy = buf.get() != 0 ? Optional.of(new Point2D(buf.getDouble(), buf.getDouble())) : Optional.empty();
+            indis.add(new Indi(null, xy, id, idCoords, name, lifespan, birth, tagline, sex));
+        }
+
+        final int cFami = buf.getInt();
+        final List<Fami> famis = new ArrayList<>(cFami);
+        for (int i = 0; i < cFami; ++i) {
+            final Fami fami = new Fami();
+            fami.setHusb(indiAt(indis, buf.getInt()));
+            fami.setWife(indiAt(indis, buf.getInt()));
+            final int cChild = buf.getInt();
+            for (int c = 0; c < cChild; ++c) {
+                fami.addChild(indiAt(indis, buf.getInt()));
+            }
+            famis.add(fami);
+        }
+
+        return new Model(indis, famis);
+    }
+
+    private static Indi indiAt(final List<Indi> indis, final int i) {
+        return i < 0 ? null : indis.get(i);
+    }
+
+    private static String getString(final ByteBuffer buf) {
+        final int len = buf.getInt();
+        final ByteBuffer bytes = buf.slice(buf.position(), len);
+        buf.position(buf.position() + len);
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+
+
+    /**
+     * Writes a snapshot of the given individuals and families (which must not have been
+     * saved or moved since they were read), then evicts old snapshots if the cache is too big.
+     * Errors are logged, not thrown.
+     */
+    public static void write(final Key key, final List<Indi> indis, final List<Fami> famis) {
+        final Optional<Path> path = pathOf(key);
+        if (path.isEmpty()) {
+            return;
+        }
+
+        try {
+            final Path temp = Files.createTempFile(path.get().getParent(), "snapshot", ".tmp");
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                putString(out, key.path);
+                out.writeLong(key.size);
+                out.writeLong(key.modified);
+                out.writeLong(key.crc);
+                writeModel(out, indis, famis);
+            }
+            Files.move(temp, path.get(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOG.info("Wrote snapshot {} for {}: {} bytes.", path.get(), key, Files.size(path.get()));
+        } catch (final Throwable e) {
+            LOG.warn("Could not write snapshot for {}", key, e);
+            return;
+        }
+
+        evict(path.get());
+    }
+
+    private static void writeModel(final DataOutputStream out, final List<Indi> indis, final List<Fami> famis) throws IOException {
+        final Map<Indi, Integer> index = new IdentityHashMap<>(indis.size() * 4 / 3 + 1);
+
+        out.writeInt(indis.size());
+        for (final Indi indi : indis) {
+            index.put(indi, index.size());
+            putString(out, indi.getId());
+            putString(out, indi.getIdCoords());
+            putString(out, indi.name());
+            putString(out, indi.getLifespan());
+            putString(out, indi.getTagline());
+            out.writeInt(indi.getSex());
+            out.writeLong(indi.getBirthForSort());
+            final Optional<Point2D> xy = indi.coordsOriginal();
+            out.writeByte(xy.isPresent() ? 1 : 0);
+            if (xy.isPresent()) {
+                out.writeDouble(xy.get().getX());
+                out.writeDouble(xy.get().getY());
+            }
+        }
+
+        out.writeInt(famis.size());
+        for (final Fami fami : famis) {
+            out.writeInt(fami.getHusb().map(index::get).orElse(-1));
+            out.writeInt(fami.getWife().map(index::get).orElse(-1));
+            final List<Indi> children = fami.getChildren();
+            out.writeInt(children.size());
+            for (final Indi child : children) {
+                out.writeInt(index.get(child));
+            }
+        }
+    }
+
+    private static void putString(final DataOutputStream out, final String s) throws IOException {
+        final byte[] bytes = Objects.toString(s, "").getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+
+
+    private static void evict(final Path keep) {
+        try (final DirectoryStream<Path> dir = Files.newDirectoryStream(keep.getParent(), "*" + SUFFIX)) {
+            final List<Path> snapshots = new ArrayList<>();
+            dir.forEach(snapshots::add);
+
+            long total = 0L;
+            final Map<Path, FileTime> used = new HashMap<>();
+            final Map<Path, Long> sizes = new HashMap<>();
+            for (final Path p : snapshots) {
+                used.put(p, Files.getLastModifiedTime(p));
+                sizes.put(p, Files.size(p));
+                total += sizes.get(p);
+            }
+
+            snapshots.sort(Comparator.comparing(used::get));
+            for (final Path p : snapshots) {
+                if (total <= MAX_CACHE_BYTES) {
+                    break;
+                }
+                if (!p.equals(keep)) {
+                    LOG.info("Evicting least recently used snapshot: {}", p);
+                    delete(p);
+                    total -= sizes.get(p);
+                }
+            }
+        } catch (final Throwable e) {
+            LOG.warn("Could not evict old snapshots.", e);
+        }
+    }
+
+    private static void delete(final Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (final IOException e) {
+            LOG.warn("Could not delete snapshot: {}", path, e);
+        }
+    }
+
+    private static Optional<Path> pathOf(final Key key) {
+        final String log = LogbackConfigurator.getFilePath();
+        if (Objects.isNull(log) || log.isBlank()) {
+            return Optional.empty();
+        }
+        try {
+            final Path dir = Paths.get(log).toAbsolutePath().getParent().resolve("snapshots");
+            Files.createDirectories(dir);
+            return Optional.of(dir.resolve(hexOf(key.path) + SUFFIX));
+        } catch (final Throwable e) {
+            LOG.warn("Could not create snapshot directory.", e);
+            return Optional.empty();
+        }
+    }
+
+    private static String hexOf(final String s) throws NoSuchAlgorithmException {
+        final byte[] digest = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+        final StringBuilder sb = new StringBuilder(40);
+        for (int i = 0; i < 20; ++i) {
+            sb.append(String.format("%02x", digest[i]));
+        }
+        return sb.toString();
+    }
+}
@@ -2,9 +2,10 @@ package nu.mine.mosher.gedcom.xy;
 
 
 import javafx.application.Platform;
+import javafx.geometry.Dimension2D;
 import nu.mine.mosher.gedcom.*;
 import nu.mine.mosher.gedcom.exception.InvalidLevel;
-import nu.mine.mosher.gedcom.xy.util.LogbackConfigurator;
+import nu.mine.mosher.gedcom.xy.util.*;
 import org.slf4j.*;
 
 import javax.swing.*;
@@ -14,13 +15,16 @@ import java.io.*;
 import java.nio.file.Files;
 import java.sql.SQLException;
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.regex.*;
 
 public class CommandHandler {
     private static final Logger LOG = LoggerFactory.getLogger(CommandHandler.class);
 
     private final Frame frame;
+    private Optional<Consumer<Boolean>> rendererHandler = Optional.empty();
+    private boolean canvas;
 
     public CommandHandler(final Frame frame) {
         if (!SwingUtilities.isEventDispatchThread()) {
@@ -29,6 +33,16 @@ public class CommandHandler {
         this.frame = frame;
     }
 
+    /**
+     * @param canvas true if the chart is initially drawn on a {@link ChartCanvas}
+     * @param handler called (on the event dispatch thread) when the user switches renderers;
+     *                passed true for the canvas renderer, false for the node renderer
+     */
+    public void setRendererHandler(final boolean canvas, final Consumer<Boolean> handler) {
+        this.canvas = canvas;
+        this.rendererHandler = Optional.of(handler);
+    }
+
 
 
     public MenuBar buildMenuBar(final FamilyChart chart) {
@@ -55,7 +69,7 @@ public class CommandHandler {
         } else {
             final MenuItem cmdSave = new MenuItem("Save");
             cmdSave.setShortcut(new MenuShortcut(KeyEvent.VK_S));
-            cmdSave.addActionListener(e -> chart.save());
+            cmdSave.addActionListener(e -> save(chart));
 
             menuFile.add(cmdSave);
         }
@@ -81,11 +95,19 @@ public class CommandHandler {
         final MenuItem cmdNorm = new MenuItem("Normalize ALL Coordinates");
         cmdNorm.addActionListener(e -> normalize(chart));
 
+        final MenuItem cmdLayOutSel = new MenuItem("Auto-layout Selection");
+        cmdLayOutSel.addActionListener(e -> layOutSelection(chart));
+
         final MenuItem cmdSnap = new MenuItem("Snap To Grid Size...");
         cmdSnap.addActionListener(e -> snapToGrid(chart));
 
+        final MenuItem cmdLod = new MenuItem("Level of Detail Thresholds...");
+        cmdLod.addActionListener(e -> levelOfDetail(chart));
+
         menuEdit.add(cmdNorm);
+        menuEdit.add(cmdLayOutSel);
         menuEdit.add(cmdSnap);
+        menuEdit.add(cmdLod);
 
 
 
@@ -95,8 +117,15 @@ public class CommandHandler {
         cmdBold.setState(true);
         cmdBold.addItemListener(e -> boldView(chart, cmdBold.getState()));
 
-        menuView.add(cmdBold);
+//        menuView.add(cmdBold); // TODO: need to BIND colors, example here: https://stackoverflow.com/questions/63082242/javafx-scenebuilder-binding-objectproperty
+
+        if (this.rendererHandler.isPresent()) {
+            final CheckboxMenuItem cmdCanvas = new CheckboxMenuItem("Tiled Canvas Renderer");
+            cmdCanvas.setState(this.canvas);
+            cmdCanvas.addItemListener(e -> this.rendererHandler.get().accept(cmdCanvas.getState()));
 
+            menuView.add(cmdCanvas);
+        }
 
 
 
@@ -117,13 +146,39 @@ public class CommandHandler {
         final MenuBar mbar = new MenuBar();
         mbar.add(menuFile);
         mbar.add(menuEdit);
-//        mbar.add(menuView); // TODO: need to BIND colors, example here: https://stackoverflow.com/questions/63082242/javafx-scenebuilder-binding-objectproperty
+        if (0 < menuView.getItemCount()) {
+            mbar.add(menuView);
+        }
 
         mbar.setHelpMenu(menuHelp);
         return mbar;
     }
 
 
+    /**
+     * Tells the user to wait, if the rest of a progressively opened chart is still being read
+     * (because saving or exporting it now would write only part of it).
+     * @return true if still loading
+     */
+    private boolean stillLoading(final FamilyChart chart, final String title) {
+        if (!chart.loading()) {
+            return false;
+        }
+        JOptionPane.showMessageDialog(
+            frame,
+            "Please wait until all people have been loaded.",
+            title,
+            JOptionPane.INFORMATION_MESSAGE);
+        return true;
+    }
+
+    private void save(final FamilyChart chart) {
+        if (stillLoading(chart, "Save")) {
+            return;
+        }
+        chart.save();
+    }
+
     private void normalize(final FamilyChart chart) {
         final int response = JOptionPane.showConfirmDialog(
             frame,
@@ -132,10 +187,21 @@ public class CommandHandler {
             JOptionPane.OK_CANCEL_OPTION,
             JOptionPane.WARNING_MESSAGE);
         if (response == JOptionPane.OK_OPTION) {
+            if (stillLoading(chart, "Normalize ALL coordinates")) {
+                return;
+            }
             chart.userNormalize();
         }
     }
 
+    private void layOutSelection(final FamilyChart chart) {
+        if (stillLoading(chart, "Auto-layout selection")) {
+            return;
+        }
+        // the selection belongs to the JavaFX thread
+        Platform.runLater(chart::layOutSelection);
+    }
+
     private void snapToGrid(final FamilyChart chart) {
         final Optional<String> result = Optional.ofNullable(JOptionPane.showInputDialog(
             frame,
@@ -144,6 +210,15 @@ public class CommandHandler {
         result.ifPresent(s -> chart.metrics().setGrid(s));
     }
 
+    private void levelOfDetail(final FamilyChart chart) {
+        final String current = chart.metrics().lodTextPixels() + ", " + chart.metrics().lodDotPixels();
+        final Optional<String> result = Optional.ofNullable(JOptionPane.showInputDialog(
+            frame,
+            "On-screen font sizes (in pixels) below which to draw plain boxes, and dots, are currently " + current + ". Change to:",
+            current));
+        result.ifPresent(s -> chart.metrics().setLod(s));
+    }
+
     private void boldView(final FamilyChart chart, final boolean checked) {
         if (chart.metrics().colors().bold() != checked) {
             chart.metrics().setColors(checked ? new ColorSchemeBold() : new ColorSchemeSolarized());
@@ -151,6 +226,9 @@ public class CommandHandler {
     }
 
     private void saveAs(final FamilyChart chart) {
+        if (stillLoading(chart, "Save as")) {
+            return;
+        }
         final FileDialog fd = new FileDialog(frame, "Genealogy XY Editor - Save as new genealogy file", FileDialog.SAVE);
         fd.setDirectory(GenXyEditor.outDir().getPath());
         if (chart.originalFile().isPresent()) {
@@ -219,6 +297,9 @@ public class CommandHandler {
 
 
     private void exportPdf(final FamilyChart chart) {
+        if (stillLoading(chart, "Export as PDF")) {
+            return;
+        }
         final FileDialog fd = new FileDialog(frame, "Genealogy XY Editor - Export PDF file", FileDialog.SAVE);
         fd.setDirectory(GenXyEditor.outDir().getPath());
         if (chart.originalFile().isPresent()) {
@@ -246,6 +327,9 @@ public class CommandHandler {
     }
 
     private void exportSvg(final FamilyChart chart) {
+        if (stillLoading(chart, "Export as SVG")) {
+            return;
+        }
         final FileDialog fd = new FileDialog(frame, "Genealogy XY Editor - Export SVG file", FileDialog.SAVE);
         fd.setDirectory(GenXyEditor.outDir().getPath());
         if (chart.originalFile().isPresent()) {
@@ -276,6 +360,9 @@ public class CommandHandler {
         if (!SwingUtilities.isEventDispatchThread()) {
             throw new IllegalStateException("Not running on event dispatch thread.");
         }
+        if (stillLoading(chart, "Export as skeletons")) {
+            return;
+        }
         final FileDialog fd = new FileDialog(frame, "Genealogy XY Editor - Export skeleton genealogy file", FileDialog.SAVE);
         fd.setDirectory(GenXyEditor.outDir().getPath());
         if (chart.originalFile().isPresent()) {
@@ -314,7 +401,7 @@ public class CommandHandler {
         return name.replaceFirst("(?i)\\.ged$", ".svg").replaceFirst("(?i)\\.ftm$", ".svg");
     }
 
-    public Optional<FamilyChart> openFile(final boolean destroy) {
+    public Optional<FamilyChart> openFile(final Options options) {
         if (!SwingUtilities.isEventDispatchThread()) {
             throw new IllegalStateException("Not running on event dispatch thread.");
         }
@@ -323,43 +410,100 @@ public class CommandHandler {
             return Optional.empty();
         }
 
-        return readChartFromFile(fileToOpen.get(), destroy);
+        return readChartFromFile(fileToOpen.get(), options);
     }
 
-    private Optional<FamilyChart> readChartFromFile(final File fileToOpen, final boolean destroy) {
-        final FamilyChart[] chart = new FamilyChart[1];
-        final CountDownLatch latch = new CountDownLatch(1);
-        Platform.runLater(() -> {
+    /**
+     * Reads and lays out the chart on a background thread, and measures it and builds its graphics on
+     * the JavaFX thread in chunks, while showing a (modal) progress dialog on this thread.
+     * @return the chart, or empty if the user cancelled or there was an error
+     */
+    private Optional<FamilyChart> readChartFromFile(final File fileToOpen, final Options options) {
+        final Dimension2D viewport = new Dimension2D(this.frame.getWidth(), this.frame.getHeight());
+        final PhaseReport report = new PhaseReport("open", fileToOpen);
+        final AtomicReference<FamilyChart> chart = new AtomicReference<>();
+        final AtomicReference<Thread> reader = new AtomicReference<>();
+        final OpenProgress progress = new OpenProgress(this.frame, fileToOpen, () -> {
+            LOG.info("User cancelled opening file: {}", fileToOpen);
+            report.cancel();
+            reader.get().interrupt();
+        });
+        report.onBegin(progress::phase);
+
+        final Thread th = new Thread(() -> {
             try {
-                chart[0] = tryReadChartFromFile(fileToOpen, destroy);
+                chart.set(tryReadChartFromFile(fileToOpen, options, viewport, report, progress));
             } catch (final Throwable e) {
-                LOG.error("unexpected error while reading from file", e);
-                // TODO better error handling
+                if (report.cancelled()) {
+                    LOG.info("Stopped opening file: {}", fileToOpen);
+                } else {
+                    LOG.error("unexpected error while reading from file", e);
+                    // TODO better error handling
+                }
             } finally {
-                latch.countDown();
+                progress.done();
             }
-        });
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
+        }, "chart-open");
+        th.setDaemon(true);
+        reader.set(th);
+        th.start();
+
+        progress.showUntilDone();
+        report.finish();
+
+        // a cancelled chart is dropped here, along with everything it read
+        return report.cancelled() ? Optional.empty() : Optional.ofNullable(chart.get());
+    }
 
-        return Optional.ofNullable(chart[0]);
+    private static FamilyChart tryReadChartFromFile(final File fileToOpen, final Options options, final Dimension2D viewport, final PhaseReport report, final OpenProgress progress) throws IOException, InvalidLevel, SQLException, InterruptedException {
+        final FamilyChart chart = readChart(fileToOpen, options, Optional.of(viewport), report);
+        chart.setFromOrigInChunks(report, !options.canvas(), progress::progress);
+        return chart;
     }
 
-    private static FamilyChart tryReadChartFromFile(final File fileToOpen, final boolean destroy) throws IOException, InvalidLevel, SQLException {
+    /**
+     * Reads a chart from a GEDCOM or FTM file (or its snapshot), and lays it out, but does not build any of its graphics.
+     * @param viewport size of the window the chart will be shown in; empty when there is none (which
+     *                 prevents progressive opening)
+     */
+    static FamilyChart readChart(final File fileToOpen, final Options options, final Optional<Dimension2D> viewport, final PhaseReport report) throws IOException, InvalidLevel, SQLException {
         final FamilyChart chart;
 
-        final String filetype = filetypeOf(fileToOpen);
-        if (filetype.equalsIgnoreCase("GED")) {
-            final GedcomTree tree = Gedcom.readFile(new BufferedInputStream(Files.newInputStream(fileToOpen.toPath())));
-            chart = FamilyChartBuilderGed.create(tree, fileToOpen);
-        } else {
-            chart = FamilyChartBuilderFtm.create(fileToOpen, destroy);
+        final boolean gedcom = filetypeOf(fileToOpen).equalsIgnoreCase("GED");
+
+        // the legacy FTM loader comparison needs the SQL to run
+        final Optional<ChartSnapshot.Key> key;
+        final Optional<ChartSnapshot.Model> snapshot;
+        try (final PhaseReport.Phase phase = report.begin("read snapshot")) {
+            key = options.noSnapshot() || options.compareFtmLoaders() ? Optional.empty() : ChartSnapshot.keyOf(fileToOpen);
+            snapshot = key.flatMap(ChartSnapshot::read);
         }
 
-        chart.setFromOrig();
+        if (snapshot.isPresent()) {
+            chart = snapshot.get().build(fileToOpen, gedcom, options, report);
+        } else {
+            final Optional<FamilyChart> viewOnly = gedcom && options.viewOnly() ? FamilyChartBuilderGedView.create(fileToOpen, options, report) : Optional.empty();
+            if (viewOnly.isPresent()) {
+                chart = viewOnly.get();
+            } else if (gedcom) {
+                final GedcomTree tree;
+                try (final PhaseReport.Phase phase = report.begin("GEDCOM parse")) {
+                    tree = Gedcom.readFile(new BufferedInputStream(Files.newInputStream(fileToOpen.toPath())));
+                }
+                chart = FamilyChartBuilderGed.create(tree, fileToOpen, options, report);
+            } else if (options.progressive() && viewport.isPresent()) {
+                chart = FamilyChartBuilderFtm.createProgressive(fileToOpen, options, viewport.get(), report);
+            } else {
+                chart = FamilyChartBuilderFtm.create(fileToOpen, options, report);
+            }
+
+            // a progressively opened chart is not complete yet, so it cannot be snapshotted
+            if (key.isPresent() && !chart.loading()) {
+                try (final PhaseReport.Phase phase = report.begin("write snapshot")) {
+                    ChartSnapshot.write(key.get(), chart.indis(), chart.famis());
+                }
+            }
+        }
 
         return chart;
     }
@@ -2,14 +2,12 @@ package nu.mine.mosher.gedcom.xy;
 
 import javafx.beans.property.*;
 import javafx.geometry.Point2D;
-import javafx.scene.shape.Circle;
 import org.slf4j.*;
 
 import java.math.*;
 import java.util.*;
 
 import static java.util.Optional.empty;
-import static javafx.scene.paint.Color.TRANSPARENT;
 
 @SuppressWarnings({"OptionalUsedAsFieldOrParameterType", "WeakerAccess"})
 public final class Coords {
@@ -24,9 +22,16 @@ public final class Coords {
     private Optional<Point2D> wxyLayout = empty();
     private Point2D wxyStart;
     private Point2D xyStart;
-    private final Circle xyLayoutUser = new Circle(0, TRANSPARENT); // TODO make this a Point2D property
+    // the current (user) position is kept here until attached to a model, then in the model
+    private ChartModel model;
+    private int idx = -1;
+    private double xUser;
+    private double yUser;
     private boolean forceDirty;
-    private final BooleanProperty propDirty = new SimpleBooleanProperty();
+    // built only for views that bind to them
+    private DoubleProperty propX;
+    private DoubleProperty propY;
+    private BooleanProperty propDirty;
 
     private void dumpToLog(final String label) {
         LOG.debug("{}: {},{},{},{},{},{},{},{}", label,
@@ -34,7 +39,7 @@ public final class Coords {
             toDump("wxyLayout", this.wxyLayout),
             toDump("wxyStart", this.wxyStart),
             toDump("xyStart", this.xyStart),
-            toDump("xyLayoutUser", new Point2D(this.xyLayoutUser.getLayoutX(), this.xyLayoutUser.getLayoutY())),
+            toDump("xyLayoutUser", xyUser()),
             String.format("mag=%.0f",userMoved().magnitude()),
             (!dirty() ? "-" : this.forceDirty ? "F" : "D"),
             this.of);
@@ -97,6 +102,20 @@ public final class Coords {
         update();
     }
 
+    /**
+     * Moves the current position (and dirty flag) into the given model.
+     * @param model chart model
+     * @param idx index of this individual in the model
+     */
+    void attach(final ChartModel model, final int idx) {
+        model.moveTo(idx, this.xUser, this.yUser);
+        this.model = model;
+        this.idx = idx;
+        if (Objects.nonNull(this.xyStart)) {
+            update();
+        }
+    }
+
     public Optional<Point2D> getOriginal() {
         return this.wxyOrig;
     }
@@ -106,7 +125,10 @@ public final class Coords {
      * @return bindable x
      */
     public DoubleProperty x() {
-        return this.xyLayoutUser.layoutXProperty();
+        if (Objects.isNull(this.propX)) {
+            this.propX = new SimpleDoubleProperty(getX());
+        }
+        return this.propX;
     }
 
     /**
@@ -114,7 +136,18 @@ public final class Coords {
      * @return bindable y
      */
     public DoubleProperty y() {
-        return this.xyLayoutUser.layoutYProperty();
+        if (Objects.isNull(this.propY)) {
+            this.propY = new SimpleDoubleProperty(getY());
+        }
+        return this.propY;
+    }
+
+    public double getX() {
+        return Objects.nonNull(this.model) ? this.model.x(this.idx) : this.xUser;
+    }
+
+    public double getY() {
+        return Objects.nonNull(this.model) ? this.model.y(this.idx) : this.yUser;
     }
 
     /**
@@ -137,20 +170,40 @@ public final class Coords {
      */
     public void dragTo(final Point2D here) {
         Objects.requireNonNull(here);
-        this.xyLayoutUser.relocate(here.getX(), here.getY());
+        if (Objects.nonNull(this.model)) {
+            this.model.moveTo(this.idx, here.getX(), here.getY());
+        } else {
+            this.xUser = here.getX();
+            this.yUser = here.getY();
+        }
+        if (Objects.nonNull(this.propX)) {
+            this.propX.set(here.getX());
+        }
+        if (Objects.nonNull(this.propY)) {
+            this.propY.set(here.getY());
+        }
         update();
     }
 
     private void update() {
-        this.propDirty.set(dirty());
+        final boolean dirty = dirty();
+        if (Objects.nonNull(this.model)) {
+            this.model.dirty(this.idx, dirty);
+        }
+        if (Objects.nonNull(this.propDirty)) {
+            this.propDirty.set(dirty);
+        }
     }
 
     public BooleanProperty propertyDirty() {
+        if (Objects.isNull(this.propDirty)) {
+            this.propDirty = new SimpleBooleanProperty(Objects.nonNull(this.xyStart) && dirty());
+        }
         return this.propDirty;
     }
 
     public Point2D xyUser() {
-        return new Point2D(x().get(), y().get());
+        return new Point2D(getX(), getY());
     }
 
     /**
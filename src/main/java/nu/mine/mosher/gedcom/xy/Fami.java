@@ -1,7 +1,7 @@
 package nu.mine.mosher.gedcom.xy;
 
-import javafx.beans.binding.DoubleBinding;
-import javafx.beans.property.DoubleProperty;
+import javafx.beans.binding.*;
+import javafx.beans.value.ObservableObjectValue;
 import javafx.geometry.*;
 import javafx.scene.*;
 import javafx.scene.layout.*;
@@ -16,9 +16,13 @@ import static nu.mine.mosher.gedcom.xy.Indi.CORNERS;
 
 public class Fami {
     private static final double MIN_DISTANCE = 1.51D;
+    static final String PHANTOM = "\u00A0?\u00A0";
 
 
     private Metrics metrics;
+    // position in the chart model (which has the members' positions)
+    private ChartModel model;
+    private int idx = -1;
 
     private Indi husb;
     private Indi wife;
@@ -35,10 +39,19 @@ public class Fami {
     private Line childBar;
     private Line[] rChildBar;
 
+    // shown instead of all the other lines when zoomed out (below full detail)
+    private Line glyph;
+    private ObservableObjectValue<LevelOfDetail> detail;
+    private BooleanBinding full;
+
     public void setMetrics(final Metrics metrics) {
         this.metrics = metrics;
     }
 
+    public void setDetail(final ObservableObjectValue<LevelOfDetail> detail) {
+        this.detail = detail;
+    }
+
     public void setHusb(final Indi indi) {
         husb = indi;
     }
@@ -65,162 +78,98 @@ public class Fami {
         return Collections.unmodifiableList(this.rChild);
     }
 
+    void attach(final ChartModel model, final int idx) {
+        this.model = model;
+        this.idx = idx;
+    }
+
+    /**
+     * @return index of this family in the chart model
+     */
+    public int index() {
+        return this.idx;
+    }
+
     public void calc() {
         if (husb == null && wife == null && rChild.size() == 0) {
             return;
         }
 
-        final Couple couple = new Couple(husb, wife);
+        this.full = Bindings.equal(this.detail, LevelOfDetail.FULL);
 
-        if (couple.exists) {
-            parentBar1 = createLine();
-            parentBar1.startXProperty().bind(couple.pt1x);
-            parentBar1.startYProperty().bind(couple.pt1y.subtract(barHeight()));
-            parentBar1.endXProperty().bind(couple.pt2x);
-            parentBar1.endYProperty().bind(couple.pt2y.subtract(barHeight()));
+        final boolean couple = husb != null || wife != null;
 
+        if (couple) {
+            parentBar1 = createLine();
             parentBar2 = createLine();
-            parentBar2.startXProperty().bind(couple.pt1x);
-            parentBar2.startYProperty().bind(couple.pt1y.add(barHeight()));
-            parentBar2.endXProperty().bind(couple.pt2x);
-            parentBar2.endYProperty().bind(couple.pt2y.add(barHeight()));
+            if (husb == null || wife == null) {
+                createPhantom();
+            }
         }
 
         if (!rChild.isEmpty()) {
+            if (couple) {
+                descentBar1 = createLine();
+                descentBar2 = createLine();
+                descentBar3 = createLine();
+            }
             childBar = createLine();
-            childBar.startXProperty().bind(new DoubleBinding() {
-                {
-                    for (final Indi child : rChild) {
-                        super.bind(child.x());
-                    }
-                }
-
-                @Override
-                protected double computeValue() {
-                    return rChild.stream().mapToDouble(c -> c.x().get()).min().getAsDouble();
-                }
-            });
-            childBar.endXProperty().bind(new DoubleBinding() {
-                {
-                    for (final Indi child : rChild) {
-                        super.bind(child.x());
-                    }
-                }
-
-                @Override
-                protected double computeValue() {
-                    return rChild.stream().mapToDouble(c -> c.x().get()).max().getAsDouble();
-                }
-            });
-            final DoubleBinding top = new DoubleBinding() {
-                {
-                    for (final Indi child : rChild) {
-                        super.bind(child.y());
-                    }
-                }
-
-                @Override
-                protected double computeValue() {
-                    return rChild.stream().mapToDouble(c -> c.y().get()).min().getAsDouble() - childHeight();
-                }
-            };
-            childBar.startYProperty().bind(top);
-            childBar.endYProperty().bind(top);
-
             rChildBar = new Line[rChild.size()];
             for (int i = 0; i < rChildBar.length; i++) {
-                final Indi c = rChild.get(i);
                 rChildBar[i] = createLine();
-
-                rChildBar[i].startXProperty().bind(c.x());
-                rChildBar[i].startYProperty().bind(childBar.startYProperty());
-                rChildBar[i].endXProperty().bind(c.x());
-                rChildBar[i].endYProperty().bind(c.y());
             }
+        }
 
+        if (couple) {
+            glyph = createLine(metrics.colors().lines());
+            glyph.visibleProperty().bind(Bindings.notEqual(this.detail, LevelOfDetail.FULL));
+        }
 
+        update();
+    }
 
+    /**
+     * Moves the connector lines (and phantom parent) to where the members are now in the chart model.
+     * The lines are not bound to the members' positions; instead, the chart calls this once per frame,
+     * only for families with a member who has moved since the last frame.
+     */
+    public void update() {
+        if (Objects.isNull(this.full)) {
+            return;
+        }
 
-
-
-
-
-            if (couple.exists) {
-                final DoubleBinding descentLineEndParentX = new DoubleBinding() {
-                    {
-                        super.bind(couple.pt1x, couple.pt1y, couple.pt2x, couple.pt2y, childBar.startXProperty(), childBar.endXProperty(), childBar.startYProperty());
-                    }
-
-                    @Override
-                    protected double computeValue() {
-                        final Point2D child = new Point2D((childBar.getStartX() + childBar.getEndX()) / 2.0D, childBar.getStartY());
-                        final Point2D p1 = new Point2D(couple.pt1x.get(), couple.pt1y.get());
-                        final Point2D p2 = new Point2D(couple.pt2x.get(), couple.pt2y.get());
-                        return (child.distance(p1) < child.distance(p2) ? ptParentDescentBar(p1, p2) : ptParentDescentBar(p2, p1)).getX();
-                    }
-                };
-
-                final DoubleBinding descentLineEndParentY = new DoubleBinding() {
-                    {
-                        super.bind(couple.pt1x, couple.pt1y, couple.pt2x, couple.pt2y, childBar.startXProperty(), childBar.endXProperty(), childBar.startYProperty());
-                    }
-
-                    @Override
-                    protected double computeValue() {
-                        final Point2D child = new Point2D((childBar.getStartX() + childBar.getEndX()) / 2.0D, childBar.getStartY());
-                        final Point2D p1 = new Point2D(couple.pt1x.get(), couple.pt1y.get());
-                        final Point2D p2 = new Point2D(couple.pt2x.get(), couple.pt2y.get());
-                        return (child.distance(p1) < child.distance(p2) ? ptParentDescentBar(p1, p2) : ptParentDescentBar(p2, p1)).getY();
-                    }
-                };
-
-                final DoubleBinding descentLineStartChildrenX = new DoubleBinding() {
-                    {
-                        super.bind(childBar.startXProperty(), childBar.endXProperty(), descentLineEndParentX);
-                    }
-
-                    @Override
-                    protected double computeValue() {
-                        final double offset = childHeight();
-                        if (childBar.getEndX()-childBar.getStartX() < offset*2.0D) {
-                            return (childBar.getEndX()+childBar.getStartX())/2.0D;
-                        }
-                        return clamp(childBar.getStartX()+offset, descentLineEndParentX.get(), childBar.getEndX()-offset);
-                    }
-                };
-
-
-
-
-
-
-                descentBar3 = createLine();
-                descentBar3.startXProperty().bind(descentLineStartChildrenX);
-                descentBar3.startYProperty().bind(childBar.startYProperty());
-                descentBar3.endXProperty().bind(descentBar3.startXProperty());
-                descentBar3.endYProperty().bind(descentBar3.startYProperty().subtract(rChild.size() == 1 ? 0.0D : childHeight() / 2.0D));
-
-                descentBar2 = createLine();
-                descentBar2.startXProperty().bind(descentBar3.endXProperty());
-                descentBar2.startYProperty().bind(descentBar3.endYProperty());
-                descentBar2.endXProperty().bind(descentLineEndParentX);
-                descentBar2.endYProperty().bind(descentBar2.startYProperty());
-
-                descentBar1 = createLine();
-                descentBar1.startXProperty().bind(descentBar2.endXProperty());
-                descentBar1.startYProperty().bind(descentBar2.endYProperty());
-                descentBar1.endXProperty().bind(descentBar1.startXProperty());
-                descentBar1.endYProperty().bind(descentLineEndParentY);
+        final Iterator<double[]> lines = lines().iterator();
+        place(this.parentBar1, lines);
+        place(this.parentBar2, lines);
+        place(this.descentBar1, lines);
+        place(this.descentBar2, lines);
+        place(this.descentBar3, lines);
+        place(this.childBar, lines);
+        if (Objects.nonNull(this.rChildBar)) {
+            for (final Line line : this.rChildBar) {
+                place(line, lines);
             }
         }
-    }
-
-
-
-
 
+        glyph().ifPresent(l -> place(this.glyph, List.of(l).iterator()));
 
+        if (!this.phantomPanes.isEmpty()) {
+            final Point2D at = couplePoints().get()[husb == null ? 0 : 1];
+            final StackPane plaque = this.phantomPanes.get(0);
+            plaque.setLayoutX(at.getX() - plaque.getPrefWidth() / 2.0D);
+            plaque.setLayoutY(at.getY() - plaque.getPrefHeight() / 2.0D);
+        }
+    }
 
+    private static void place(final Line line, final Iterator<double[]> lines) {
+        if (Objects.nonNull(line)) {
+            final double[] l = lines.next();
+            line.setStartX(l[0]);
+            line.setStartY(l[1]);
+            line.setEndX(l[2]);
+            line.setEndY(l[3]);
+        }
+    }
 
     private static double clamp(final double min, final double n, final double max) {
         if (max < min) {
@@ -239,34 +188,166 @@ public class Fami {
         if (husb == null || wife == null) {
             return 0D;
         }
-        if (!husb.laidOut().isPresent() || !wife.laidOut().isPresent()) {
-            return 0D;
-        }
-        return husb.laidOut().get().distance(wife.laidOut().get());
+        return marrDistance(husb.laidOut(), wife.laidOut());
     }
 
     public double getGenDistance() {
         if (husb == null || wife == null) {
             return 0D;
         }
-        final double avgChildX = this.rChild.stream().map(Indi::laidOut).filter(Optional::isPresent).map(Optional::get).mapToDouble(Point2D::getX).average().orElse(0D);
-        final double avgChildY = this.rChild.stream().map(Indi::laidOut).filter(Optional::isPresent).map(Optional::get).mapToDouble(Point2D::getY).average().orElse(0D);
+        return genDistance(husb.laidOut(), wife.laidOut(), this.rChild.stream().map(Indi::laidOut).filter(Optional::isPresent).map(Optional::get).toList());
+    }
+
+    static double marrDistance(final Optional<Point2D> husb, final Optional<Point2D> wife) {
+        if (!husb.isPresent() || !wife.isPresent()) {
+            return 0D;
+        }
+        return husb.get().distance(wife.get());
+    }
+
+    static double genDistance(final Optional<Point2D> husb, final Optional<Point2D> wife, final List<Point2D> children) {
+        final double avgChildX = children.stream().mapToDouble(Point2D::getX).average().orElse(0D);
+        final double avgChildY = children.stream().mapToDouble(Point2D::getY).average().orElse(0D);
         if (avgChildX < 1D && avgChildY < 1D) {
             return 0D;
         }
         final Point2D avgChild = new Point2D(avgChildX, avgChildY);
-        if (husb != null && husb.laidOut().isPresent() && wife != null && wife.laidOut().isPresent()) {
-            return Math.min(husb.laidOut().get().distance(avgChild), wife.laidOut().get().distance(avgChild));
+        if (husb.isPresent() && wife.isPresent()) {
+            return Math.min(husb.get().distance(avgChild), wife.get().distance(avgChild));
         }
-        if (husb != null && husb.laidOut().isPresent()) {
-            return husb.laidOut().get().distance(avgChild);
+        if (husb.isPresent()) {
+            return husb.get().distance(avgChild);
         }
-        if (wife != null && wife.laidOut().isPresent()) {
-            return wife.laidOut().get().distance(avgChild);
+        if (wife.isPresent()) {
+            return wife.get().distance(avgChild);
         }
         return 0D;
     }
 
+    private Point2D ptDescentParent(final Point2D p1, final Point2D p2, final Point2D child) {
+        return child.distance(p1) < child.distance(p2) ? ptParentDescentBar(p1, p2) : ptParentDescentBar(p2, p1);
+    }
+
+    private double xDescentChildren(final double xStart, final double xEnd, final double xParent) {
+        final double offset = childHeight();
+        if (xEnd-xStart < offset*2.0D) {
+            return (xEnd+xStart)/2.0D;
+        }
+        return clamp(xStart+offset, xParent, xEnd-offset);
+    }
+
+    /*
+        The connector lines, computed from the chart model's
+        coordinates, for update (and for exporting, which does not need any JavaFX nodes).
+        Each line is {startX, startY, endX, endY}, in drawing order.
+     */
+    List<double[]> lines() {
+        final List<double[]> lines = new ArrayList<>();
+        final ChartModel m = this.model;
+        final int f = this.idx;
+        final int cChild = m.childCount(f);
+        if (m.husb(f) < 0 && m.wife(f) < 0 && cChild == 0) {
+            return lines;
+        }
+
+        final Optional<Point2D[]> couple = couplePoints();
+        if (couple.isPresent()) {
+            final Point2D p1 = couple.get()[0];
+            final Point2D p2 = couple.get()[1];
+            lines.add(new double[] {p1.getX(), p1.getY() - barHeight(), p2.getX(), p2.getY() - barHeight()});
+            lines.add(new double[] {p1.getX(), p1.getY() + barHeight(), p2.getX(), p2.getY() + barHeight()});
+        }
+
+        if (0 < cChild) {
+            double xStart = Double.POSITIVE_INFINITY;
+            double xEnd = Double.NEGATIVE_INFINITY;
+            double yMin = Double.POSITIVE_INFINITY;
+            for (int c = 0; c < cChild; ++c) {
+                final int i = m.child(f, c);
+                xStart = Math.min(xStart, m.x(i));
+                xEnd = Math.max(xEnd, m.x(i));
+                yMin = Math.min(yMin, m.y(i));
+            }
+            final double top = yMin - childHeight();
+
+            if (couple.isPresent()) {
+                final Point2D parent = ptDescentParent(couple.get()[0], couple.get()[1], new Point2D((xStart + xEnd) / 2.0D, top));
+                final double x3 = xDescentChildren(xStart, xEnd, parent.getX());
+                final double y3 = top - (cChild == 1 ? 0.0D : childHeight() / 2.0D);
+                lines.add(new double[] {parent.getX(), y3, parent.getX(), parent.getY()});
+                lines.add(new double[] {x3, y3, parent.getX(), y3});
+                lines.add(new double[] {x3, top, x3, y3});
+            }
+
+            lines.add(new double[] {xStart, top, xEnd, top});
+            for (int c = 0; c < cChild; ++c) {
+                final int i = m.child(f, c);
+                lines.add(new double[] {m.x(i), top, m.x(i), m.y(i)});
+            }
+        }
+
+        return lines;
+    }
+
+    /*
+        The glyph line, from the model: from between the parents
+        to the middle of the children (or from one parent to the other, if there are no children).
+     */
+    Optional<double[]> glyph() {
+        final Optional<Point2D[]> couple = couplePoints();
+        if (couple.isEmpty()) {
+            return Optional.empty();
+        }
+        final Point2D p1 = couple.get()[0];
+        final Point2D p2 = couple.get()[1];
+        final ChartModel m = this.model;
+        final int cChild = m.childCount(this.idx);
+        if (cChild == 0) {
+            return Optional.of(new double[] {p1.getX(), p1.getY(), p2.getX(), p2.getY()});
+        }
+        double x = 0D;
+        double y = 0D;
+        for (int c = 0; c < cChild; ++c) {
+            x += m.x(m.child(this.idx, c));
+            y += m.y(m.child(this.idx, c));
+        }
+        return Optional.of(new double[] {(p1.getX() + p2.getX()) / 2.0D, (p1.getY() + p2.getY()) / 2.0D, x / cChild, y / cChild});
+    }
+
+    /*
+        Positions of the two parents, with a phantom (at the usual marriage spacing) in place of a missing one.
+     */
+    private Optional<Point2D[]> couplePoints() {
+        final ChartModel m = this.model;
+        final int h = m.husb(this.idx);
+        final int w = m.wife(this.idx);
+        if (h < 0 && w < 0) {
+            return Optional.empty();
+        }
+        if (h < 0) {
+            final Point2D p2 = new Point2D(m.x(w), m.y(w));
+            return Optional.of(new Point2D[] {new Point2D(p2.getX() - marrSpacing(), p2.getY()), p2});
+        }
+        if (w < 0) {
+            final Point2D p1 = new Point2D(m.x(h), m.y(h));
+            return Optional.of(new Point2D[] {p1, new Point2D(p1.getX() + marrSpacing(), p1.getY())});
+        }
+        return Optional.of(new Point2D[] {new Point2D(m.x(h), m.y(h)), new Point2D(m.x(w), m.y(w))});
+    }
+
+    List<Bounds> phantoms() {
+        final Optional<Point2D[]> couple = couplePoints();
+        if (couple.isEmpty() || (0 <= this.model.husb(this.idx) && 0 <= this.model.wife(this.idx))) {
+            return List.of();
+        }
+        final Point2D at = couple.get()[this.model.husb(this.idx) < 0 ? 0 : 1];
+        final Dimension2D text = this.metrics.measure(PHANTOM, 0D);
+        final double inset = this.metrics.getFontSize() / 2.0D;
+        final double w = text.getWidth() + inset * 2.0D;
+        final double h = text.getHeight() + inset * 2.0D;
+        return List.of(new BoundingBox(at.getX() - w / 2.0D, at.getY() - h / 2.0D, w, h));
+    }
+
     private Point2D ptParentDescentBar(final Point2D ptNear, final Point2D ptFar) {
         final Point2D ptStart = new Point2D(ptNear.getX(), ptNear.getY() + barHeight());
         final Point2D ptEnd = new Point2D(ptFar.getX(), ptFar.getY() + barHeight());
@@ -288,7 +369,9 @@ public class Fami {
     }
 
     private Line createLine() {
-        return createLine(metrics.colors().lines());
+        final Line line = createLine(metrics.colors().lines());
+        line.visibleProperty().bind(this.full);
+        return line;
     }
 
     private Line createLine(final Color color) {
@@ -298,94 +381,36 @@ public class Fami {
         return line;
     }
 
-    private class Couple {
-        public final DoubleProperty pt1x;
-        public final DoubleProperty pt1y;
-        public final DoubleProperty pt2x;
-        public final DoubleProperty pt2y;
-        public final boolean exists;
-
-        public Couple(final Indi indi1, final Indi indi2) {
-            exists = !(indi1 == null && indi2 == null);
-
-            if (!exists) {
-                // don't create two phantom parents
-                pt1x = pt1y = pt2x = pt2y = null;
-            } else if (indi1 == null) {
-                pt2x = indi2.x();
-                pt2y = indi2.y();
-                final Circle phantom = createPhantom();
-                pt1x = phantom.layoutXProperty();
-                pt1x.bind(pt2x.subtract(marrSpacing()));
-                pt1y = phantom.layoutYProperty();
-                pt1y.bind(pt2y);
-            } else if (indi2 == null) {
-                pt1x = indi1.x();
-                pt1y = indi1.y();
-                final Circle phantom = createPhantom();
-                pt2x = phantom.layoutXProperty();
-                pt2x.bind(pt1x.add(marrSpacing()));
-                pt2y = phantom.layoutYProperty();
-                pt2y.bind(pt1y);
-            } else {
-                pt1x = indi1.x();
-                pt1y = indi1.y();
-                pt2x = indi2.x();
-                pt2y = indi2.y();
-            }
-        }
-
-        private Circle createPhantom() {
-            final Circle phantom = new Circle(0D, Color.TRANSPARENT);
-
-            final Text textshape = new Text();
-            textshape.setFill(metrics.colors().indiText());
-            textshape.setFont(metrics.getFont());
-            textshape.setTextAlignment(TextAlignment.CENTER);
-            textshape.setText("\u00A0?\u00A0");
-            new Scene(new Group(textshape));
-            textshape.applyCss();
-            final double inset = metrics.getFontSize() / 2.0D;
-            final double w = textshape.getLayoutBounds().getWidth() + inset * 2.0D;
-            final double h = textshape.getLayoutBounds().getHeight() + inset * 2.0D;
-
-            final StackPane plaque = new StackPane();
-            phantomPanes.add(plaque);
-            plaque.setBackground(new Background(new BackgroundFill(metrics.colors().indiBg(), CORNERS, Insets.EMPTY)));
-            plaque.setBorder(new Border(new BorderStroke(metrics.colors().indiBorder(), BorderStrokeStyle.SOLID, CORNERS, BorderWidths.DEFAULT)));
-            StackPane.setMargin(textshape, new Insets(inset));
-            plaque.getChildren().addAll(textshape);
-
-            plaque.layoutXProperty().bind(phantom.layoutXProperty().subtract(w / 2.0D));
-            plaque.layoutYProperty().bind(phantom.layoutYProperty().subtract(h / 2.0D));
-
-            return phantom;
-        }
+    private void createPhantom() {
+        final Text textshape = new Text();
+        textshape.setFill(metrics.colors().indiText());
+        textshape.setFont(metrics.getFont());
+        textshape.setTextAlignment(TextAlignment.CENTER);
+        textshape.setText(PHANTOM);
+        final Dimension2D text = metrics.measure(PHANTOM, 0D);
+        final double inset = metrics.getFontSize() / 2.0D;
+        final double w = text.getWidth() + inset * 2.0D;
+        final double h = text.getHeight() + inset * 2.0D;
+
+        final StackPane plaque = new StackPane();
+        phantomPanes.add(plaque);
+        plaque.setBackground(new Background(new BackgroundFill(metrics.colors().indiBg(), CORNERS, Insets.EMPTY)));
+        plaque.setBorder(new Border(new BorderStroke(metrics.colors().indiBorder(), BorderStrokeStyle.SOLID, CORNERS, BorderWidths.DEFAULT)));
+        StackPane.setMargin(textshape, new Insets(inset));
+        plaque.getChildren().addAll(textshape);
+        // the size that update uses to center it
+        plaque.setPrefSize(w, h);
+
+        plaque.visibleProperty().bind(full);
     }
 
     public void savePdf(PdfBuilder builder) {
-        builder.addLine(this.parentBar1);
-        builder.addLine(this.parentBar2);
-        builder.addLine(this.descentBar1);
-        builder.addLine(this.descentBar2);
-        builder.addLine(this.descentBar3);
-        builder.addLine(this.childBar);
-        if (!this.rChild.isEmpty()) {
-            Arrays.asList(this.rChildBar).forEach(builder::addLine);
-        }
-        this.phantomPanes.stream().map(Node::getBoundsInParent).forEach(builder::addPhantom);
+        lines().forEach(l -> builder.addLine(l[0], l[1], l[2], l[3]));
+        phantoms().forEach(builder::addPhantom);
     }
 
     public void saveSvg(SvgBuilder svg) {
-        svg.addLine(this.parentBar1);
-        svg.addLine(this.parentBar2);
-        svg.addLine(this.descentBar1);
-        svg.addLine(this.descentBar2);
-        svg.addLine(this.descentBar3);
-        svg.addLine(this.childBar);
-        if (!this.rChild.isEmpty()) {
-            Arrays.asList(this.rChildBar).forEach(svg::addLine);
-        }
+        lines().forEach(l -> svg.addLine(l[0], l[1], l[2], l[3]));
     }
 
     public void addGraphicsTo(List<Node> addto) {
@@ -398,6 +423,7 @@ public class Fami {
         if (!this.rChild.isEmpty()) {
             Arrays.asList(this.rChildBar).forEach(c -> addGraphic(addto, c));
         }
+        addGraphic(addto, this.glyph);
         addto.addAll(this.phantomPanes);
     }
 
@@ -1,10 +1,12 @@
 package nu.mine.mosher.gedcom.xy;
 
+import javafx.application.Platform;
 import javafx.beans.property.*;
 import javafx.geometry.*;
 import javafx.scene.Node;
 import nu.mine.mosher.collection.TreeNode;
 import nu.mine.mosher.gedcom.*;
+import nu.mine.mosher.gedcom.exception.InvalidLevel;
 import nu.mine.mosher.gedcom.xy.util.*;
 import org.slf4j.*;
 import org.sqlite.SQLiteConfig;
@@ -18,40 +20,294 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
 
 public class FamilyChart {
     private static final Logger LOG = LoggerFactory.getLogger(FamilyChart.class);
+    // number of individuals (or families) to build graphics for in each turn on the JavaFX thread
+    private static final int CHUNK = 2_000;
 
     private final Optional<File> fileOriginal;
-    private final Optional<GedcomTree> tree;
+    private final boolean gedcom;
+    private Optional<GedcomTree> tree;
+    private Optional<GedcomIndex> index = Optional.empty();
+    // copy-on-write, because a progressively opened chart grows while it is being shown
     private final List<Indi> indis;
     private final List<Fami> famis;
+    private final ChartModel model = new ChartModel();
     private final Metrics metrics;
     private final Selection selection = new Selection();
     private final StringProperty selectedNameProperty = new SimpleStringProperty();
+    private final StringProperty loadStatusProperty = new SimpleStringProperty("");
+    private final ObjectProperty<LevelOfDetail> detail = new SimpleObjectProperty<>(LevelOfDetail.FULL);
+
+    private Optional<Remainder> remainder = Optional.empty();
+    private volatile boolean loading;
+    private List<Node> graphics = new ArrayList<>();
+    private int cFamiGraphics;
+    // false while the chart is shown only by a ChartCanvas (which needs no nodes)
+    private boolean graphicsBuilt;
+
+    /**
+     * The part of a chart that is still to be read, after the first part has been shown.
+     */
+    @FunctionalInterface
+    public interface Remainder {
+        /**
+         * Reads the rest of the chart. This is called on a background thread.
+         * Each batch is passed to {@code batches}: individuals first, then
+         * families (whose members have all been passed already).
+         * The {@link Indi} and {@link Fami} objects must not be calc'd yet.
+         * @param batches receives each batch of individuals and families
+         */
+        void read(BiConsumer<List<Indi>, List<Fami>> batches) throws Exception;
+    }
 
     public FamilyChart(final GedcomTree tree, final List<Indi> indis, final List<Fami> famis, final Metrics metrics, final File fileOriginal) {
-        this.fileOriginal = Optional.ofNullable(fileOriginal);
+        this(indis, famis, metrics, fileOriginal, Objects.nonNull(tree));
         this.tree = Optional.ofNullable(tree);
-        this.indis = List.copyOf(indis);
-        this.famis = List.copyOf(famis);
+    }
+
+    /**
+     * For a chart opened from a {@link ChartSnapshot}. If it is a GEDCOM file, the tree
+     * is parsed only when it is needed (for saving or exporting skeletons).
+     */
+    FamilyChart(final List<Indi> indis, final List<Fami> famis, final Metrics metrics, final File fileOriginal, final boolean gedcom) {
+        this.fileOriginal = Optional.ofNullable(fileOriginal);
+        this.gedcom = gedcom;
+        this.tree = Optional.empty();
+        this.indis = new CopyOnWriteArrayList<>(indis);
+        this.famis = new CopyOnWriteArrayList<>(famis);
         this.metrics = metrics;
+        this.model.add(indis, famis);
+    }
+
+    /**
+     * For a GEDCOM file opened view-only: where each individual is in the file.
+     */
+    void setIndex(final GedcomIndex index) {
+        this.index = Optional.of(index);
+    }
+
+    public void setRemainder(final Remainder remainder) {
+        this.remainder = Optional.of(remainder);
+        this.loading = true;
+        this.loadStatusProperty.setValue("[loading...]");
     }
 
     public void addGraphicsTo(final List<Node> addto) {
+        this.graphics = addto;
         this.famis.forEach(f -> f.addGraphicsTo(addto));
+        this.cFamiGraphics = addto.size();
         this.indis.forEach(i -> i.addGraphicsTo(addto));
     }
 
-    public void setFromOrig() {
-        this.indis.forEach(i -> i.setSelection(this.selection));
-        calc();
+    /**
+     * Starts reading the rest of a progressively opened chart (if any), in the background.
+     * Call this on the JavaFX thread, after {@link FamilyChart#addGraphicsTo(List)}
+     * (or after building the {@link ChartCanvas} that shows it).
+     */
+    public void readRemainder() {
+        if (this.remainder.isEmpty()) {
+            return;
+        }
+        final Remainder r = this.remainder.get();
+        this.remainder = Optional.empty();
+
+        final long t0 = System.nanoTime();
+        final Thread th = new Thread(() -> {
+            try {
+                r.read((i, f) -> Platform.runLater(() -> addBatch(i, f)));
+            } catch (final Throwable e) {
+                LOG.error("Error while reading the rest of the chart; it will be incomplete.", e);
+            } finally {
+                Platform.runLater(() -> endRemainder(t0));
+            }
+        }, "chart-remainder");
+        th.setDaemon(true);
+        th.start();
+    }
+
+    private void addBatch(final List<Indi> indisNew, final List<Fami> famisNew) {
+        this.model.add(indisNew, famisNew);
+        if (!this.graphicsBuilt) {
+            indisNew.forEach(Indi::measure);
+            indisNew.forEach(Indi::startCoordTracking);
+            addedBatch(indisNew, famisNew);
+            return;
+        }
+        indisNew.forEach(Indi::measure);
+        indisNew.forEach(i -> i.setSelection(this.selection));
+        indisNew.forEach(i -> i.setDetail(this.detail));
+        indisNew.forEach(Indi::calc);
+        famisNew.forEach(f -> f.setDetail(this.detail));
+        famisNew.forEach(Fami::calc);
+        indisNew.forEach(Indi::startCoordTracking);
+
+        final List<Node> nodesFami = new ArrayList<>();
+        famisNew.forEach(f -> f.addGraphicsTo(nodesFami));
+        final List<Node> nodesIndi = new ArrayList<>();
+        indisNew.forEach(i -> i.addGraphicsTo(nodesIndi));
+
+        // keep all lines beneath all plaques
+        this.graphics.addAll(this.cFamiGraphics, nodesFami);
+        this.cFamiGraphics += nodesFami.size();
+        this.graphics.addAll(nodesIndi);
+
+        addedBatch(indisNew, famisNew);
+    }
+
+    private void addedBatch(final List<Indi> indisNew, final List<Fami> famisNew) {
+        this.indis.addAll(indisNew);
+        this.famis.addAll(famisNew);
+        this.loadStatusProperty.setValue(String.format("[loading... %d people, %d families]", this.indis.size(), this.famis.size()));
+    }
+
+    private void endRemainder(final long t0) {
+        this.loading = false;
+        this.loadStatusProperty.setValue("");
+        LOG.info("Finished showing chart: {} individuals, {} families, in {} ms.", this.indis.size(), this.famis.size(), (System.nanoTime() - t0) / 1_000_000L);
+        this.metrics.logMeasurement("reading the rest of the chart");
+    }
+
+    /**
+     * @return true while the rest of a progressively opened chart is still being read
+     */
+    public boolean loading() {
+        return this.loading;
+    }
+
+    public void setFromOrig(final PhaseReport report) {
+        try (final PhaseReport.Phase phase = report.begin("FamilyChart.setFromOrig")) {
+            this.indis.forEach(i -> i.setSelection(this.selection));
+            calc(phase);
+            this.graphicsBuilt = true;
+            this.indis.forEach(Indi::startCoordTracking);
+        }
+    }
+
+    /**
+     * Like setFromOrig, but for calling from a background thread: measures everyone's plaque, and
+     * then builds the graphics, on the JavaFX thread (which the JavaFX text measurer needs), a chunk
+     * at a time (waiting for each chunk), so that thread can keep drawing, and the operation can be
+     * cancelled, in between.
+     * @param graphics false to build no graphics (as setFromOrigHeadless, for showing the chart on a {@link ChartCanvas})
+     * @param progress told how many individuals and families have been done so far, out of how many
+     * @throws CancellationException if the report is cancelled
+     * @throws InterruptedException if this thread is interrupted while waiting for the JavaFX thread
+     */
+    public void setFromOrigInChunks(final PhaseReport report, final boolean graphics, final BiConsumer<Integer, Integer> progress) throws InterruptedException {
+        final int total = this.indis.size() * (graphics ? 3 : 2) + (graphics ? this.famis.size() : 0);
+        int done = 0;
+        try (final PhaseReport.Phase phase = report.begin("Indi.measure (on JavaFX thread, in chunks)")) {
+            phase.items(this.indis.size());
+            done += chunks(this.indis, Indi::measure, report, progress, done, total);
+        }
+        if (!graphics) {
+            this.metrics.logMeasurement("measuring");
+            chunks(this.indis, Indi::startCoordTracking, report, progress, done, total);
+            return;
+        }
+        try (final PhaseReport.Phase phase = report.begin("FamilyChart.setFromOrig (on JavaFX thread, in chunks)")) {
+            phase.items(this.indis.size() + this.famis.size());
+            runOnFx(() -> {
+                this.indis.forEach(i -> i.setSelection(this.selection));
+                this.indis.forEach(i -> i.setDetail(this.detail));
+                this.famis.forEach(f -> f.setDetail(this.detail));
+            });
+            done += chunks(this.indis, Indi::calc, report, progress, done, total);
+            done += chunks(this.famis, Fami::calc, report, progress, done, total);
+            chunks(this.indis, Indi::startCoordTracking, report, progress, done, total);
+            runOnFx(() -> this.graphicsBuilt = true);
+        }
+        this.metrics.logMeasurement("building graphics");
+    }
+
+    private static <T> int chunks(final List<T> items, final Consumer<T> action, final PhaseReport report, final BiConsumer<Integer, Integer> progress, final int done, final int total) throws InterruptedException {
+        for (int k = 0; k < items.size(); k += CHUNK) {
+            report.checkCancelled();
+            final List<T> chunk = items.subList(k, Math.min(k + CHUNK, items.size()));
+            runOnFx(() -> chunk.forEach(action));
+            progress.accept(done + k + chunk.size(), total);
+        }
+        return items.size();
+    }
+
+    private static void runOnFx(final Runnable runnable) throws InterruptedException {
+        final FutureTask<Void> task = new FutureTask<>(runnable, null);
+        Platform.runLater(task);
+        try {
+            task.get();
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Instead of setFromOrig, for exporting without a GUI (with the AWT text measurer):
+     * measures everyone's plaque, but builds no graphics. They can be built later, by {@link FamilyChart#buildGraphics()}.
+     */
+    public void setFromOrigHeadless(final PhaseReport report) {
+        try (final PhaseReport.Phase phase = report.begin("Indi.measure")) {
+            phase.items(this.indis.size());
+            this.indis.forEach(Indi::measure);
+        }
+        this.metrics.logMeasurement("measuring");
         this.indis.forEach(Indi::startCoordTracking);
     }
 
-    public void calc() {
-        this.indis.forEach(Indi::calc);
-        this.famis.forEach(Fami::calc);
+    /**
+     * Builds the graphics (nodes) of a chart that was set up without them (see setFromOrigInChunks),
+     * so that it can be shown by the node renderer. Does nothing if they are already built.
+     */
+    public void buildGraphics() {
+        if (this.graphicsBuilt) {
+            return;
+        }
+        final PhaseReport report = new PhaseReport("build graphics", this.fileOriginal.orElse(null));
+        try (final PhaseReport.Phase phase = report.begin("FamilyChart.buildGraphics")) {
+            this.indis.forEach(i -> i.setSelection(this.selection));
+            calc(phase);
+            this.graphicsBuilt = true;
+        } finally {
+            report.finish();
+        }
+    }
+
+    public void calc(final PhaseReport.Phase parent) {
+        // measure all the plaques in one pass (mostly cache hits, if they were measured already), before building any nodes
+        try (final PhaseReport.Phase phase = parent.begin("Indi.measure")) {
+            phase.items(this.indis.size());
+            this.indis.forEach(Indi::measure);
+        }
+        try (final PhaseReport.Phase phase = parent.begin("Indi.calc")) {
+            phase.items(this.indis.size());
+            this.indis.forEach(i -> i.setDetail(this.detail));
+            this.indis.forEach(Indi::calc);
+        }
+        try (final PhaseReport.Phase phase = parent.begin("Fami.calc")) {
+            phase.items(this.famis.size());
+            this.famis.forEach(f -> f.setDetail(this.detail));
+            this.famis.forEach(Fami::calc);
+        }
+        this.metrics.logMeasurement("building graphics");
+    }
+
+    /**
+     * Applies any drag waiting for this pulse, and then updates the connector lines of only
+     * those families with a member who has moved since the last time. The node view calls this
+     * once per pulse (before layout).
+     */
+    public void updateGeometry() {
+        this.selection.flushDrag();
+        final int c = this.model.takeStaleFamis(this.graphicsBuilt ? f -> this.model.fami(f).update() : f -> {});
+        if (0 < c) {
+            LOG.trace("updated connector lines of {} families", c);
+        }
     }
 
     public void clearSelection() {
@@ -60,36 +316,53 @@ public class FamilyChart {
     }
 
     public void setSelectionFrom(double x, double y, double w, double h) {
-        this.indis.forEach(i -> this.selection.select(i, i.intersects(x, y, w, h), false));
+        setSelectionFrom(x, y, w, h, i -> {});
+    }
+
+    /**
+     * Selects exactly the individuals whose plaques intersect the given rectangle.
+     * Only those that entered or left the selection are changed, and passed to {@code changed}.
+     */
+    public void setSelectionFrom(final double x, final double y, final double w, final double h, final IntConsumer changed) {
+        final BitSet within = new BitSet();
+        this.model.forEachWithin(x, y, w, h, within::set);
+        for (int i = this.model.firstSelected(); 0 <= i; i = this.model.nextSelected(i)) {
+            if (!within.get(i)) {
+                this.selection.select(this.model.indi(i), false, false);
+                changed.accept(i);
+            }
+        }
+        for (int i = within.nextSetBit(0); 0 <= i; i = within.nextSetBit(i + 1)) {
+            if (!this.model.selected(i)) {
+                this.selection.select(this.model.indi(i), true, false);
+                changed.accept(i);
+            }
+        }
         updateSelectStatus();
     }
 
     private void updateSelectStatus() {
-        final long cSel = this.indis.stream().filter(Indi::selected).count();
+        final long cSel = this.model.selectedCount();
         if (cSel <= 0) {
             this.selectedNameProperty.setValue("[nothing selected]");
         } else if (1 < cSel) {
             this.selectedNameProperty.setValue(String.format("[%d selected]", cSel));
         } else {
-            final Optional<Indi> i = this.indis.stream().filter(Indi::selected).findAny();
-            if (i.isPresent()) {
-                final Point2D coords = i.get().coords();
-                final Optional<Point2D> coordsOriginal = i.get().coordsOriginal();
-                final String from;
-                if (i.get().dirty()) {
-                    if (coordsOriginal.isPresent()) {
-                        from = String.format("(%.2f,%.2f) \u2192 ", coordsOriginal.get().getX(), coordsOriginal.get().getY());
-                    } else {
-                        from = "() \u2192 ";
-                    }
+            final Indi i = this.model.indi(this.model.firstSelected());
+            final Point2D coords = i.coords();
+            final Optional<Point2D> coordsOriginal = i.coordsOriginal();
+            final String from;
+            if (i.dirty()) {
+                if (coordsOriginal.isPresent()) {
+                    from = String.format("(%.2f,%.2f) \u2192 ", coordsOriginal.get().getX(), coordsOriginal.get().getY());
                 } else {
-                    from = "";
+                    from = "() \u2192 ";
                 }
-                final String tagline = i.get().getTagline();
-                this.selectedNameProperty.setValue(String.format("[%s selected] %s(%.2f,%.2f) [%.2fx%.2f] %s", i.get().name(), from, coords.getX(), coords.getY(), i.get().width(), i.get().height(), tagline));
             } else {
-                this.selectedNameProperty.setValue("[nothing selected]");
+                from = "";
             }
+            final String tagline = i.getTagline();
+            this.selectedNameProperty.setValue(String.format("[%s selected] %s(%.2f,%.2f) [%.2fx%.2f] %s", i.name(), from, coords.getX(), coords.getY(), i.width(), i.height(), tagline));
         }
     }
 
@@ -97,8 +370,44 @@ public class FamilyChart {
         return this.metrics;
     }
 
+    public ChartModel model() {
+        return this.model;
+    }
+
     public boolean isGedcomFile() {
-        return this.tree.isPresent();
+        return this.gedcom;
+    }
+
+    private GedcomTree tree() throws IOException {
+        if (this.tree.isEmpty()) {
+            // if the chart has been saved by patching, the last file saved has the current coordinates
+            final Optional<File> fileIndexed = this.index.map(i -> i.path().toFile());
+            final File file = fileIndexed.or(() -> this.fileOriginal).orElseThrow(() -> new IOException("No GEDCOM file."));
+            LOG.info("Parsing GEDCOM file, which was opened from a snapshot: {}", file);
+            final GedcomTree parsed;
+            try {
+                parsed = Gedcom.readFile(new BufferedInputStream(new FileInputStream(file)));
+            } catch (final InvalidLevel e) {
+                throw new IOException(e);
+            }
+
+            // in file order, as the individuals are, so any records with the same ID pair up in order
+            final Map<String, Deque<TreeNode<GedcomLine>>> nodes = new HashMap<>();
+            parsed.getRoot().forEach(node -> {
+                if (node.getObject().getTag().equals(GedcomTag.INDI)) {
+                    nodes.computeIfAbsent(node.getObject().getID(), k -> new ArrayDeque<>(1)).add(node);
+                }
+            });
+            for (final Indi indi : this.indis) {
+                final TreeNode<GedcomLine> node = nodes.getOrDefault(indi.getId(), new ArrayDeque<>()).poll();
+                if (Objects.isNull(node)) {
+                    throw new IOException("GEDCOM file has changed since it was opened; cannot find individual "+indi.getId());
+                }
+                indi.attachNode(node);
+            }
+            this.tree = Optional.of(parsed);
+        }
+        return this.tree.get();
     }
 
     public void save() {
@@ -116,13 +425,19 @@ public class FamilyChart {
         }
 
         LOG.info("Opening SQLite FTM database file, for update: {}", this.fileOriginal.get().getCanonicalPath());
-        try (final Connection conn = new SQLiteConfig().createConnection("jdbc:sqlite:"+ this.fileOriginal.get().getCanonicalPath())) {
+        final PhaseReport report = new PhaseReport("save", this.fileOriginal.get());
+        try (final PhaseReport.Phase phase = report.begin("FamilyChart.trySave");
+             final Connection conn = new SQLiteConfig().createConnection("jdbc:sqlite:"+ this.fileOriginal.get().getCanonicalPath())) {
             final long pkidFactTypeXy = prepareDatabaseForFactTypeXy(conn);
-            for (final Indi indi : this.indis) {
-                if (indi.dirty()) {
+            try (final PhaseReport.Phase phaseWrite = phase.begin("write _XY facts")) {
+                final List<Indi> dirty = this.model.dirtyIndis();
+                for (final Indi indi : dirty) {
                     indi.saveXyToFtm(conn, pkidFactTypeXy);
                 }
+                phaseWrite.items(dirty.size());
             }
+        } finally {
+            report.finish();
         }
     }
 
@@ -216,33 +531,108 @@ public class FamilyChart {
     }
 
     public void saveAs(final File file) throws IOException {
-        if (!this.tree.isPresent()) {
+        if (!this.gedcom) {
             LOG.error("Cannot call \"saveAs\" without a GEDCOM file.");
             return;
         }
+        final Optional<GedcomIndex> base = patchable();
+        if (base.isPresent()) {
+            savePatched(base.get(), file);
+            return;
+        }
+
+        final GedcomTree tree = tree();
 
-        this.indis.stream().filter(Indi::dirty).forEach(Indi::saveXyToTree);
-        tree.get().timestamp();
-        Gedcom.writeFile(tree.get(), new BufferedOutputStream(new FileOutputStream(file)));
+        final PhaseReport report = new PhaseReport("save as", file);
+        try (final PhaseReport.Phase phase = report.begin("FamilyChart.saveAs")) {
+            try (final PhaseReport.Phase phaseTree = phase.begin("update _XY in tree")) {
+                final List<Indi> dirty = this.model.dirtyIndis();
+                dirty.forEach(Indi::saveXyToTree);
+                phaseTree.items(dirty.size());
+            }
+            tree.timestamp();
+            try (final PhaseReport.Phase phaseWrite = phase.begin("write GEDCOM file")) {
+                Gedcom.writeFile(tree, new BufferedOutputStream(new FileOutputStream(file)));
+            }
+        } finally {
+            report.finish();
+        }
+    }
+
+    /*
+        The chart can be saved by patching if it has an index of a file that has not changed since,
+        or else if its original file can be indexed now (it cannot be if it is ANSEL, for example),
+        as long as no two INDI records have the same ID (which would need two _XY edits in one place).
+     */
+    private Optional<GedcomIndex> patchable() throws IOException {
+        if (this.index.isPresent()) {
+            if (this.index.get().duplicateIds()) {
+                LOG.warn("GEDCOM file has more than one INDI record with the same ID; will write the whole tree instead: {}", this.index.get().path());
+                return Optional.empty();
+            }
+            if (this.index.get().current()) {
+                return this.index;
+            }
+            LOG.warn("GEDCOM file has changed since it was read; will write the whole tree instead: {}", this.index.get().path());
+            return Optional.empty();
+        }
+        if (this.fileOriginal.isEmpty()) {
+            return Optional.empty();
+        }
+        final Optional<GedcomIndex> indexed = FamilyChartBuilderGedView.index(this.fileOriginal.get());
+        if (indexed.isEmpty() || indexed.get().duplicateIds() || !this.indis.stream().allMatch(i -> indexed.get().has(i.getId()))) {
+            LOG.info("GEDCOM file cannot be patched; will write the whole tree instead: {}", this.fileOriginal.get());
+            return Optional.empty();
+        }
+        this.index = indexed;
+        return indexed;
+    }
+
+    private void savePatched(final GedcomIndex base, final File file) throws IOException {
+        final PhaseReport report = new PhaseReport("save as", file);
+        try (final PhaseReport.Phase phase = report.begin("FamilyChart.saveAs (patch)")) {
+            final List<Indi> dirty = this.model.dirtyIndis();
+            this.index = Optional.of(GedcomPatcher.save(base, dirty, file.toPath()));
+            dirty.forEach(Indi::savedXyPatched);
+            phase.items(dirty.size());
+        } finally {
+            report.finish();
+        }
     }
 
     public void savePdf(final File fileToSaveAs) throws IOException {
         final long fontsize = Math.round(Math.rint(this.metrics.getFontSize()));
 
-        try (final PdfBuilder builder = new PdfBuilder(this.metrics, fileToSaveAs, calculateSize())) {
+        final PhaseReport report = new PhaseReport("export PDF", fileToSaveAs);
+        try (final PhaseReport.Phase phase = report.begin("FamilyChart.savePdf");
+             final PdfBuilder builder = new PdfBuilder(this.metrics, fileToSaveAs, calculateSize())) {
+            phase.items(this.famis.size() + this.indis.size());
             this.famis.forEach(i -> i.savePdf(builder));
             this.indis.forEach(i -> i.savePdf(builder));
+        } finally {
+            report.finish();
         }
     }
 
     public void saveSvg(final File fileToSaveAs) throws ParserConfigurationException, TransformerException {
         final long fontsize = Math.round(Math.rint(this.metrics.getFontSize()));
-        final SvgBuilder svg = new SvgBuilder(fontsize, calculateSize());
 
-        this.famis.forEach(i -> i.saveSvg(svg));
-        this.indis.forEach(i -> i.saveSvg(svg));
+        final PhaseReport report = new PhaseReport("export SVG", fileToSaveAs);
+        try (final PhaseReport.Phase phase = report.begin("FamilyChart.saveSvg")) {
+            final SvgBuilder svg = new SvgBuilder(fontsize, calculateSize());
 
-        saveDoc(svg.get(), fileToSaveAs);
+            try (final PhaseReport.Phase phaseBuild = phase.begin("build SVG")) {
+                phaseBuild.items(this.famis.size() + this.indis.size());
+                this.famis.forEach(i -> i.saveSvg(svg));
+                this.indis.forEach(i -> i.saveSvg(svg));
+            }
+
+            try (final PhaseReport.Phase phaseWrite = phase.begin("write SVG file")) {
+                saveDoc(svg.get(), fileToSaveAs);
+            }
+        } finally {
+            report.finish();
+        }
     }
 
     private static void saveDoc(final Document document, final File fileToSaveAs) throws TransformerException {
@@ -257,6 +647,7 @@ public class FamilyChart {
     }
 
     public void saveSkeleton(final boolean exportAll, final File file) throws IOException {
+        tree();
         final PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)));
 
         out.println("0 HEAD");
@@ -280,7 +671,7 @@ public class FamilyChart {
     }
 
     public boolean dirty() {
-        return this.indis.stream().anyMatch(Indi::dirty);
+        return this.model.anyDirty();
     }
 
     public void userNormalize() {
@@ -291,33 +682,111 @@ public class FamilyChart {
         updateSelectStatus();
     }
 
+    /**
+     * Runs the automatic {@link Layout} on just the selected individuals (and their families
+     * among themselves), leaving everyone else where they are. The selection stays anchored
+     * at its connection point: the first selected individual in a family with someone
+     * not selected (or else the first one selected) does not move.
+     */
+    public void layOutSelection() {
+        final long t0 = System.nanoTime();
+        final List<Indi> sel = this.selection.indis.stream().sorted(Comparator.comparingInt(Indi::index)).toList();
+        if (sel.size() <= 1) {
+            return;
+        }
+
+        final BitSet selected = new BitSet(this.indis.size());
+        sel.forEach(i -> selected.set(i.index()));
+        final BitSet seen = new BitSet(this.famis.size());
+        final List<Fami> induced = new ArrayList<>();
+        Indi anchor = null;
+        for (final Indi indi : sel) {
+            final boolean[] connected = {false};
+            this.model.forEachFami(indi.index(), f -> {
+                final Fami fami = this.famis.get(f);
+                connected[0] |= !members(fami).stream().allMatch(m -> selected.get(m.index()));
+                if (!seen.get(f)) {
+                    seen.set(f);
+                    induce(fami, selected).ifPresent(induced::add);
+                }
+            });
+            if (Objects.isNull(anchor) && connected[0]) {
+                anchor = indi;
+            }
+        }
+        if (Objects.isNull(anchor)) {
+            anchor = sel.get(0);
+        }
+
+        final Map<Indi, Point2D> positions = new Layout(sel, induced).positions();
+        final Point2D offset = anchor.coords().subtract(positions.get(anchor));
+        positions.forEach((indi, at) -> indi.moveTo(at.add(offset)));
+
+        updateSelectStatus();
+        LOG.info("Laid out selection of {} individuals, {} families, in {} ms.", sel.size(), induced.size(), (System.nanoTime() - t0) / 1_000_000L);
+    }
+
+    private static List<Indi> members(final Fami fami) {
+        final List<Indi> members = new ArrayList<>(fami.getChildren());
+        fami.getHusb().ifPresent(members::add);
+        fami.getWife().ifPresent(members::add);
+        return members;
+    }
+
+    /**
+     * @return a copy of the given family, with only its selected members (if it has at least two)
+     */
+    private static Optional<Fami> induce(final Fami fami, final BitSet selected) {
+        final Fami copy = new Fami();
+        fami.getHusb().filter(i -> selected.get(i.index())).ifPresent(copy::setHusb);
+        fami.getWife().filter(i -> selected.get(i.index())).ifPresent(copy::setWife);
+        fami.getChildren().stream().filter(i -> selected.get(i.index())).forEach(copy::addChild);
+        if (members(copy).size() <= 1) {
+            return Optional.empty();
+        }
+        return Optional.of(copy);
+    }
+
     public List<Indi> indis() {
         return List.copyOf(this.indis);
     }
 
+    public List<Fami> famis() {
+        return List.copyOf(this.famis);
+    }
+
+    public Selection selection() {
+        return this.selection;
+    }
+
+    /**
+     * @return level of detail of the chart's graphics (nodes); setting it changes how they are drawn
+     */
+    public ObjectProperty<LevelOfDetail> detail() {
+        return this.detail;
+    }
+
     public StringProperty selectedName() {
         return this.selectedNameProperty;
     }
 
+    public StringProperty loadStatus() {
+        return this.loadStatusProperty;
+    }
+
     public Optional<File> originalFile() {
         return this.fileOriginal;
     }
 
     public Bounds calculateSize() {
-        return this.indis.stream().map(Indi::bounds).reduce((b1, b2) -> {
-            final double xMin = Math.min(b1.getMinX(), b2.getMinX());
-            final double xMax = Math.max(b1.getMaxX(), b2.getMaxX());
-            final double width = Math.abs(xMax-xMin);
-            final double yMin = Math.min(b1.getMinY(), b2.getMinY());
-            final double yMax = Math.max(b1.getMaxY(), b2.getMaxY());
-            final double height = Math.abs(yMax-yMin);
-            return new BoundingBox(xMin, yMin, width, height);
-        }).get();
+        return this.model.bounds();
     }
 
     public class Selection {
         private final Set<Indi> indis = new HashSet<>();
         private Point2D orig;
+        // relative to where the plaque was before the pending drag, so only the latest one matters
+        private Optional<Point2D> dragPending = Optional.empty();
 
         public void clear() {
             this.indis.forEach(i -> i.select(false));
@@ -337,14 +806,32 @@ public class FamilyChart {
         }
 
         public void beginDrag(final Point2D orig) {
+            flushDrag();
             this.orig = orig;
             updateSelectStatus();
         }
 
         public void drag(final Point2D to) {
-            this.indis.forEach(i -> i.drag(to.subtract(this.orig)));
+            final Point2D delta = to.subtract(this.orig);
+            this.indis.forEach(i -> i.drag(delta));
             updateSelectStatus();
         }
+
+        /**
+         * Like drag, but only remembers where to, and drags there at the next pulse
+         * (see {@link FamilyChart#updateGeometry()}), so that all the mouse events
+         * within one frame move the selection only once (to the last one).
+         */
+        public void dragOnPulse(final Point2D to) {
+            this.dragPending = Optional.of(to);
+            Platform.requestNextPulse();
+        }
+
+        private void flushDrag() {
+            final Optional<Point2D> to = this.dragPending;
+            this.dragPending = Optional.empty();
+            to.ifPresent(this::drag);
+        }
     }
 
 
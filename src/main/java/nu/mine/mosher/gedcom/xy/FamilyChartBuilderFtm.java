@@ -1,6 +1,7 @@
 package nu.mine.mosher.gedcom.xy;
 
-import javafx.geometry.Point2D;
+import javafx.geometry.*;
+import nu.mine.mosher.gedcom.xy.util.PhaseReport;
 import org.slf4j.*;
 import org.sqlite.SQLiteConfig;
 
@@ -8,123 +9,524 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class FamilyChartBuilderFtm {
     private static final Logger LOG = LoggerFactory.getLogger(FamilyChartBuilderFtm.class);
 
-    public static FamilyChart create(final File fileFtm, final boolean destroy) throws IOException, SQLException {
+    public static FamilyChart create(final File fileFtm, final Options options, final PhaseReport report) throws IOException, SQLException {
         final List<Indi> indis;
         final List<Fami> famis;
-        LOG.info("Opening SQLite FTM database file, read-only: {}", fileFtm.getCanonicalPath());
-        final SQLiteConfig config = new SQLiteConfig();
-        config.setReadOnly(true);
-        try (final Connection conn = config.createConnection("jdbc:sqlite:"+ fileFtm.getCanonicalPath())) {
-
-            final Map<String, Indi> mapIdToIndi = new HashMap<>();
-            indis = buildIndis(conn, mapIdToIndi);
-            famis = buildFamis(conn, Collections.unmodifiableMap(mapIdToIndi));
+        LOG.info("Opening SQLite FTM database file, read-only ({}): {}", options.sequential() ? "sequential" : "parallel", fileFtm.getCanonicalPath());
+        try (final PhaseReport.Phase phase = report.begin("read FTM database")) {
+            if (options.sequential()) {
+                try (final Connection conn = openReadOnly(fileFtm)) {
+                    indis = buildIndis(conn, options, phase);
+                    famis = linkFamis(readFamis(conn, phase), mapIdToIndi(indis), phase);
+                }
+            } else {
+                final ReadBoth read = readInParallel(fileFtm, options, phase);
+                indis = read.indis;
+                famis = linkFamis(read.famis, mapIdToIndi(indis), phase);
+            }
         }
 
-        if (indis.stream().noneMatch(Indi::hadOriginalXY) || destroy) {
+        if (indis.stream().noneMatch(Indi::hadOriginalXY) || options.destroyLayout()) {
             LOG.info("No _XY coordinates found; laying out dropline chart automatically...");
-            new Layout(indis, famis).cleanAll();
+            try (final PhaseReport.Phase phase = report.begin("Layout.cleanAll")) {
+                phase.items(indis.size());
+                new Layout(indis, famis, report).cleanAll();
+            }
         }
 
-        normalize(indis);
+        try (final PhaseReport.Phase phase = report.begin("normalize")) {
+            phase.items(indis.size());
+            normalize(indis);
+        }
 
-        final Metrics metrics = Metrics.buildMetricsFor(indis, famis);
+        final Metrics metrics;
+        try (final PhaseReport.Phase phase = report.begin("Metrics.buildMetricsFor")) {
+            phase.items(famis.size());
+            metrics = Metrics.buildMetricsFor(indis, famis);
+        }
         famis.forEach(f -> f.setMetrics(metrics));
         indis.forEach(i -> i.setMetrics(metrics));
 
         return new FamilyChart(null, indis, famis, metrics, fileFtm);
     }
 
-    private static List<Indi> buildIndis(final Connection conn, final Map<String, Indi> mapIdToIndi) throws SQLException, IOException {
+    private static final int PROGRESSIVE_BATCH_SIZE = 500;
+
+    /**
+     * Opens an FTM tree progressively. First, the _XY facts are read, and only the individuals
+     * (and their families) within the initial viewport are built. Everyone else is read later,
+     * in the background, by {@link FamilyChart#readRemainder()}, after the chart is shown.
+     * Trees that need to be laid out automatically are opened all at once, as by {@link FamilyChartBuilderFtm#create}.
+     */
+    public static FamilyChart createProgressive(final File fileFtm, final Options options, final Dimension2D viewport, final PhaseReport report) throws IOException, SQLException {
+        if (options.destroyLayout()) {
+            return create(fileFtm, options, report);
+        }
+
+        LOG.info("Opening SQLite FTM database file, read-only (progressive): {}", fileFtm.getCanonicalPath());
+        final XyFacts xys;
+        final List<FamiRow> rows;
+        final Metrics metrics;
+        final Point2D coordsTopLeft;
+        final Set<Long> idsFirst = new HashSet<>();
+        final List<FamiRow> rowsFirst = new ArrayList<>();
+        final List<FamiRow> rowsRest = new ArrayList<>();
+        final List<Indi> indis;
+        final List<Fami> famis;
+        try (final PhaseReport.Phase phase = report.begin("read FTM database (viewport)");
+             final Connection conn = openReadOnly(fileFtm)) {
+            try (final PhaseReport.Phase phaseXy = phase.begin("SQL _XY facts")) {
+                xys = readXyFacts(conn, phaseXy);
+                phaseXy.items(xys.coords.size());
+            }
+            if (xys.coords.isEmpty()) {
+                LOG.info("No _XY coordinates found; cannot open progressively.");
+                return create(fileFtm, options, report);
+            }
+
+            rows = readFamis(conn, phase);
+
+            try (final PhaseReport.Phase phaseMetrics = phase.begin("Metrics.buildMetricsFor")) {
+                phaseMetrics.items(rows.size());
+                metrics = Metrics.buildMetricsFor(
+                    xys.coords.stream(),
+                    rows.stream().mapToDouble(r -> xys.marrDistance(r)),
+                    rows.stream().mapToDouble(r -> xys.genDistance(r)));
+            }
+
+            final double x = xys.coords.stream().mapToDouble(Point2D::getX).min().orElse(0D);
+            final double y = xys.coords.stream().mapToDouble(Point2D::getY).min().orElse(0D);
+            coordsTopLeft = new Point2D(x, y);
+
+            final double margin = metrics.getWidthMax();
+            final Rectangle2D view = new Rectangle2D(-margin, -margin, viewport.getWidth() + margin * 2.0D, viewport.getHeight() + margin * 2.0D);
+            for (final Long id : xys.persons) {
+                // people without coordinates will be placed at the top left, too
+                final Point2D at = xys.at(id).map(p -> p.subtract(coordsTopLeft)).orElse(Point2D.ZERO);
+                if (view.contains(at)) {
+                    idsFirst.add(id);
+                }
+            }
+            for (final FamiRow row : rows) {
+                (xys.allIn(row, idsFirst) ? rowsFirst : rowsRest).add(row);
+            }
+
+            indis = FtmIndiLoader.loadOnly(conn, phase, idsFirst);
+            famis = linkFamis(rowsFirst, mapIdToIndi(indis), phase);
+        }
+        LOG.info("Showing {} of {} individuals, and {} of {} families, first.", indis.size(), xys.persons.size(), famis.size(), rows.size());
+
+        famis.forEach(f -> f.setMetrics(metrics));
+        indis.forEach(i -> i.setMetrics(metrics));
+        indis.forEach(i -> i.fillMissing(coordsTopLeft));
+
+        final FamilyChart chart = new FamilyChart(null, indis, famis, metrics, fileFtm);
+
+        chart.setRemainder(batches -> {
+            final PhaseReport reportRest = new PhaseReport("open remainder", fileFtm);
+            try {
+                final List<Indi> rest;
+                final List<Fami> famisRest;
+                try (final PhaseReport.Phase phase = reportRest.begin("read FTM database (remainder)")) {
+                    try (final Connection conn = openReadOnly(fileFtm)) {
+                        rest = new ArrayList<>(FtmIndiLoader.loadExcept(conn, phase, idsFirst));
+                    }
+                    rest.forEach(i -> i.setMetrics(metrics));
+                    rest.forEach(i -> i.fillMissing(coordsTopLeft));
+                    // nearest to the initial viewport first
+                    rest.sort(Comparator.comparingDouble(i -> i.laidOut()
+                        .map(p -> p.subtract(coordsTopLeft))
+                        .map(p -> Math.max(p.getX() / viewport.getWidth(), p.getY() / viewport.getHeight()))
+                        .orElse(0D)));
+
+                    final Map<String, Indi> mapIdToIndi = mapIdToIndi(indis);
+                    mapIdToIndi.putAll(mapIdToIndi(rest));
+                    famisRest = linkFamis(rowsRest, mapIdToIndi, phase);
+                    famisRest.forEach(f -> f.setMetrics(metrics));
+                }
+
+                for (int i = 0; i < rest.size(); i += PROGRESSIVE_BATCH_SIZE) {
+                    batches.accept(List.copyOf(rest.subList(i, Math.min(i + PROGRESSIVE_BATCH_SIZE, rest.size()))), List.of());
+                }
+                for (int i = 0; i < famisRest.size(); i += PROGRESSIVE_BATCH_SIZE) {
+                    batches.accept(List.of(), List.copyOf(famisRest.subList(i, Math.min(i + PROGRESSIVE_BATCH_SIZE, famisRest.size()))));
+                }
+            } finally {
+                reportRest.finish();
+            }
+        });
+
+        return chart;
+    }
+
+    /**
+     * Just the _XY coordinates of everyone in the tree, which is enough
+     * to build the {@link Metrics}, and to find who is in the initial viewport.
+     */
+    private static class XyFacts {
+        private final Set<Long> persons = new LinkedHashSet<>();
+        // every valid _XY, as Metrics would see them from the Indi objects
+        private final List<Point2D> coords = new ArrayList<>();
+        // the last _XY of each person, as mapIdToIndi would see it
+        private final Map<Long, Optional<Point2D>> last = new HashMap<>();
+
+        private boolean exists(final String id) {
+            return idOf(id).filter(this.persons::contains).isPresent();
+        }
+
+        private Optional<Point2D> at(final Long id) {
+            return this.last.getOrDefault(id, Optional.empty());
+        }
+
+        private Optional<Point2D> at(final String id) {
+            return idOf(id).flatMap(this::at);
+        }
+
+        private double marrDistance(final FamiRow row) {
+            if (!exists(row.idPerson1) || !exists(row.idPerson2)) {
+                return 0D;
+            }
+            return Fami.marrDistance(at(row.idPerson1), at(row.idPerson2));
+        }
+
+        private double genDistance(final FamiRow row) {
+            if (!exists(row.idPerson1) || !exists(row.idPerson2)) {
+                return 0D;
+            }
+            final List<Point2D> children = new ArrayList<>(row.idChildren.size());
+            for (final String idChild : row.idChildren) {
+                if (exists(idChild)) {
+                    at(idChild).ifPresent(children::add);
+                }
+            }
+            return Fami.genDistance(at(row.idPerson1), at(row.idPerson2), children);
+        }
+
+        private boolean allIn(final FamiRow row, final Set<Long> ids) {
+            return in(row.idPerson1, ids) && in(row.idPerson2, ids) && row.idChildren.stream().allMatch(c -> in(c, ids));
+        }
+
+        private boolean in(final String id, final Set<Long> ids) {
+            return !exists(id) || idOf(id).filter(ids::contains).isPresent();
+        }
+
+        private static Optional<Long> idOf(final String id) {
+            if (Objects.isNull(id)) {
+                return Optional.empty();
+            }
+            try {
+                return Optional.of(Long.valueOf(id));
+            } catch (final NumberFormatException e) {
+                return Optional.empty();
+            }
+        }
+    }
+
+    private static XyFacts readXyFacts(final Connection conn, final PhaseReport.Phase phase) throws SQLException {
+        final XyFacts xys = new XyFacts();
+        try (final PreparedStatement select = conn.prepareStatement("SELECT ID FROM Person ORDER BY ID")) {
+            try (final ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    phase.checkCancelled();
+                    xys.persons.add(rs.getLong("ID"));
+                }
+            }
+        }
+        try (final PreparedStatement select = conn.prepareStatement(
+            "SELECT F.LinkID, F.Text FROM Fact AS F " +
+            "WHERE F.LinkTableID = 5 AND F.Preferred = 1 AND F.FactTypeID IN (SELECT ID FROM FactType WHERE Abbreviation = '_XY') " +
+            "ORDER BY F.ID")) {
+            try (final ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    phase.checkCancelled();
+                    final long id = rs.getLong("LinkID");
+                    if (xys.persons.contains(id)) {
+                        final Optional<Point2D> xy = Coords.toCoord(rs.getString("Text"));
+                        xy.ifPresent(xys.coords::add);
+                        xys.last.put(id, xy);
+                    }
+                }
+            }
+        }
+        return xys;
+    }
+
+    private static Connection openReadOnly(final File fileFtm) throws IOException, SQLException {
+        final SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        return config.createConnection("jdbc:sqlite:"+ fileFtm.getCanonicalPath());
+    }
+
+    private static class ReadBoth {
+        private List<Indi> indis;
+        private List<FamiRow> famis;
+    }
+
+    /*
+        The database is opened read-only, so it is safe to use separate
+        connections: one for Person/Fact, and one for Relationship/ChildRelationship.
+        Indi and Fami objects are built on their own threads; linking them
+        together happens after both have finished.
+     */
+    private static ReadBoth readInParallel(final File fileFtm, final Options options, final PhaseReport.Phase phase) throws IOException, SQLException {
+        final ExecutorService exec = Executors.newFixedThreadPool(2, r -> {
+            final Thread th = new Thread(r, "ftm-reader");
+            th.setDaemon(true);
+            return th;
+        });
+        try {
+            final Future<List<Indi>> futureIndis = exec.submit(() -> {
+                try (final Connection conn = openReadOnly(fileFtm)) {
+                    return buildIndis(conn, options, phase);
+                }
+            });
+            final Future<List<FamiRow>> futureFamis = exec.submit(() -> {
+                try (final Connection conn = openReadOnly(fileFtm)) {
+                    return readFamis(conn, phase);
+                }
+            });
+
+            final ReadBoth read = new ReadBoth();
+            read.indis = await(futureIndis);
+            read.famis = await(futureFamis);
+            return read;
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    private static <T> T await(final Future<T> future) throws IOException, SQLException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading FTM database file.", e);
+        } catch (final ExecutionException wrapper) {
+            final Throwable e = wrapper.getCause();
+            if (e instanceof SQLException) {
+                throw (SQLException)e;
+            }
+            if (e instanceof IOException) {
+                throw (IOException)e;
+            }
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException)e;
+            }
+            if (e instanceof Error) {
+                throw (Error)e;
+            }
+            throw new IOException(e);
+        }
+    }
+
+    private static Map<String, Indi> mapIdToIndi(final List<Indi> indis) {
+        final Map<String, Indi> mapIdToIndi = new HashMap<>(indis.size() * 4 / 3 + 1);
+        for (final Indi indi : indis) {
+            mapIdToIndi.put(indi.getId(), indi);
+        }
+        return Collections.unmodifiableMap(mapIdToIndi);
+    }
+
+    private static List<Indi> buildIndis(final Connection conn, final Options options, final PhaseReport.Phase phase) throws SQLException, IOException {
+        final long t0 = System.nanoTime();
+        final List<Indi> indis = FtmIndiLoader.load(conn, phase);
+        final long nanos = System.nanoTime() - t0;
+        LOG.info("Calculated {} individuals.", indis.size());
+
+        if (options.compareFtmLoaders()) {
+            try (final PhaseReport.Phase phaseLegacy = phase.begin("compare legacy Indi.sql")) {
+                compareWithLegacyQuery(conn, indis, nanos);
+            }
+        }
+
+        return indis;
+    }
+
+    private static List<Indi> buildIndisLegacy(final Connection conn) throws SQLException, IOException {
         final List<Indi> indis = new ArrayList<>();
+        final IndiFactory factory = new IndiFactory();
         try (final PreparedStatement select = conn.prepareStatement(sqlIndi())) {
             try (final ResultSet rs = select.executeQuery()) {
                 while (rs.next()) {
-                    final Indi indi = buildIndi(rs);
-                    mapIdToIndi.put(indi.getId(), indi);
-                    indis.add(indi);
+                    indis.add(buildIndi(rs, factory));
                 }
             }
         }
-        LOG.info("Calculated {} individuals.", indis.size());
         return indis;
     }
 
-    private static Indi buildIndi(final ResultSet rs) throws SQLException {
-        final String pkidPerson = rs.getString("pkidPerson");
-        final String pkidFact = rs.getString("pkidFact");
-        final String xy = rs.getString("xy");
-        final Optional<Point2D> wxyOrig = Coords.toCoord(xy);
-        final String name = rs.getString("name");
-        final int sex = rs.getInt("sex");
-        final String lifespan = getLifespan(rs.getString("birth"), rs.getString("death"));
-        final long birth = calcBirthForSort(rs.getString("birth"));
-        final Place birthplace = Place.fromFtmPlace(rs.getString("birthplace"));
-        final Place anyplace = Place.fromFtmPlace(rs.getString("anyplace"));
-        final Place tagline = birthplace.toString().isBlank() ? anyplace : birthplace;
-        LOG.debug("read _XY fact from FTM file: {}, {}, {}", pkidPerson, xy, name);
+    private static void compareWithLegacyQuery(final Connection conn, final List<Indi> indis, final long nanos) throws SQLException, IOException {
+        final long t0 = System.nanoTime();
+        final List<Indi> legacy = buildIndisLegacy(conn);
+        final long nanosLegacy = System.nanoTime() - t0;
+        LOG.info("FTM person loaders: set-based={} ms, legacy Indi.sql={} ms, individuals: {} vs. {}",
+            nanos / 1_000_000L, nanosLegacy / 1_000_000L, indis.size(), legacy.size());
 
-        return new Indi(null, wxyOrig, pkidPerson, pkidFact, name, lifespan, birth, tagline.toString(), sex);
+        final Map<String, Indi> mapLegacy = new HashMap<>();
+        legacy.forEach(i -> mapLegacy.put(keyOf(i), i));
+        int cDiff = 0;
+        for (final Indi indi : indis) {
+            final Indi other = mapLegacy.remove(keyOf(indi));
+            final String a = signatureOf(indi);
+            final String b = Objects.isNull(other) ? "[missing]" : signatureOf(other);
+            if (!a.equals(b)) {
+                ++cDiff;
+                LOG.warn("FTM person loaders differ: set-based={}, legacy={}", a, b);
+            }
+        }
+        for (final Indi other : mapLegacy.values()) {
+            ++cDiff;
+            LOG.warn("FTM person loaders differ: set-based=[missing], legacy={}", signatureOf(other));
+        }
+        LOG.info("FTM person loaders: {} difference(s).", cDiff);
+    }
+
+    private static String keyOf(final Indi indi) {
+        return indi.getId() + "/" + indi.getIdCoords();
+    }
+
+    private static String signatureOf(final Indi indi) {
+        return String.join("|",
+            keyOf(indi),
+            indi.coordsOriginal().map(Point2D::toString).orElse(""),
+            indi.name(),
+            Integer.toString(indi.getSex()),
+            indi.getLifespan(),
+            Long.toString(indi.getBirthForSort()),
+            indi.getTagline());
     }
 
-    private static long calcBirthForSort(String birth) {
-        final FtmDate d = FtmDate.fromFtmFactDate(birth);
-        return d.ym();
+    private static Indi buildIndi(final ResultSet rs, final IndiFactory factory) throws SQLException {
+        return factory.build(
+            rs.getString("pkidPerson"),
+            rs.getString("pkidFact"),
+            rs.getString("xy"),
+            rs.getString("name"),
+            rs.getInt("sex"),
+            rs.getString("birth"),
+            rs.getString("death"),
+            rs.getString("birthplace"),
+            rs.getString("anyplace"));
     }
 
-    private static String getLifespan(final String dateBirth, final String dateDeath) {
-        final FtmDate db = FtmDate.fromFtmFactDate(dateBirth);
-        final FtmDate dd = FtmDate.fromFtmFactDate(dateDeath);
-        if (db.unknown() && dd.unknown()) {
-            return "";
+    /**
+     * Builds Indi objects from FTM column values. Holds the place cache and
+     * date decoders for one load, so it is not thread-safe.
+     */
+    static class IndiFactory {
+        private static final int PLACE_CACHE_SIZE = 16384;
+
+        private final Place.Cache places = new Place.Cache(PLACE_CACHE_SIZE);
+        private final FtmDate.Decoder birth = new FtmDate.Decoder();
+        private final FtmDate.Decoder death = new FtmDate.Decoder();
+        private final StringBuilder sb = new StringBuilder(16);
+
+        Indi build(final String pkidPerson, final String pkidFact, final String xy, final String name, final int sex, final String dateBirth, final String dateDeath, final String placeBirth, final String placeAny) {
+            final Optional<Point2D> wxyOrig = Coords.toCoord(xy);
+            this.birth.decode(dateBirth);
+            this.death.decode(dateDeath);
+            final String lifespan = getLifespan();
+            final long birth = this.birth.ym();
+            final Place birthplace = this.places.fromFtmPlace(placeBirth);
+            final Place anyplace = this.places.fromFtmPlace(placeAny);
+            final Place tagline = birthplace.toString().isBlank() ? anyplace : birthplace;
+            LOG.debug("read _XY fact from FTM file: {}, {}, {}", pkidPerson, xy, name);
+
+            return new Indi(null, wxyOrig, pkidPerson, pkidFact, name, lifespan, birth, tagline.toString(), sex);
+        }
+
+        private String getLifespan() {
+            if (this.birth.unknown() && this.death.unknown()) {
+                return "";
+            }
+            this.sb.setLength(0);
+            this.birth.appendLabel(this.sb).append('\u2013');
+            this.death.appendLabel(this.sb);
+            return this.sb.toString();
+        }
+
+        void logStatistics() {
+            this.places.logStatistics();
+        }
+    }
+
+    /**
+     * A family as read from the database, with the IDs of its members,
+     * to be linked to the individuals after they have been read.
+     */
+    private static class FamiRow {
+        private final Fami fami = new Fami();
+        private final String idPerson1;
+        private final String idPerson2;
+        private final List<String> idChildren = new ArrayList<>(4);
+
+        private FamiRow(final String idPerson1, final String idPerson2) {
+            this.idPerson1 = idPerson1;
+            this.idPerson2 = idPerson2;
         }
-        return db+"\u2013"+dd;
     }
 
-    private static List<Fami> buildFamis(final Connection conn, final Map<String, Indi> mapIdToIndi) throws SQLException {
-        final List<Fami> famis = new ArrayList<>();
-        try (final PreparedStatement select = conn.prepareStatement(sqlFami())) {
+    private static List<FamiRow> readFamis(final Connection conn, final PhaseReport.Phase parent) throws SQLException {
+        final List<FamiRow> rows = new ArrayList<>();
+        try (final PhaseReport.Phase phase = parent.begin("SQL relationships");
+             final PreparedStatement select = conn.prepareStatement(sqlFami())) {
             try (final ResultSet rs = select.executeQuery()) {
                 int prev = -1;
-                Fami fami = null;
+                FamiRow row = null;
                 while (rs.next()) {
+                    phase.checkCancelled();
                     final int curr = rs.getInt("ID");
                     if (curr != prev) {
-                        if (Objects.nonNull(fami)) {
-                            famis.add(fami);
-                        }
-                        fami = new Fami();
-                        fami.setHusb(mapIdToIndi.get(rs.getString("Person1ID")));
-                        fami.setWife(mapIdToIndi.get(rs.getString("Person2ID")));
+                        row = new FamiRow(rs.getString("Person1ID"), rs.getString("Person2ID"));
+                        rows.add(row);
                         prev = curr;
                     }
-                    fami.addChild(mapIdToIndi.get(rs.getString("PersonID")));
+                    row.idChildren.add(rs.getString("PersonID"));
                 }
-                if (Objects.nonNull(fami)) {
-                    famis.add(fami);
+            }
+            phase.items(rows.size());
+        }
+        return rows;
+    }
+
+    private static List<Fami> linkFamis(final List<FamiRow> rows, final Map<String, Indi> mapIdToIndi, final PhaseReport.Phase parent) {
+        final List<Fami> famis = new ArrayList<>(rows.size());
+        try (final PhaseReport.Phase phase = parent.begin("Fami build")) {
+            for (final FamiRow row : rows) {
+                phase.checkCancelled();
+                final Fami fami = row.fami;
+                fami.setHusb(mapIdToIndi.get(row.idPerson1));
+                fami.setWife(mapIdToIndi.get(row.idPerson2));
+                for (final String idChild : row.idChildren) {
+                    fami.addChild(mapIdToIndi.get(idChild));
                 }
+                famis.add(fami);
             }
+            phase.items(famis.size());
         }
         LOG.info("Calculated {} families.", famis.size());
-        for (final Fami fami : famis) {
-            StringBuilder sb = new StringBuilder(64);
-            sb.append("p1=");
-            final Optional<Indi> h = fami.getHusb();
-            sb.append(h.isPresent() ? h.get().getId() : "[null]");
-            final Optional<Indi> w = fami.getWife();
-            sb.append(", p2=");
-            sb.append(w.isPresent() ? w.get().getId() : "[null]");
-
-            final List<Indi> rc = fami.getChildren();
-            for (final Indi c : rc) {
-                sb.append(", c=");
-                sb.append(c.getId());
-            }
-            LOG.debug("family: {}", sb);
+        if (LOG.isDebugEnabled()) {
+            for (final Fami fami : famis) {
+                StringBuilder sb = new StringBuilder(64);
+                sb.append("p1=");
+                final Optional<Indi> h = fami.getHusb();
+                sb.append(h.isPresent() ? h.get().getId() : "[null]");
+                final Optional<Indi> w = fami.getWife();
+                sb.append(", p2=");
+                sb.append(w.isPresent() ? w.get().getId() : "[null]");
+
+                final List<Indi> rc = fami.getChildren();
+                for (final Indi c : rc) {
+                    sb.append(", c=");
+                    sb.append(c.getId());
+                }
+                LOG.debug("family: {}", sb);
+            }
         }
         return famis;
     }
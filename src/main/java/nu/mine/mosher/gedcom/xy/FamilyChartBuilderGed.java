@@ -3,51 +3,228 @@ package nu.mine.mosher.gedcom.xy;
 import javafx.geometry.Point2D;
 import nu.mine.mosher.collection.TreeNode;
 import nu.mine.mosher.gedcom.*;
-import nu.mine.mosher.gedcom.date.DatePeriod;
-import nu.mine.mosher.gedcom.date.parser.GedcomDateValueParser;
+import nu.mine.mosher.gedcom.xy.util.PhaseReport;
 import org.slf4j.*;
 
-import java.io.*;
+import java.io.File;
 import java.util.*;
+import java.util.stream.IntStream;
 
 public final class FamilyChartBuilderGed {
     private static final Logger LOG = LoggerFactory.getLogger(FamilyChartBuilderGed.class);
 
+    /*
+        Number of INDI records built together by one task, when building in parallel.
+     */
+    private static final int CHUNK_SIZE = 2048;
+
     private FamilyChartBuilderGed() {
         throw new IllegalStateException("not intended to be instantiated");
     }
 
-    public static FamilyChart create(final GedcomTree tree, final File original) {
-        final Map<String, Indi> mapIdToIndi = new HashMap<>();
-
-        final List<Indi> indis = buildIndis(tree, mapIdToIndi);
-        final List<Fami> famis = buildFamis(tree, Collections.unmodifiableMap(mapIdToIndi));
+    public static FamilyChart create(final GedcomTree tree, final File original, final Options options, final PhaseReport report) {
+        final Sweep sweep = new Sweep(new GedcomDateCache(), report);
+        try (final PhaseReport.Phase phase = report.begin("GEDCOM sweep")) {
+            sweep.sweep(tree, options.sequential());
+            phase.items(sweep.indis.size());
+        }
+        final List<Indi> indis = sweep.indis;
+        final List<Fami> famis = sweep.famis;
 
-        if (indis.stream().noneMatch(Indi::hadOriginalXY)) {
+        if (indis.stream().noneMatch(Indi::hadOriginalXY) || options.destroyLayout()) {
             LOG.info("No _XY coordinates found; laying out dropline chart automatically...");
-            new Layout(indis, famis).cleanAll();
+            try (final PhaseReport.Phase phase = report.begin("Layout.cleanAll")) {
+                phase.items(indis.size());
+                new Layout(indis, famis, report).cleanAll();
+            }
         }
 
-        normalize(indis);
+        try (final PhaseReport.Phase phase = report.begin("normalize")) {
+            phase.items(indis.size());
+            normalize(indis);
+        }
 
-        final Metrics metrics = Metrics.buildMetricsFor(indis, famis);
+        final Metrics metrics;
+        try (final PhaseReport.Phase phase = report.begin("Metrics.buildMetricsFor")) {
+            phase.items(famis.size());
+            metrics = Metrics.buildMetricsFor(indis, famis);
+        }
         famis.forEach(f -> f.setMetrics(metrics));
         indis.forEach(i -> i.setMetrics(metrics));
 
         return new FamilyChart(tree, indis, famis, metrics, original);
     }
 
-    private static List<Indi> buildIndis(final GedcomTree tree, final Map<String, Indi> mapIdToIndi) {
-        final List<Indi> indis = new ArrayList<>();
-        tree.getRoot().forEach(nodeIndi -> {
-            if (nodeIndi.getObject().getTag().equals(GedcomTag.INDI)) {
-                final Indi indi = buildIndi(nodeIndi);
-                mapIdToIndi.put(indi.getId(), indi);
-                indis.add(indi);
+    /*
+        One pass over the top-level records. Each INDI record's subtree is visited
+        once, picking up everything the chart needs from it; the INDI records are
+        built in parallel chunks (unless sequential). Each FAM record's pointers
+        are read in the same pass, and resolved once all individuals are built
+        (because a family can come before its members in the file).
+     */
+    private static final class Sweep {
+        private final List<Indi> indis = new ArrayList<>();
+        private final List<Fami> famis = new ArrayList<>();
+        private final Map<String, Indi> mapIdToIndi = new HashMap<>();
+        private final List<FamRecord> fams = new ArrayList<>();
+        private final GedcomDateCache dates;
+        private final PhaseReport report;
+        private long visited;
+
+        private Sweep(final GedcomDateCache dates, final PhaseReport report) {
+            this.dates = dates;
+            this.report = report;
+        }
+
+        private void sweep(final GedcomTree tree, final boolean sequential) {
+            final List<TreeNode<GedcomLine>> nodesIndi = new ArrayList<>();
+            for (final TreeNode<GedcomLine> node : tree.getRoot()) {
+                this.report.checkCancelled();
+                ++this.visited;
+                switch (node.getObject().getTag()) {
+                    case INDI -> nodesIndi.add(node);
+                    case FAM -> this.fams.add(readFam(node));
+                }
+            }
+
+            if (sequential || nodesIndi.size() <= CHUNK_SIZE) {
+                this.indis.addAll(buildIndis(nodesIndi));
+            } else {
+                this.indis.addAll(buildIndisInParallel(nodesIndi));
+            }
+            this.indis.forEach(indi -> this.mapIdToIndi.put(indi.getId(), indi));
+
+            for (final FamRecord fam : this.fams) {
+                this.famis.add(fam.resolve(this.mapIdToIndi));
+            }
+            this.dates.logStatistics();
+            LOG.info("Calculated {} individuals, {} families; visited {} GEDCOM lines ({} per individual).",
+                this.indis.size(), this.famis.size(), this.visited, String.format("%.1f", this.indis.isEmpty() ? 0.0D : (double)this.visited / this.indis.size()));
+        }
+
+        private List<Indi> buildIndis(final List<TreeNode<GedcomLine>> nodesIndi) {
+            final List<Indi> built = new ArrayList<>(nodesIndi.size());
+            for (final TreeNode<GedcomLine> node : nodesIndi) {
+                this.report.checkCancelled();
+                built.add(buildIndi(node));
+            }
+            return built;
+        }
+
+        /*
+            Builds the individuals in chunks, on the common ForkJoin pool,
+            keeping them in file order.
+         */
+        private List<Indi> buildIndisInParallel(final List<TreeNode<GedcomLine>> nodesIndi) {
+            final long t0 = System.nanoTime();
+            final int cChunk = (nodesIndi.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            final List<Chunk> chunks = IntStream.range(0, cChunk).parallel().mapToObj(i -> {
+                final long t = System.nanoTime();
+                final Sweep sweep = new Sweep(this.dates, this.report);
+                final List<Indi> built = sweep.buildIndis(nodesIndi.subList(i * CHUNK_SIZE, Math.min(nodesIndi.size(), (i + 1) * CHUNK_SIZE)));
+                return new Chunk(built, sweep.visited, System.nanoTime() - t);
+            }).toList();
+            final long nanos = System.nanoTime() - t0;
+
+            final List<Indi> built = new ArrayList<>(nodesIndi.size());
+            long nanosWork = 0L;
+            for (final Chunk chunk : chunks) {
+                built.addAll(chunk.indis);
+                this.visited += chunk.visited;
+                nanosWork += chunk.nanos;
+            }
+            LOG.info("Built {} individuals in {} chunks, in parallel: {} ms elapsed, {} ms of work (speedup {}x).",
+                built.size(), cChunk, nanos / 1_000_000L, nanosWork / 1_000_000L, String.format("%.2f", nanos <= 0L ? 0.0D : (double)nanosWork / nanos));
+            return built;
+        }
+
+        private Indi buildIndi(final TreeNode<GedcomLine> nodeIndi) {
+            String value_XY = null;
+            String name = null;
+            String sex = null;
+            String birt = null;
+            String deat = null;
+            for (final TreeNode<GedcomLine> c : nodeIndi) {
+                ++this.visited;
+                // the first of each tag wins
+                switch (c.getObject().getTagString()) {
+                    case "_XY" -> value_XY = Objects.isNull(value_XY) ? value(c) : value_XY;
+                    case "NAME" -> name = Objects.isNull(name) ? value(c) : name;
+                    case "SEX" -> sex = Objects.isNull(sex) ? value(c) : sex;
+                    case "BIRT" -> birt = Objects.isNull(birt) ? eventDate(c) : birt;
+                    case "DEAT" -> deat = Objects.isNull(deat) ? eventDate(c) : deat;
+                    default -> { }
+                }
+            }
+            return FamilyChartBuilderGed.buildIndi(nodeIndi, nodeIndi.getObject().getID(), this.dates, orEmpty(value_XY), orEmpty(name), orEmpty(sex), orEmpty(birt), orEmpty(deat));
+        }
+
+        private String eventDate(final TreeNode<GedcomLine> nodeEvent) {
+            for (final TreeNode<GedcomLine> c : nodeEvent) {
+                ++this.visited;
+                if (c.getObject().getTagString().equals("DATE")) {
+                    return value(c);
+                }
+            }
+            return "";
+        }
+
+        private FamRecord readFam(final TreeNode<GedcomLine> nodeFami) {
+            final FamRecord fam = new FamRecord();
+            for (final TreeNode<GedcomLine> c : nodeFami) {
+                ++this.visited;
+                final GedcomLine child = c.getObject();
+                switch (child.getTag()) {
+                    case HUSB -> fam.husb = child.getPointer();
+                    case WIFE -> fam.wife = child.getPointer();
+                    case CHIL -> fam.children.add(child.getPointer());
+                }
+            }
+            return fam;
+        }
+
+        private static String value(final TreeNode<GedcomLine> node) {
+            return node.getObject().getValue().trim();
+        }
+
+        private static String orEmpty(final String s) {
+            return Objects.isNull(s) ? "" : s;
+        }
+    }
+
+    private static final class Chunk {
+        private final List<Indi> indis;
+        private final long visited;
+        private final long nanos;
+
+        private Chunk(final List<Indi> indis, final long visited, final long nanos) {
+            this.indis = indis;
+            this.visited = visited;
+            this.nanos = nanos;
+        }
+    }
+
+    /*
+        Pointers of a FAM record (also used by FamilyChartBuilderGedView). As before, the last HUSB and WIFE win.
+     */
+    static final class FamRecord {
+        String husb;
+        String wife;
+        final List<String> children = new ArrayList<>(4);
+
+        Fami resolve(final Map<String, Indi> mapIdToIndi) {
+            final Fami fami = new Fami();
+            if (Objects.nonNull(this.husb)) {
+                fami.setHusb(mapIdToIndi.get(this.husb));
+            }
+            if (Objects.nonNull(this.wife)) {
+                fami.setWife(mapIdToIndi.get(this.wife));
+            }
+            for (final String child : this.children) {
+                fami.addChild(mapIdToIndi.get(child));
             }
-        });
-        LOG.info("Calculated {} individuals.", indis.size());
-        return indis;
+            return fami;
+        }
     }
 
     private static void normalize(final List<Indi> indis) {
@@ -57,29 +234,17 @@ public final class FamilyChartBuilderGed {
         indis.forEach(i -> i.fillMissing(coordsTopLeftAfterLayout));
     }
 
-    private static List<Fami> buildFamis(final GedcomTree tree, final Map<String, Indi> mapIdToIndi) {
-        final List<Fami> famis = new ArrayList<>();
-        tree.getRoot().forEach(nodeFami -> {
-            if (nodeFami.getObject().getTag().equals(GedcomTag.FAM)) {
-                final Fami fami = buildFami(nodeFami, Collections.unmodifiableMap(mapIdToIndi));
-                famis.add(fami);
-            }
-        });
-        LOG.info("Calculated {} families.", famis.size());
-        return famis;
-    }
-
-    private static Indi buildIndi(final TreeNode<GedcomLine> nodeIndi) {
-        final String value_XY = getChildValue(nodeIndi, "_XY");
+    /**
+     * @param nodeIndi INDI record, or null if the tree is not kept
+     */
+    static Indi buildIndi(final TreeNode<GedcomLine> nodeIndi, final String id, final GedcomDateCache dates, final String value_XY, final String name, final String sex, final String birt, final String deat) {
         final Optional<Point2D> wxyOrig = Coords.toCoord(value_XY);
         // wxyOrig empty indicates that _XY either was not present, or was present but had an invalid format
         // In either of these two cases, when we save the new GEDCOM file, we want to ADD a new _XY record
 
-        final String name = getChildValue(nodeIndi, "NAME");
-        final String lifespan = getLifespan(getChildEventDate(nodeIndi, "BIRT"), getChildEventDate(nodeIndi, "DEAT"));
-        final long birth = calcBirthForSort(getChildEventDate(nodeIndi, "BIRT"));
-        final int sex = toSex(getChildValue(nodeIndi, "SEX"));
-        final String id = nodeIndi.getObject().getID();
+        final long dateBirth = dates.get(birt);
+        final String lifespan = getLifespan(dateBirth, dates.get(deat));
+        final long birth = calcBirthForSort(dateBirth);
 
         if (!wxyOrig.isPresent()) {
             if (value_XY.isEmpty()) {
@@ -89,40 +254,28 @@ public final class FamilyChartBuilderGed {
             }
         }
 
-        return new Indi(nodeIndi, wxyOrig, id, "", name, lifespan, birth, null, sex);
+        return new Indi(nodeIndi, wxyOrig, id, "", name, lifespan, birth, null, toSex(sex));
     }
 
-    private static long calcBirthForSort(String birt) {
-        final DatePeriod db = toDate(birt);
-        final Date d = db.getStartDate().getApproxDay().asDate();
-        if (d.getTime() == 0) {
+    private static long calcBirthForSort(final long db) {
+        if (!GedcomDateCache.hasYear(db)) {
             return 0L;
         }
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(d);
-        int year = cal.get(Calendar.YEAR);
-        int month = cal.get(Calendar.MONTH);
-        return year*100L+month;
+        return GedcomDateCache.year(db)*100L+GedcomDateCache.month(db);
     }
 
-    private static String getLifespan(String birt, String deat) {
-        final DatePeriod db = toDate(birt);
-        final DatePeriod dd = toDate(deat);
-        if (db.equals(DatePeriod.UNKNOWN) && dd.equals(DatePeriod.UNKNOWN)) {
+    private static String getLifespan(final long db, final long dd) {
+        if (GedcomDateCache.unknown(db) && GedcomDateCache.unknown(dd)) {
             return "";
         }
         return dateString(db)+"\u2013"+dateString(dd);
     }
 
-    private static String dateString(final DatePeriod date) {
-        final Date d = date.getStartDate().getApproxDay().asDate();
-        if (d.getTime() == 0) {
+    private static String dateString(final long date) {
+        if (!GedcomDateCache.hasYear(date)) {
             return "";
         }
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(d);
-        int year = cal.get(Calendar.YEAR);
-        return "" + year;
+        return Integer.toString(GedcomDateCache.year(date));
     }
 
     private static int toSex(final String sex) {
@@ -137,47 +290,4 @@ public final class FamilyChartBuilderGed {
         }
         return 0;
     }
-
-    private static DatePeriod toDate(final String date) {
-        try {
-            return new GedcomDateValueParser(new StringReader(date)).parse();
-        } catch (final Exception e) {
-            if (!date.isEmpty()) {
-                LOG.warn("Error while parsing DATE={}", date, e);
-            }
-            return DatePeriod.UNKNOWN;
-        }
-    }
-
-    private static String getChildEventDate(final TreeNode<GedcomLine> node, final String tag) {
-        for (final TreeNode<GedcomLine> c : node) {
-            if (c.getObject().getTagString().equals(tag)) {
-                return getChildValue(c, "DATE");
-            }
-        }
-        return "";
-    }
-
-    private static String getChildValue(final TreeNode<GedcomLine> node, final String tag) {
-        for (final TreeNode<GedcomLine> c : node) {
-            if (c.getObject().getTagString().equals(tag)) {
-                return c.getObject().getValue().trim();
-            }
-        }
-        return "";
-    }
-
-    private static Fami buildFami(final TreeNode<GedcomLine> nodeFami, final Map<String, Indi> mapIdToIndi) {
-        final Fami fami = new Fami();
-        for (final TreeNode<GedcomLine> c : nodeFami) {
-            final GedcomLine child = c.getObject();
-            switch (child.getTag())
-            {
-                case HUSB -> fami.setHusb(mapIdToIndi.get(child.getPointer()));
-                case WIFE -> fami.setWife(mapIdToIndi.get(child.getPointer()));
-                case CHIL -> fami.addChild(mapIdToIndi.get(child.getPointer()));
-            }
-        }
-        return fami;
-    }
 }
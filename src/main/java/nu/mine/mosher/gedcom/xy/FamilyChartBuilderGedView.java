@@ -0,0 +1,419 @@
+package nu.mine.mosher.gedcom.xy;
+
+import nu.mine.mosher.gedcom.xy.util.PhaseReport;
+import org.slf4j.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * View-only opening of a GEDCOM file: streams the file once, keeping only what the chart
+ * needs (and a {@link GedcomIndex} of where each INDI record is), without building a GedcomTree.
+ * The tree is only parsed later if it is needed (for saving skeletons, for example).
+ * Only byte-oriented character sets (UTF-8, ASCII, ANSI) are handled; for others
+ * (ANSEL, UTF-16), the file has to be opened the usual way.
+ */
+final class FamilyChartBuilderGedView {
+    private static final Logger LOG = LoggerFactory.getLogger(FamilyChartBuilderGedView.class);
+
+    private FamilyChartBuilderGedView() {
+        throw new IllegalStateException("not intended to be instantiated");
+    }
+
+    /**
+     * @return chart, or empty if the file's character set is not handled
+     */
+    public static Optional<FamilyChart> create(final File file, final Options options, final PhaseReport report) throws IOException {
+        final Path path = file.toPath();
+        final long size = Files.size(path);
+        final long modified = Files.getLastModifiedTime(path).toMillis();
+
+        final Optional<Charset> charset = detectCharset(path);
+        if (charset.isEmpty()) {
+            LOG.warn("GEDCOM file's character set cannot be streamed; will read the whole tree instead: {}", file);
+            return Optional.empty();
+        }
+        LOG.info("Streaming GEDCOM file, view-only ({}): {}", charset.get(), file);
+
+        final LineStream stream = new LineStream(charset.get(), false);
+        try (final PhaseReport.Phase phase = report.begin("GEDCOM stream");
+             final InputStream in = Files.newInputStream(path)) {
+            stream.read(in);
+            phase.items(stream.lines);
+        }
+        final GedcomIndex index = stream.index(path, size, modified);
+
+        final List<Indi> indis = new ArrayList<>(stream.indis.size());
+        final Map<String, Indi> mapIdToIndi = new HashMap<>();
+        final List<Fami> famis = new ArrayList<>(stream.fams.size());
+        try (final PhaseReport.Phase phase = report.begin("Indi build")) {
+            final GedcomDateCache dates = new GedcomDateCache();
+            for (final IndiRecord r : stream.indis) {
+                final Indi indi = FamilyChartBuilderGed.buildIndi(null, r.id, dates, orEmpty(r.xy), orEmpty(r.name), orEmpty(r.sex), orEmpty(r.birt), orEmpty(r.deat));
+                indis.add(indi);
+                mapIdToIndi.put(r.id, indi);
+                index.add(r.id, r.offset, r.length, r.offsetXy, r.lengthXy);
+            }
+            dates.logStatistics();
+            phase.items(indis.size());
+        }
+        try (final PhaseReport.Phase phase = report.begin("Fami build")) {
+            for (final FamilyChartBuilderGed.FamRecord r : stream.fams) {
+                famis.add(r.resolve(mapIdToIndi));
+            }
+            phase.items(famis.size());
+        }
+        LOG.info("Streamed {} lines: {} individuals, {} families.", stream.lines, indis.size(), famis.size());
+
+        final FamilyChart chart = new ChartSnapshot.Model(indis, famis).build(file, true, options, report);
+        chart.setIndex(index);
+        return Optional.of(chart);
+    }
+
+    /**
+     * Indexes a GEDCOM file, without keeping anything else from it (for saving by patching
+     * a file that was opened the usual way).
+     * @return index, or empty if the file's character set is not handled
+     */
+    static Optional<GedcomIndex> index(final File file) throws IOException {
+        final Path path = file.toPath();
+        final long size = Files.size(path);
+        final long modified = Files.getLastModifiedTime(path).toMillis();
+
+        final Optional<Charset> charset = detectCharset(path);
+        if (charset.isEmpty()) {
+            return Optional.empty();
+        }
+
+        final LineStream stream = new LineStream(charset.get(), true);
+        try (final InputStream in = Files.newInputStream(path)) {
+            stream.read(in);
+        }
+        final GedcomIndex index = stream.index(path, size, modified);
+        for (final IndiRecord r : stream.indis) {
+            index.add(r.id, r.offset, r.length, r.offsetXy, r.lengthXy);
+        }
+        LOG.info("Indexed {} lines: {} individuals.", stream.lines, index.size());
+        return Optional.of(index);
+    }
+
+    private static String orEmpty(final String s) {
+        return Objects.isNull(s) ? "" : s;
+    }
+
+
+
+    /*
+        Looks at the byte order mark, or else the HEAD.CHAR line.
+     */
+    private static Optional<Charset> detectCharset(final Path path) throws IOException {
+        final byte[] head = new byte[64 * 1024];
+        final int n;
+        try (final InputStream in = Files.newInputStream(path)) {
+            n = in.readNBytes(head, 0, head.length);
+        }
+        if (3 <= n && (head[0] & 0xFF) == 0xEF && (head[1] & 0xFF) == 0xBB && (head[2] & 0xFF) == 0xBF) {
+            return Optional.of(StandardCharsets.UTF_8);
+        }
+        if (2 <= n && ((head[0] & 0xFF) == 0xFE || (head[0] & 0xFF) == 0xFF || head[0] == 0 || head[1] == 0)) {
+            return Optional.empty();
+        }
+        final String s = new String(head, 0, n, StandardCharsets.ISO_8859_1);
+        for (final String line : s.split("[\r\n]+")) {
+            final String t = line.trim();
+            if (t.startsWith("1 CHAR ")) {
+                final String c = t.substring(7).trim().toUpperCase();
+                switch (c) {
+                    case "UTF-8", "UTF8":
+                        return Optional.of(StandardCharsets.UTF_8);
+                    case "ASCII":
+                        return Optional.of(StandardCharsets.US_ASCII);
+                    case "ANSI":
+                        return Optional.of(Charset.forName("windows-1252"));
+                    default:
+                        return Optional.empty();
+                }
+            }
+            if (t.startsWith("0 ") && !t.startsWith("0 HEAD")) {
+                break;
+            }
+        }
+        return Optional.empty();
+    }
+
+
+
+    private static final class IndiRecord {
+        private final String id;
+        private final long offset;
+        private int length;
+        private String xy;
+        private long offsetXy = -1L;
+        private int lengthXy = -1;
+        private String name;
+        private String sex;
+        private String birt;
+        private String deat;
+
+        private IndiRecord(final String id, final long offset) {
+            this.id = id;
+            this.offset = offset;
+        }
+    }
+
+    /*
+        Splits the file into GEDCOM lines (terminated by CR, LF, CR LF, or LF CR),
+        keeping track of each line's byte offset, and picks out the fields the
+        chart needs. The first of each INDI field wins (as in FamilyChartBuilderGed);
+        the last HUSB or WIFE of a family wins. Also finds the HEAD's DATE and TIME lines.
+        If only indexing, just the offsets are kept.
+     */
+    private static final class LineStream {
+        private final Charset charset;
+        private final boolean indexOnly;
+        private final List<IndiRecord> indis = new ArrayList<>();
+        private final List<FamilyChartBuilderGed.FamRecord> fams = new ArrayList<>();
+        private Optional<byte[]> eol = Optional.empty();
+        private long lines;
+
+        private boolean head;
+        private boolean headDate;
+        private long offsetHeadDate = -1L;
+        private int lengthHeadDate;
+        private long offsetAfterHeadDate = -1L;
+        private long offsetHeadTime = -1L;
+        private int lengthHeadTime;
+        private long offsetEndOfHead = -1L;
+
+        private final byte[] buf = new byte[1 << 16];
+        private int pos;
+        private int lim;
+        private InputStream in;
+
+        private byte[] line = new byte[256];
+        private int lenLine;
+
+        private IndiRecord indi;
+        private FamilyChartBuilderGed.FamRecord fam;
+        private String event;
+
+        private LineStream(final Charset charset, final boolean indexOnly) {
+            this.charset = charset;
+            this.indexOnly = indexOnly;
+        }
+
+        /*
+            Creates an index (without any INDI records added yet) for the file that was read.
+         */
+        private GedcomIndex index(final Path path, final long size, final long modified) {
+            final GedcomIndex index = new GedcomIndex(path, size, modified, this.charset, this.eol.orElse(new byte[] {'\n'}));
+            index.head(this.offsetHeadDate, this.lengthHeadDate, this.offsetAfterHeadDate, this.offsetHeadTime, this.lengthHeadTime, this.offsetEndOfHead);
+            return index;
+        }
+
+        private void read(final InputStream in) throws IOException {
+            this.in = in;
+            long offset = 0L;
+            if (this.charset.equals(StandardCharsets.UTF_8) && fill() && 3 <= this.lim && (this.buf[0] & 0xFF) == 0xEF) {
+                this.pos = 3;
+                offset = 3L;
+            }
+            while (true) {
+                final long lengthWithEol = nextLine();
+                if (lengthWithEol < 0L) {
+                    break;
+                }
+                ++this.lines;
+                line(offset, lengthWithEol);
+                offset += lengthWithEol;
+            }
+            endRecord(offset);
+        }
+
+        private boolean fill() throws IOException {
+            this.pos = 0;
+            this.lim = Math.max(0, this.in.read(this.buf));
+            return 0 < this.lim;
+        }
+
+        /*
+            Reads the next line into this.line, and returns its length
+            (including its line terminator), or -1 at end of file.
+         */
+        private long nextLine() throws IOException {
+            this.lenLine = 0;
+            long length = 0L;
+            while (true) {
+                if (this.pos >= this.lim && !fill()) {
+                    return length == 0L ? -1L : length;
+                }
+                final byte b = this.buf[this.pos++];
+                ++length;
+                if (b == '\n' || b == '\r') {
+                    final byte other = (byte)(b == '\n' ? '\r' : '\n');
+                    if ((this.pos < this.lim || fill()) && this.buf[this.pos] == other) {
+                        ++this.pos;
+                        ++length;
+                        if (this.eol.isEmpty()) {
+                            this.eol = Optional.of(new byte[] {b, other});
+                        }
+                    } else if (this.eol.isEmpty()) {
+                        this.eol = Optional.of(new byte[] {b});
+                    }
+                    return length;
+                }
+                if (this.lenLine == this.line.length) {
+                    this.line = Arrays.copyOf(this.line, this.lenLine * 2);
+                }
+                this.line[this.lenLine++] = b;
+            }
+        }
+
+        private void line(final long offset, final long lengthWithEol) {
+            int i = 0;
+            while (i < this.lenLine && isSpace(this.line[i])) {
+                ++i;
+            }
+            int level = 0;
+            final int iLevel = i;
+            while (i < this.lenLine && '0' <= this.line[i] && this.line[i] <= '9') {
+                level = level * 10 + (this.line[i++] - '0');
+            }
+            if (i == iLevel) {
+                return;
+            }
+            i = skipSpaces(i);
+
+            String xref = null;
+            if (i < this.lenLine && this.line[i] == '@') {
+                final int iXref = i;
+                ++i;
+                while (i < this.lenLine && this.line[i] != '@') {
+                    ++i;
+                }
+                xref = new String(this.line, iXref + 1, Math.max(0, i - iXref - 1), StandardCharsets.US_ASCII);
+                i = skipSpaces(i + 1);
+            }
+
+            final int iTag = i;
+            while (i < this.lenLine && !isSpace(this.line[i])) {
+                ++i;
+            }
+            final String tag = new String(this.line, iTag, i - iTag, StandardCharsets.US_ASCII);
+            final int iValue = (i < this.lenLine) ? i + 1 : i;
+
+            if (level == 0) {
+                endRecord(offset);
+                if (tag.equals("INDI") && Objects.nonNull(xref)) {
+                    this.indi = new IndiRecord(xref, offset);
+                } else if (tag.equals("FAM") && !this.indexOnly) {
+                    this.fam = new FamilyChartBuilderGed.FamRecord();
+                } else if (tag.equals("HEAD") && this.offsetEndOfHead < 0L) {
+                    this.head = true;
+                }
+                return;
+            }
+
+            if (this.head) {
+                if (level == 1) {
+                    this.headDate = tag.equals("DATE") && this.offsetHeadDate < 0L;
+                    if (this.headDate) {
+                        this.offsetHeadDate = offset;
+                        this.lengthHeadDate = this.lenLine;
+                        this.offsetAfterHeadDate = offset + lengthWithEol;
+                    }
+                } else if (level == 2 && this.headDate && tag.equals("TIME") && this.offsetHeadTime < 0L) {
+                    this.offsetHeadTime = offset;
+                    this.lengthHeadTime = this.lenLine;
+                }
+            } else if (Objects.nonNull(this.indi)) {
+                if (level == 1 && tag.equals("_XY")) {
+                    this.event = null;
+                    if (this.indi.offsetXy < 0L) {
+                        this.indi.xy = this.indexOnly ? null : value(iValue);
+                        this.indi.offsetXy = offset;
+                        this.indi.lengthXy = this.lenLine;
+                    }
+                } else if (this.indexOnly) {
+                    return;
+                } else if (level == 1) {
+                    this.event = null;
+                    switch (tag) {
+                        case "NAME" -> this.indi.name = Objects.isNull(this.indi.name) ? value(iValue) : this.indi.name;
+                        case "SEX" -> this.indi.sex = Objects.isNull(this.indi.sex) ? value(iValue) : this.indi.sex;
+                        case "BIRT" -> {
+                            if (Objects.isNull(this.indi.birt)) {
+                                this.indi.birt = "";
+                                this.event = tag;
+                            }
+                        }
+                        case "DEAT" -> {
+                            if (Objects.isNull(this.indi.deat)) {
+                                this.indi.deat = "";
+                                this.event = tag;
+                            }
+                        }
+                        default -> { }
+                    }
+                } else if (level == 2 && Objects.nonNull(this.event) && tag.equals("DATE")) {
+                    if (this.event.equals("BIRT")) {
+                        this.indi.birt = value(iValue);
+                    } else {
+                        this.indi.deat = value(iValue);
+                    }
+                    this.event = null;
+                }
+            } else if (Objects.nonNull(this.fam) && level == 1) {
+                switch (tag) {
+                    case "HUSB" -> this.fam.husb = pointer(iValue);
+                    case "WIFE" -> this.fam.wife = pointer(iValue);
+                    case "CHIL" -> this.fam.children.add(pointer(iValue));
+                    default -> { }
+                }
+            }
+        }
+
+        private void endRecord(final long offset) {
+            if (this.head) {
+                this.offsetEndOfHead = offset;
+                this.head = false;
+                this.headDate = false;
+            }
+            if (Objects.nonNull(this.indi)) {
+                this.indi.length = (int)(offset - this.indi.offset);
+                this.indis.add(this.indi);
+                this.indi = null;
+            }
+            if (Objects.nonNull(this.fam)) {
+                this.fams.add(this.fam);
+                this.fam = null;
+            }
+            this.event = null;
+        }
+
+        private String value(final int iValue) {
+            return new String(this.line, iValue, this.lenLine - iValue, this.charset).trim();
+        }
+
+        private String pointer(final int iValue) {
+            final String v = value(iValue);
+            if (2 <= v.length() && v.startsWith("@") && v.endsWith("@")) {
+                return v.substring(1, v.length() - 1);
+            }
+            return v;
+        }
+
+        private int skipSpaces(int i) {
+            while (i < this.lenLine && isSpace(this.line[i])) {
+                ++i;
+            }
+            return i;
+        }
+
+        private static boolean isSpace(final byte b) {
+            return b == ' ' || b == '\t';
+        }
+    }
+}
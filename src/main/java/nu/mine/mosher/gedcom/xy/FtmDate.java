@@ -2,207 +2,310 @@ package nu.mine.mosher.gedcom.xy;
 
 
 
-import org.slf4j.*;
-
-import java.math.BigInteger;
 import java.time.LocalDate;
 import java.time.temporal.JulianFields;
 import java.util.Objects;
-import java.util.regex.*;
 
 
 
+/*
+    FTM stores a date (in the Fact.Date column) as one packed integer, or as
+    two of them separated by a colon (for a range). Each packed integer is:
+
+        bit  31     unknown (any higher bit, too)
+        bits 9-30   Julian day number
+        bits 0-8    flags: before, after, (about = before and after), -, -,
+                    dual-year, no-year, no-month, no-day, calculated
+
+    The static methods here decode packed dates directly, without any regex,
+    BigInteger, or LocalDate (except for isRecent).
+ */
 public class FtmDate implements Comparable<FtmDate> {
-    private static final Logger LOG =  LoggerFactory.getLogger(FtmDate.class);
-    private static final FlaggedDate FD_UNKNOWN = new FlaggedDate(0x80000011);
+    private static final long FD_UNKNOWN = flagged(0x80000011);
 
-    private final FlaggedDate earliest;
-    private final FlaggedDate latest;
+    private static final int F_BEFORE = 1;
+    private static final int F_AFTER = 1 << 1;
+    private static final int F_NO_YEAR = 1 << 5;
+    private static final int F_NO_MONTH = 1 << 6;
+
+    private final long earliest;
+    private final long latest;
     private final String other;
 
-    public static final FtmDate UNKNOWN = new FtmDate(FD_UNKNOWN, FD_UNKNOWN);
+    public static final FtmDate UNKNOWN = new FtmDate(FD_UNKNOWN, FD_UNKNOWN, "");
 
-    private FtmDate(final long d1, final long d2, final String other) {
-        FlaggedDate fd1 = new FlaggedDate(d1);
-        FlaggedDate fd2 = new FlaggedDate(d2);
+    private FtmDate(final long earliest, final long latest, final String other) {
+        this.earliest = earliest;
+        this.latest = latest;
+        this.other = other;
+    }
 
-        // doctor up "after/before" flags into earliest/latest dates
-        if (fd1.equals(fd2) && !fd1.about) {
-            if (fd1.after) {
-                fd2 = FD_UNKNOWN;
-            } else if (fd1.before) {
-                fd2 = fd1;
-                fd1 = FD_UNKNOWN;
-            }
-        }
+    @Override
+    public String toString() {
+        return appendLabel(this.earliest, this.latest, new StringBuilder(8)).toString();
+    }
 
-        this.earliest = fd1;
-        this.latest = fd2;
-        this.other = other;
+    public long ym() {
+        return ym(this.earliest, this.latest);
     }
 
-    private FtmDate(FlaggedDate fd1, FlaggedDate fd2) {
-        this.earliest = fd1;
-        this.latest = fd2;
-        this.other = "";
+    public static FtmDate fromFtmFactDate(final String d) {
+        if (Objects.isNull(d)) {
+            return UNKNOWN;
+        }
+        final Decoder decoder = new Decoder().decode(d);
+        return new FtmDate(decoder.earliest, decoder.latest, decoder.numeric ? "" : d);
     }
 
     @Override
-    public String toString() {
-        if (this.earliest.unknown() && this.latest.unknown()) {
-            return "?";
+    // not consistent with equals
+    public int compareTo(FtmDate that) {
+        return Long.compare(julianDay(this.earliest), julianDay(that.earliest));
+    }
+
+    public boolean isRecent() {
+        return isRecent(this.latest) || isRecent(this.earliest);
+    }
+
+    public boolean unknown() {
+        return unknown(this.earliest) && unknown(this.latest);
+    }
+
+
+
+    /**
+     * Reusable decoder for FTM Fact.Date values ("d" or "d1:d2").
+     * One decode gives both the display label and the sort key.
+     * Not thread-safe.
+     */
+    public static final class Decoder {
+        private long earliest = FD_UNKNOWN;
+        private long latest = FD_UNKNOWN;
+        private boolean numeric;
+
+        public Decoder decode(final String d) {
+            this.numeric = false;
+            if (Objects.isNull(d)) {
+                set(FD_UNKNOWN, FD_UNKNOWN);
+                return this;
+            }
+            final int len = d.length();
+            final int colon = d.indexOf(':');
+            if (colon < 0 && isDigits(d, 0, len)) {
+                final long date = Long.parseLong(d, 0, len, 10);
+                set(date, date);
+                this.numeric = true;
+            } else if (0 <= colon && isDigits(d, 0, colon) && isDigits(d, colon + 1, len)) {
+                set(Long.parseLong(d, 0, colon, 10), Long.parseLong(d, colon + 1, len, 10));
+                this.numeric = true;
+            } else {
+                set(0L, 0L);
+            }
+            return this;
         }
 
-        if (this.earliest.unknown()) {
-            return "?"+this.latest.asSimpleYear();
+        public boolean unknown() {
+            return FtmDate.unknown(this.earliest) && FtmDate.unknown(this.latest);
         }
-        if (this.latest.unknown()) {
-            return this.earliest.asSimpleYear()+"?";
+
+        public long ym() {
+            return FtmDate.ym(this.earliest, this.latest);
         }
 
-        if (!this.earliest.equals(this.latest)) {
-            return ""+(this.earliest.asSimpleYear()+this.latest.asSimpleYear())/2+"?";
+        public StringBuilder appendLabel(final StringBuilder sb) {
+            return FtmDate.appendLabel(this.earliest, this.latest, sb);
         }
 
-        return ""+this.earliest.asSimpleYear()+(this.earliest.about() ? "?" : "");
-    }
+        private void set(final long d1, final long d2) {
+            long fd1 = flagged(d1);
+            long fd2 = flagged(d2);
+
+            // doctor up "after/before" flags into earliest/latest dates
+            if (fd1 == fd2 && !about(fd1)) {
+                if (after(fd1)) {
+                    fd2 = FD_UNKNOWN;
+                } else if (before(fd1)) {
+                    fd2 = fd1;
+                    fd1 = FD_UNKNOWN;
+                }
+            }
 
-    public long ym() {
-        if (this.earliest.unknown() && this.latest.unknown()) {
-            return 0L;
+            this.earliest = fd1;
+            this.latest = fd2;
         }
 
-        if (this.earliest.unknown()) {
-            return this.latest.asSimpleYM();
-        }
-        if (this.latest.unknown()) {
-            return this.earliest.asSimpleYM();
+        private static boolean isDigits(final String s, final int begin, final int end) {
+            if (end <= begin) {
+                return false;
+            }
+            for (int i = begin; i < end; ++i) {
+                final char c = s.charAt(i);
+                if (c < '0' || '9' < c) {
+                    return false;
+                }
+            }
+            return true;
         }
+    }
+
 
-        if (!this.earliest.equals(this.latest)) {
-            return (this.earliest.asSimpleYM()+this.latest.asSimpleYM())/2L;
-        }
 
-        return this.earliest.asSimpleYM();
+    /**
+     * Normalizes a packed date, so that two dates are equal if and only if
+     * their flags, unknown-ness, and Julian day number are all equal.
+     */
+    private static long flagged(final long n) {
+        return (Integer.MAX_VALUE & n) | (unknownBits(n) ? 1L << 31 : 0L);
     }
 
-    private static final Pattern ONE_DATE = Pattern.compile("^(\\d+)$");
-    private static final Pattern TWO_DATES = Pattern.compile("^(\\d+):(\\d+)$");
+    private static boolean unknownBits(final long n) {
+        return (Integer.MIN_VALUE & n) != 0;
+    }
 
-    public static FtmDate fromFtmFactDate(final String d) {
-        if (Objects.isNull(d)) {
-            return UNKNOWN;
+    public static boolean unknown(final long packed) {
+        return unknownBits(packed);
+    }
+
+    public static long julianDay(final long packed) {
+        return (Integer.MAX_VALUE & packed) >> 9;
+    }
+
+    public static boolean before(final long packed) {
+        return (packed & F_BEFORE) != 0;
+    }
+
+    public static boolean after(final long packed) {
+        return (packed & F_AFTER) != 0;
+    }
+
+    public static boolean about(final long packed) {
+        return before(packed) && after(packed);
+    }
+
+    public static boolean noYear(final long packed) {
+        return (packed & F_NO_YEAR) != 0;
+    }
+
+    public static boolean noMonth(final long packed) {
+        return (packed & F_NO_MONTH) != 0;
+    }
+
+    /**
+     * @return year, or 0 if unknown; years BC are negative (1 BC is -1)
+     */
+    public static int simpleYear(final long packed) {
+        if (unknown(packed) || noYear(packed)) {
+            return 0;
         }
-        Matcher m;
-        if ((m = ONE_DATE.matcher(d)).matches()) {
-            final long date = Long.parseLong(m.group(1), 10);
-            return new FtmDate(date, date, "");
-        } else if ((m = TWO_DATES.matcher(d)).matches()) {
-            final long date1 = Long.parseLong(m.group(1), 10);
-            final long date2 = Long.parseLong(m.group(2), 10);
-            return new FtmDate(date1, date2, "");
-        } else {
-            return new FtmDate(0, 0, d);
+        final int year = yearMonthOf(julianDay(packed)) >> 4;
+        if (year < 0) {
+            return year-1;
         }
+        return year;
     }
 
-    @Override
-    // not consistent with equals
-    public int compareTo(FtmDate that) {
-        return this.earliest.compareTo(that.earliest);
+    /**
+     * @return month (1-12) of the date, ignoring any flags
+     */
+    public static int month(final long packed) {
+        return yearMonthOf(julianDay(packed)) & 0xF;
     }
 
-    public boolean isRecent() {
-        return this.latest.isRecent() || this.earliest.isRecent();
+    public static long simpleYM(final long packed) {
+        final long y = simpleYear(packed);
+        if (y == 0) {
+            return 0;
+        }
+        return y*100L+(noMonth(packed) ? 6L : month(packed));
     }
 
-    public boolean unknown() {
-        return this.earliest.unknown() && this.latest.unknown();
-    }
-
-    private static class FlaggedDate implements Comparable<FlaggedDate> {
-        private final long flags;
-        private final boolean unknown;
-        private final long d;
-        private final LocalDate ld;
-        private final boolean before;
-        private final boolean after;
-        private final boolean about;
-        private final boolean dualYear;
-        private final boolean noYear;
-        private final boolean noMonth;
-        private final boolean noDay;
-        private final boolean calculated;
-
-        private FlaggedDate(final long n) {
-            this.flags = n & 0x1FF;
-            this.unknown = (Integer.MIN_VALUE & n) != 0;
-            this.d = (Integer.MAX_VALUE & n) >> 9;
-
-            this.ld = LocalDate.MIN.with(JulianFields.JULIAN_DAY, this.d);
-            final BigInteger f = BigInteger.valueOf(this.flags);
-            this.before = f.testBit(0);
-            this.after = f.testBit(1);
-            this.about = this.before && this.after;
-            this.dualYear = f.testBit(4);
-            this.noYear = f.testBit(5);
-            this.noMonth = f.testBit(6);
-            this.noDay = f.testBit(7);
-            this.calculated = f.testBit(8);
+    private static long ym(final long earliest, final long latest) {
+        if (unknown(earliest) && unknown(latest)) {
+            return 0L;
         }
 
-        public boolean unknown() {
-            return this.unknown;
+        if (unknown(earliest)) {
+            return simpleYM(latest);
+        }
+        if (unknown(latest)) {
+            return simpleYM(earliest);
         }
 
-        public boolean about() {
-            return this.about;
+        if (earliest != latest) {
+            return (simpleYM(earliest)+simpleYM(latest))/2L;
         }
 
-        public int asSimpleYear() {
-            if (this.unknown || this.noYear) {
-                return 0;
-            }
-            int year = this.ld.getYear();
-            if (year < 0) {
-                return year-1;
-            }
-            return year;
+        return simpleYM(earliest);
+    }
+
+    private static StringBuilder appendLabel(final long earliest, final long latest, final StringBuilder sb) {
+        if (unknown(earliest) && unknown(latest)) {
+            return sb.append('?');
         }
 
-        public long asSimpleYM() {
-            final long y = asSimpleYear();
-            if (y == 0) {
-                return 0;
-            }
-            return y*100L+(this.noMonth ? 6L : this.ld.getMonthValue());
+        if (unknown(earliest)) {
+            return sb.append('?').append(simpleYear(latest));
+        }
+        if (unknown(latest)) {
+            return sb.append(simpleYear(earliest)).append('?');
         }
 
-        @Override
-        // not consistent with equals
-        public int compareTo(final FlaggedDate o) {
-            return Long.compare(this.d, o.d);
+        if (earliest != latest) {
+            return sb.append((simpleYear(earliest)+simpleYear(latest))/2).append('?');
         }
 
-        @Override
-        public boolean equals(Object o) {
-            if (Objects.isNull(o) || !(o instanceof FlaggedDate)) {
-                return false;
-            }
-            final FlaggedDate that = (FlaggedDate)o;
-            return this.flags == that.flags && this.unknown == that.unknown && this.d == that.d;
+        sb.append(simpleYear(earliest));
+        if (about(earliest)) {
+            sb.append('?');
         }
+        return sb;
+    }
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(this.flags, this.unknown, this.d);
+    private static final long DAYS_PER_CYCLE = 146097L;
+    private static final long DAYS_0000_TO_1970 = (DAYS_PER_CYCLE * 5L) - (30L * 365L + 7L);
+    private static final long JULIAN_DAY_OF_EPOCH = 2440588L;
+
+    /*
+        Proleptic ISO year and month of a Julian day number,
+        as (year << 4 | month). Same algorithm as LocalDate.ofEpochDay.
+     */
+    private static int yearMonthOf(final long julianDay) {
+        long zeroDay = julianDay - JULIAN_DAY_OF_EPOCH + DAYS_0000_TO_1970;
+        // find the march-based year
+        zeroDay -= 60;  // adjust to 0000-03-01 so leap day is at end of four year cycle
+        long adjust = 0;
+        if (zeroDay < 0) {
+            // adjust negative years to positive for calculation
+            final long adjustCycles = (zeroDay + 1) / DAYS_PER_CYCLE - 1;
+            adjust = adjustCycles * 400;
+            zeroDay += -adjustCycles * DAYS_PER_CYCLE;
+        }
+        long yearEst = (400 * zeroDay + 591) / DAYS_PER_CYCLE;
+        long doyEst = zeroDay - (365 * yearEst + yearEst / 4 - yearEst / 100 + yearEst / 400);
+        if (doyEst < 0) {
+            // fix estimate
+            yearEst--;
+            doyEst = zeroDay - (365 * yearEst + yearEst / 4 - yearEst / 100 + yearEst / 400);
         }
+        yearEst += adjust;  // reset any negative year
+        final int marchDoy0 = (int)doyEst;
+
+        // convert march-based values back to january-based
+        final int marchMonth0 = (marchDoy0 * 5 + 2) / 153;
+        final int month = (marchMonth0 + 2) % 12 + 1;
+        yearEst += marchMonth0 / 10;
+
+        return ((int)yearEst << 4) | month;
+    }
 
-        // TODO parameterize years for recency?
-        // TODO implement privatization based on database columns in tables:
-        // Person, Relationship, ChildRelationship, Fact, Note, MediaLink, MediaFile
-        public boolean isRecent() {
-            return  !this.unknown && LocalDate.now().minusYears(110).compareTo(this.ld) < 0;
+    // TODO parameterize years for recency?
+    // TODO implement privatization based on database columns in tables:
+    // Person, Relationship, ChildRelationship, Fact, Note, MediaLink, MediaFile
+    private static boolean isRecent(final long packed) {
+        if (unknown(packed)) {
+            return false;
         }
+        final LocalDate ld = LocalDate.MIN.with(JulianFields.JULIAN_DAY, julianDay(packed));
+        return LocalDate.now().minusYears(110).compareTo(ld) < 0;
     }
 }
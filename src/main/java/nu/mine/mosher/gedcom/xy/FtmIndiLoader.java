@@ -0,0 +1,263 @@
+package nu.mine.mosher.gedcom.xy;
+
+import nu.mine.mosher.gedcom.xy.util.PhaseReport;
+import org.slf4j.*;
+
+import java.sql.*;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Reads individuals from an FTM database using a few set-based scans,
+ * instead of the per-person correlated subqueries in Indi.sql.
+ * The rows are joined in memory, by Person.ID, and produce the same
+ * {@link Indi} objects as the legacy query.
+ */
+class FtmIndiLoader {
+    private static final Logger LOG = LoggerFactory.getLogger(FtmIndiLoader.class);
+
+    private static final int LINK_TABLE_PERSON = 5;
+
+    /*
+        Largest set of person IDs that will be put into the SQL statements
+        as an IN list; larger sets are just filtered in memory.
+     */
+    private static final int MAX_IN_LIST = 10000;
+
+    private final Set<Long> idsName = new HashSet<>();
+    private final Set<Long> idsSex = new HashSet<>();
+    private final Set<Long> idsBirth = new HashSet<>();
+    private final Set<Long> idsDeath = new HashSet<>();
+    private final Set<Long> idsXy = new HashSet<>();
+
+    private final Map<Long, PersonRow> persons = new LinkedHashMap<>();
+
+    private final FamilyChartBuilderFtm.IndiFactory factory = new FamilyChartBuilderFtm.IndiFactory();
+
+    private final Optional<Set<Long>> only;
+    private final Set<Long> except;
+
+    private static class PersonRow {
+        private final List<String[]> xys = new ArrayList<>(1);
+        private boolean hasName;
+        private String name;
+        private boolean hasSex;
+        private int sex;
+        private boolean hasBirth;
+        private String birth;
+        private boolean hasBirthplace;
+        private String birthplace;
+        private boolean hasDeath;
+        private String death;
+        private String anyplace;
+    }
+
+    private FtmIndiLoader(final Optional<Set<Long>> only, final Set<Long> except) {
+        this.only = only;
+        this.except = except;
+    }
+
+    public static List<Indi> load(final Connection conn, final PhaseReport.Phase parent) throws SQLException {
+        return new FtmIndiLoader(Optional.empty(), Set.of()).read(conn, parent);
+    }
+
+    /**
+     * Loads only the given persons.
+     */
+    public static List<Indi> loadOnly(final Connection conn, final PhaseReport.Phase parent, final Set<Long> ids) throws SQLException {
+        return new FtmIndiLoader(Optional.of(ids), Set.of()).read(conn, parent);
+    }
+
+    /**
+     * Loads all persons except the given ones.
+     */
+    public static List<Indi> loadExcept(final Connection conn, final PhaseReport.Phase parent, final Set<Long> ids) throws SQLException {
+        return new FtmIndiLoader(Optional.empty(), ids).read(conn, parent);
+    }
+
+    private List<Indi> read(final Connection conn, final PhaseReport.Phase parent) throws SQLException {
+        try (final PhaseReport.Phase phase = parent.begin("SQL person scans")) {
+            readFactTypes(conn);
+            readPersons(conn, phase);
+            readFacts(conn, phase);
+            readAnyPlaces(conn, phase);
+            phase.items(this.persons.size());
+        }
+
+        final List<Indi> indis = new ArrayList<>(this.persons.size());
+        try (final PhaseReport.Phase phase = parent.begin("Indi build")) {
+            for (final Map.Entry<Long, PersonRow> e : this.persons.entrySet()) {
+                phase.checkCancelled();
+                final String pkidPerson = Long.toString(e.getKey());
+                final PersonRow p = e.getValue();
+                if (p.xys.isEmpty()) {
+                    indis.add(build(pkidPerson, null, null, p));
+                } else {
+                    // mimic the legacy outer join: one row per preferred _XY fact
+                    for (final String[] xy : p.xys) {
+                        indis.add(build(pkidPerson, xy[0], xy[1], p));
+                    }
+                }
+            }
+            phase.items(indis.size());
+        }
+        this.factory.logStatistics();
+        return indis;
+    }
+
+    private Indi build(final String pkidPerson, final String pkidFact, final String xy, final PersonRow p) {
+        return this.factory.build(pkidPerson, pkidFact, xy, p.name, p.sex, p.birth, p.death, p.birthplace, p.anyplace);
+    }
+
+    private void readFactTypes(final Connection conn) throws SQLException {
+        try (final PreparedStatement select = conn.prepareStatement("SELECT ID, Name, Abbreviation FROM FactType")) {
+            try (final ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    final long id = rs.getLong("ID");
+                    final String name = rs.getString("Name");
+                    if ("Name".equals(name)) {
+                        this.idsName.add(id);
+                    } else if ("Sex".equals(name)) {
+                        this.idsSex.add(id);
+                    } else if ("Birth".equals(name)) {
+                        this.idsBirth.add(id);
+                    } else if ("Death".equals(name)) {
+                        this.idsDeath.add(id);
+                    }
+                    if ("_XY".equals(rs.getString("Abbreviation"))) {
+                        this.idsXy.add(id);
+                    }
+                }
+            }
+        }
+        LOG.debug("FactType IDs: Name={}, Sex={}, Birth={}, Death={}, _XY={}", this.idsName, this.idsSex, this.idsBirth, this.idsDeath, this.idsXy);
+    }
+
+    private void readPersons(final Connection conn, final PhaseReport.Phase phase) throws SQLException {
+        final String sql = "SELECT ID FROM Person WHERE 1 = 1" + restrictTo("ID") + " ORDER BY ID";
+        try (final PreparedStatement select = conn.prepareStatement(sql)) {
+            try (final ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    phase.checkCancelled();
+                    final long id = rs.getLong("ID");
+                    if (wanted(id)) {
+                        this.persons.put(id, new PersonRow());
+                    }
+                }
+            }
+        }
+    }
+
+    private void readFacts(final Connection conn, final PhaseReport.Phase phase) throws SQLException {
+        final Set<Long> ids = new TreeSet<>();
+        ids.addAll(this.idsName);
+        ids.addAll(this.idsSex);
+        ids.addAll(this.idsBirth);
+        ids.addAll(this.idsDeath);
+        ids.addAll(this.idsXy);
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        final String sql =
+            "SELECT F.ID, F.LinkID, F.FactTypeID, F.Text, F.Date, P.ID AS PlaceID, P.Name AS PlaceName " +
+            "FROM Fact AS F LEFT OUTER JOIN Place AS P ON (P.ID = F.PlaceID) " +
+            "WHERE F.LinkTableID = " + LINK_TABLE_PERSON + " AND F.Preferred = 1 AND F.FactTypeID IN (" + inList(ids) + ")" + restrictTo("F.LinkID") + " " +
+            "ORDER BY F.ID";
+
+        try (final PreparedStatement select = conn.prepareStatement(sql)) {
+            try (final ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    phase.checkCancelled();
+                    final PersonRow p = this.persons.get(rs.getLong("LinkID"));
+                    if (Objects.isNull(p)) {
+                        continue;
+                    }
+                    final long type = rs.getLong("FactTypeID");
+                    // the first fact (by ID) of each type wins, as with the legacy "LIMIT 1"
+                    if (this.idsXy.contains(type)) {
+                        p.xys.add(new String[] {rs.getString("ID"), rs.getString("Text")});
+                    }
+                    if (this.idsName.contains(type) && !p.hasName) {
+                        p.hasName = true;
+                        p.name = rs.getString("Text");
+                    }
+                    if (this.idsSex.contains(type) && !p.hasSex) {
+                        p.hasSex = true;
+                        p.sex = rs.getInt("Text");
+                    }
+                    if (this.idsBirth.contains(type)) {
+                        if (!p.hasBirth) {
+                            p.hasBirth = true;
+                            p.birth = rs.getString("Date");
+                        }
+                        if (!p.hasBirthplace && Objects.nonNull(rs.getObject("PlaceID"))) {
+                            p.hasBirthplace = true;
+                            p.birthplace = rs.getString("PlaceName");
+                        }
+                    }
+                    if (this.idsDeath.contains(type) && !p.hasDeath) {
+                        p.hasDeath = true;
+                        p.death = rs.getString("Date");
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+        Earliest dated place of any of the person's own facts, or of any
+        fact of a relationship the person is in. SQLite returns the bare
+        column (Name) from the row that has the MIN(Date).
+     */
+    private String sqlAnyPlace() {
+        return
+        "SELECT PersonID, MIN(Date) AS Date, Name FROM (" +
+            "SELECT F.LinkID AS PersonID, F.Date, P.Name FROM Fact AS F INNER JOIN Place AS P ON (P.ID = F.PlaceID) " +
+            "WHERE F.LinkTableID = 5 AND F.Date IS NOT NULL" + restrictTo("F.LinkID") + " " +
+            "UNION ALL " +
+            "SELECT R.Person1ID AS PersonID, F.Date, P.Name FROM Relationship AS R " +
+            "INNER JOIN Fact AS F ON (F.LinkID = R.ID AND F.LinkTableID = 7) INNER JOIN Place AS P ON (P.ID = F.PlaceID) " +
+            "WHERE F.Date IS NOT NULL" + restrictTo("R.Person1ID") + " " +
+            "UNION ALL " +
+            "SELECT R.Person2ID AS PersonID, F.Date, P.Name FROM Relationship AS R " +
+            "INNER JOIN Fact AS F ON (F.LinkID = R.ID AND F.LinkTableID = 7) INNER JOIN Place AS P ON (P.ID = F.PlaceID) " +
+            "WHERE F.Date IS NOT NULL" + restrictTo("R.Person2ID") +
+        ") GROUP BY PersonID";
+    }
+
+    private void readAnyPlaces(final Connection conn, final PhaseReport.Phase phase) throws SQLException {
+        try (final PreparedStatement select = conn.prepareStatement(sqlAnyPlace())) {
+            try (final ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    phase.checkCancelled();
+                    final PersonRow p = this.persons.get(rs.getLong("PersonID"));
+                    if (Objects.nonNull(p)) {
+                        p.anyplace = rs.getString("Name");
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean wanted(final long id) {
+        return this.only.map(ids -> ids.contains(id)).orElse(true) && !this.except.contains(id);
+    }
+
+    /*
+        When loading only a few persons, let SQLite skip the rest.
+     */
+    private String restrictTo(final String column) {
+        if (this.only.isEmpty() || MAX_IN_LIST < this.only.get().size()) {
+            return "";
+        }
+        if (this.only.get().isEmpty()) {
+            return " AND 0 = 1";
+        }
+        return " AND " + column + " IN (" + inList(this.only.get()) + ")";
+    }
+
+    private static String inList(final Set<Long> ids) {
+        return ids.stream().map(Object::toString).collect(Collectors.joining(","));
+    }
+}
@@ -0,0 +1,84 @@
+package nu.mine.mosher.gedcom.xy;
+
+import nu.mine.mosher.gedcom.date.*;
+import nu.mine.mosher.gedcom.date.parser.GedcomDateValueParser;
+import org.slf4j.*;
+
+import java.io.StringReader;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Parses GEDCOM DATE values, each distinct value only once, and keeps only what the chart
+ * needs from it: the (approximate) start year and month, packed into one long.
+ * Real files repeat the same few thousand values ("ABT 1850", "1900") over and over.
+ * One cache is used for one file; it is thread-safe.
+ */
+final class GedcomDateCache {
+    private static final Logger LOG = LoggerFactory.getLogger(GedcomDateCache.class);
+
+    /*
+        Packed values: (year << 4 | month), where month is 0-11 (as in Calendar),
+        or one of these:
+     */
+    /** not a date (missing, or could not be parsed) */
+    private static final long UNKNOWN = Long.MIN_VALUE;
+    /** a date, but with no usable year */
+    private static final long NO_YEAR = Long.MIN_VALUE + 1L;
+
+    private final ConcurrentHashMap<String, Long> map = new ConcurrentHashMap<>();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    public long get(final String date) {
+        if (Objects.isNull(date) || date.isEmpty()) {
+            return UNKNOWN;
+        }
+        this.lookups.increment();
+        return this.map.computeIfAbsent(date, this::parse);
+    }
+
+    private long parse(final String date) {
+        final DatePeriod period;
+        try {
+            period = new GedcomDateValueParser(new StringReader(date)).parse();
+        } catch (final Exception e) {
+            this.failures.increment();
+            LOG.debug("Cannot parse DATE={}: {}", date, e.toString());
+            return UNKNOWN;
+        }
+        if (period.equals(DatePeriod.UNKNOWN)) {
+            return UNKNOWN;
+        }
+        final YMD ymd = period.getStartDate().getApproxDay();
+        if (ymd.asDate().getTime() == 0) {
+            return NO_YEAR;
+        }
+        return ((long)ymd.getYear() << 4) | Math.max(0, ymd.getMonth() - 1);
+    }
+
+    public static boolean unknown(final long packed) {
+        return packed == UNKNOWN;
+    }
+
+    public static boolean hasYear(final long packed) {
+        return packed != UNKNOWN && packed != NO_YEAR;
+    }
+
+    public static int year(final long packed) {
+        return (int)(packed >> 4);
+    }
+
+    /**
+     * @return month, 0-11
+     */
+    public static int month(final long packed) {
+        return (int)(packed & 0xF);
+    }
+
+    public void logStatistics() {
+        final long n = this.lookups.sum();
+        LOG.info("GEDCOM date cache: {} lookups, {} distinct values, {} could not be parsed.", n, this.map.size(), this.failures.sum());
+    }
+}
@@ -0,0 +1,193 @@
+package nu.mine.mosher.gedcom.xy;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Where each INDI record, and its (first) _XY line, is in a GEDCOM file, as byte offsets and lengths
+ * (and where the HEAD's DATE and TIME lines are). Kept instead of the whole tree by a view-only open,
+ * so that coordinates can be saved by patching the original file (see {@link GedcomPatcher}).
+ * Stored in arrays, so it stays small even for millions of records.
+ */
+final class GedcomIndex {
+    private final Path path;
+    private final long size;
+    private final long modified;
+    private final Charset charset;
+    private final byte[] eol;
+
+    private long offsetHeadDate = -1L;
+    private int lengthHeadDate;
+    private long offsetAfterHeadDate = -1L;
+    private long offsetHeadTime = -1L;
+    private int lengthHeadTime;
+    private long offsetEndOfHead = -1L;
+
+    private final Map<String, Integer> rows = new HashMap<>();
+    private boolean duplicates;
+    private int count;
+    private String[] ids = new String[1024];
+    private long[] offsetRecord = new long[1024];
+    private int[] lengthRecord = new int[1024];
+    private long[] offsetXy = new long[1024];
+    private int[] lengthXy = new int[1024];
+
+    GedcomIndex(final Path path, final long size, final long modified, final Charset charset, final byte[] eol) {
+        this.path = path;
+        this.size = size;
+        this.modified = modified;
+        this.charset = charset;
+        this.eol = eol;
+    }
+
+    /**
+     * Offsets are -1 for lines that are not in the file. Lengths do not include line terminators.
+     * @param offsetAfterHeadDate offset of the line following the DATE line (which is where a new TIME line would go)
+     * @param offsetEndOfHead offset of the end of the HEAD record (which is where a new DATE line would go)
+     */
+    void head(final long offsetHeadDate, final int lengthHeadDate, final long offsetAfterHeadDate, final long offsetHeadTime, final int lengthHeadTime, final long offsetEndOfHead) {
+        this.offsetHeadDate = offsetHeadDate;
+        this.lengthHeadDate = lengthHeadDate;
+        this.offsetAfterHeadDate = offsetAfterHeadDate;
+        this.offsetHeadTime = offsetHeadTime;
+        this.lengthHeadTime = lengthHeadTime;
+        this.offsetEndOfHead = offsetEndOfHead;
+    }
+
+    /**
+     * Records must be added in the order they are in the file.
+     * @param lengthXy length of the _XY line (without its line terminator), or -1 if the record has none
+     */
+    void add(final String id, final long offsetRecord, final int lengthRecord, final long offsetXy, final int lengthXy) {
+        final int row = this.count++;
+        if (this.offsetRecord.length <= row) {
+            final int n = row * 2;
+            this.ids = Arrays.copyOf(this.ids, n);
+            this.offsetRecord = Arrays.copyOf(this.offsetRecord, n);
+            this.lengthRecord = Arrays.copyOf(this.lengthRecord, n);
+            this.offsetXy = Arrays.copyOf(this.offsetXy, n);
+            this.lengthXy = Arrays.copyOf(this.lengthXy, n);
+        }
+        this.ids[row] = id;
+        this.offsetRecord[row] = offsetRecord;
+        this.lengthRecord[row] = lengthRecord;
+        this.offsetXy[row] = offsetXy;
+        this.lengthXy[row] = lengthXy;
+        if (Objects.nonNull(this.rows.putIfAbsent(id, row))) {
+            this.duplicates = true;
+        }
+    }
+
+    public int size() {
+        return this.count;
+    }
+
+    public Charset charset() {
+        return this.charset;
+    }
+
+    /**
+     * @return line terminator used by the file
+     */
+    public byte[] eol() {
+        return this.eol.clone();
+    }
+
+    public Path path() {
+        return this.path;
+    }
+
+    public long offsetHeadDate() {
+        return this.offsetHeadDate;
+    }
+
+    public int lengthHeadDate() {
+        return this.lengthHeadDate;
+    }
+
+    public long offsetAfterHeadDate() {
+        return this.offsetAfterHeadDate;
+    }
+
+    public long offsetHeadTime() {
+        return this.offsetHeadTime;
+    }
+
+    public int lengthHeadTime() {
+        return this.lengthHeadTime;
+    }
+
+    public long offsetEndOfHead() {
+        return this.offsetEndOfHead;
+    }
+
+    /**
+     * @return true if the file has not been changed since it was indexed
+     */
+    public boolean current() throws IOException {
+        return Files.size(this.path) == this.size && Files.getLastModifiedTime(this.path).toMillis() == this.modified;
+    }
+
+    /**
+     * @return true if more than one INDI record has the same ID (only the first of them can be looked up)
+     */
+    public boolean duplicateIds() {
+        return this.duplicates;
+    }
+
+    public boolean has(final String id) {
+        return this.rows.containsKey(id);
+    }
+
+    /**
+     * @return offset of the end of the INDI record (which is where a new _XY line would go)
+     */
+    public long endOfRecord(final String id) {
+        final int row = this.rows.get(id);
+        return this.offsetRecord[row] + this.lengthRecord[row];
+    }
+
+    public boolean hasXy(final String id) {
+        return 0 <= this.lengthXy[this.rows.get(id)];
+    }
+
+    public long offsetXy(final String id) {
+        return this.offsetXy[this.rows.get(id)];
+    }
+
+    public int lengthXy(final String id) {
+        return this.lengthXy[this.rows.get(id)];
+    }
+
+
+
+    /*
+        Access by row (0 to size()-1), in file order:
+     */
+
+    String idAt(final int row) {
+        return this.ids[row];
+    }
+
+    boolean first(final int row) {
+        return this.rows.get(this.ids[row]) == row;
+    }
+
+    long offsetRecordAt(final int row) {
+        return this.offsetRecord[row];
+    }
+
+    int lengthRecordAt(final int row) {
+        return this.lengthRecord[row];
+    }
+
+    long offsetXyAt(final int row) {
+        return this.offsetXy[row];
+    }
+
+    int lengthXyAt(final int row) {
+        return this.lengthXy[row];
+    }
+}
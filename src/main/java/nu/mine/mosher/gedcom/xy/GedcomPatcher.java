@@ -0,0 +1,273 @@
+package nu.mine.mosher.gedcom.xy;
+
+import org.slf4j.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/**
+ * Saves _XY coordinates into a GEDCOM file by patching the bytes of the original file,
+ * instead of writing out the whole tree. Unchanged ranges are copied as they are
+ * (with {@link FileChannel#transferTo}), and only the new or replaced _XY lines, and
+ * the HEAD's DATE and TIME lines, are spliced in; the rest of the output is byte-identical
+ * to the input. The output is written to a temporary file, which is then renamed.
+ */
+final class GedcomPatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(GedcomPatcher.class);
+
+    private static final DateTimeFormatter FORMAT_DATE = DateTimeFormatter.ofPattern("d MMM yyyy", Locale.US);
+    private static final DateTimeFormatter FORMAT_TIME = DateTimeFormatter.ofPattern("HH:mm:ss", Locale.US);
+
+    private GedcomPatcher() {
+        throw new IllegalStateException("not intended to be instantiated");
+    }
+
+    /*
+        Replaces the bytes [offset, offset+removed) of the original file with the given bytes.
+        The first line of the inserted bytes (lengthLine long, without its line terminator)
+        is the one that the new index needs to know about.
+     */
+    private static final class Edit {
+        private final long offset;
+        private final int removed;
+        private final byte[] inserted;
+        private final int lengthLine;
+
+        private Edit(final long offset, final int removed, final byte[] inserted, final int lengthLine) {
+            this.offset = offset;
+            this.removed = removed;
+            this.inserted = inserted;
+            this.lengthLine = lengthLine;
+        }
+
+        private long delta() {
+            return this.inserted.length - this.removed;
+        }
+    }
+
+    /**
+     * Writes the coordinates of the given individuals into a copy of the indexed file.
+     * The caller must make sure the indexed file has not changed since it was indexed,
+     * and that no two of its INDI records have the same ID.
+     * @param index index of the original file
+     * @param indis individuals whose coordinates to write
+     * @param target file to write (can be the original file)
+     * @return index of the written file
+     */
+    public static GedcomIndex save(final GedcomIndex index, final List<Indi> indis, final Path target) throws IOException {
+        final byte[] eol = index.eol();
+
+        if (index.duplicateIds()) {
+            throw new IOException("GEDCOM file has more than one INDI record with the same ID; cannot patch it: "+index.path());
+        }
+        final Map<String, Edit> mapIdToEdit = new HashMap<>(indis.size() * 4 / 3 + 1);
+        final List<Edit> edits = new ArrayList<>(indis.size() + 2);
+        for (final Indi indi : indis) {
+            if (mapIdToEdit.containsKey(indi.getId())) {
+                throw new IOException("More than one individual has the same ID; cannot patch the GEDCOM file: "+indi.getId());
+            }
+            if (!index.has(indi.getId())) {
+                throw new IOException("GEDCOM file has changed since it was opened; cannot find individual "+indi.getId());
+            }
+            final Edit edit = editXy(index, indi, eol);
+            mapIdToEdit.put(indi.getId(), edit);
+            edits.add(edit);
+        }
+        final Head head = editHead(index, eol, edits);
+        edits.sort(Comparator.comparingLong(e -> e.offset));
+
+        final Path dir = target.toAbsolutePath().getParent();
+        final Path temp = Files.createTempFile(dir, target.getFileName().toString()+".", ".tmp");
+        try {
+            write(index.path(), edits, temp);
+            // the temporary file was created private to the user, so give it the permissions of the file it replaces
+            copyPermissions(Files.exists(target) ? target : index.path(), temp);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final Throwable e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        LOG.info("Patched {} _XY lines from {} into {}.", indis.size(), index.path(), target);
+
+        return rebase(index, edits, mapIdToEdit, head, target);
+    }
+
+    private static void copyPermissions(final Path from, final Path to) throws IOException {
+        final PosixFileAttributeView view = Files.getFileAttributeView(from, PosixFileAttributeView.class);
+        if (Objects.isNull(view)) {
+            return;
+        }
+        Files.setPosixFilePermissions(to, view.readAttributes().permissions());
+    }
+
+    private static Edit editXy(final GedcomIndex index, final Indi indi, final byte[] eol) {
+        final String id = indi.getId();
+        final byte[] line = ("1 _XY "+Coords.toValueXY(indi.coords())).getBytes(index.charset());
+        if (!index.hasXy(id)) {
+            return new Edit(index.endOfRecord(id), 0, concat(line, eol), line.length);
+        }
+        if (indi.hadOriginalXY()) {
+            return new Edit(index.offsetXy(id), index.lengthXy(id), line, line.length);
+        }
+        // There is an _XY line, but it had an invalid format (as in Indi.saveXyToTree):
+        // leave it intact, and mask it with a new _XY line before it.
+        return new Edit(index.offsetXy(id), 0, concat(line, eol), line.length);
+    }
+
+    /*
+        The edits for the HEAD, as done by GedcomTree.timestamp: replace (or add)
+        the DATE line, and replace (or add) the TIME line under it.
+     */
+    private static final class Head {
+        private Edit date;
+        private Edit time;
+        private int lengthDate;
+        private int lengthTime;
+    }
+
+    private static Head editHead(final GedcomIndex index, final byte[] eol, final List<Edit> edits) {
+        final Head head = new Head();
+        final LocalDateTime now = LocalDateTime.now();
+        final byte[] date = ("1 DATE "+FORMAT_DATE.format(now).toUpperCase(Locale.US)).getBytes(index.charset());
+        final byte[] time = ("2 TIME "+FORMAT_TIME.format(now)).getBytes(index.charset());
+        head.lengthDate = date.length;
+        head.lengthTime = time.length;
+
+        if (0L <= index.offsetHeadDate()) {
+            head.date = new Edit(index.offsetHeadDate(), index.lengthHeadDate(), date, date.length);
+            if (0L <= index.offsetHeadTime()) {
+                head.time = new Edit(index.offsetHeadTime(), index.lengthHeadTime(), time, time.length);
+            } else {
+                head.time = new Edit(index.offsetAfterHeadDate(), 0, concat(time, eol), time.length);
+            }
+            edits.add(head.date);
+            edits.add(head.time);
+        } else if (0L <= index.offsetEndOfHead()) {
+            head.date = new Edit(index.offsetEndOfHead(), 0, concat(concat(date, eol), concat(time, eol)), date.length);
+            edits.add(head.date);
+        } else {
+            LOG.warn("GEDCOM file has no HEAD record; it will not be timestamped.");
+        }
+        return head;
+    }
+
+    private static void write(final Path source, final List<Edit> edits, final Path temp) throws IOException {
+        try (final FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             final FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long pos = 0L;
+            for (final Edit edit : edits) {
+                copy(in, pos, edit.offset, out);
+                final ByteBuffer buf = ByteBuffer.wrap(edit.inserted);
+                while (buf.hasRemaining()) {
+                    out.write(buf);
+                }
+                pos = edit.offset + edit.removed;
+            }
+            copy(in, pos, in.size(), out);
+            out.force(true);
+        }
+    }
+
+    private static void copy(final FileChannel in, final long from, final long to, final FileChannel out) throws IOException {
+        long pos = from;
+        while (pos < to) {
+            final long n = in.transferTo(pos, to - pos, out);
+            if (n <= 0L) {
+                throw new IOException("GEDCOM file was truncated while it was being saved.");
+            }
+            pos += n;
+        }
+    }
+
+    /*
+        Moves each offset of the original index to where it ended up in the written file.
+     */
+    private static GedcomIndex rebase(final GedcomIndex index, final List<Edit> edits, final Map<String, Edit> mapIdToEdit, final Head head, final Path target) throws IOException {
+        final Shift shift = new Shift(edits);
+        final GedcomIndex rebased = new GedcomIndex(target, Files.size(target), Files.getLastModifiedTime(target).toMillis(), index.charset(), index.eol());
+
+        final int cEol = index.eol().length;
+        if (Objects.isNull(head.date)) {
+            rebased.head(-1L, 0, -1L, -1L, 0, shift.after(index.offsetEndOfHead()));
+        } else {
+            final long date = shift.at(head.date.offset);
+            final long time = Objects.nonNull(head.time) ? shift.at(head.time.offset) : date + head.lengthDate + cEol;
+            rebased.head(date, head.lengthDate, date + head.lengthDate + cEol, time, head.lengthTime, shift.after(index.offsetEndOfHead()));
+        }
+
+        for (int row = 0; row < index.size(); ++row) {
+            final String id = index.idAt(row);
+            final long start = shift.after(index.offsetRecordAt(row));
+            final long end = shift.after(index.offsetRecordAt(row) + index.lengthRecordAt(row));
+            final Edit edit = index.first(row) ? mapIdToEdit.get(id) : null;
+            if (Objects.nonNull(edit)) {
+                rebased.add(id, start, (int)(end - start), shift.at(edit.offset), edit.lengthLine);
+            } else if (0 <= index.lengthXyAt(row)) {
+                rebased.add(id, start, (int)(end - start), shift.at(index.offsetXyAt(row)), index.lengthXyAt(row));
+            } else {
+                rebased.add(id, start, (int)(end - start), -1L, -1);
+            }
+        }
+        return rebased;
+    }
+
+    /*
+        Maps offsets in the original file to offsets in the written file.
+     */
+    private static final class Shift {
+        private final long[] offsets;
+        private final long[] before;
+
+        private Shift(final List<Edit> sorted) {
+            this.offsets = new long[sorted.size()];
+            this.before = new long[sorted.size() + 1];
+            for (int i = 0; i < sorted.size(); ++i) {
+                this.offsets[i] = sorted.get(i).offset;
+                this.before[i + 1] = this.before[i] + sorted.get(i).delta();
+            }
+        }
+
+        /**
+         * @return where the bytes written by an edit at the given offset start
+         */
+        private long at(final long offset) {
+            return offset + this.before[count(offset, false)];
+        }
+
+        /**
+         * @return where the original byte at the given offset ended up (after anything inserted there)
+         */
+        private long after(final long offset) {
+            return offset + this.before[count(offset, true)];
+        }
+
+        /*
+            Number of edits before the given offset (or at it, if inclusive).
+         */
+        private int count(final long offset, final boolean inclusive) {
+            int lo = 0;
+            int hi = this.offsets.length;
+            while (lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (this.offsets[mid] < offset || (inclusive && this.offsets[mid] == offset)) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    private static byte[] concat(final byte[] a, final byte[] b) {
+        final byte[] c = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+}
@@ -30,18 +30,19 @@ public final class GenXyEditor {
 
     private static Logger LOG;
     private static volatile Thread threadEventsAwt;
-    private static volatile String arg0 = "";
+    private static volatile Options options;
 
     public static void main(final String... args) {
+        if (0 < args.length && args[0].equals("--export")) {
+            GenXyExport.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         try {
             initLogging();
 
             LOG.info("version: {}", VERSION);
 
-            // TODO: handle args better
-            if (0 < args.length) {
-                arg0 = args[0];
-            }
+            options = Options.parse(args);
 
 //            logFonts();
 
@@ -69,7 +70,7 @@ public final class GenXyEditor {
         }
     }
 
-    private static void initLogging() {
+    static void initLogging() {
         LogbackConfigurator.testSubsystem();
         final LoggerContext ctx = (LoggerContext)LoggerFactory.getILoggerFactory();
         ctx.getLogger("sun.awt.X11").setLevel(Level.WARN);
@@ -135,8 +136,7 @@ public final class GenXyEditor {
 
         // TODO allow multiple open documents
         // TODO remove specialized Open handling (just make it File/Open menu item)
-        final boolean destroy = Objects.nonNull(GenXyEditor.arg0) && arg0.equals("--destroy-layout");
-        final Optional<FamilyChart> chart = cmd.openFile(destroy);
+        final Optional<FamilyChart> chart = cmd.openFile(options);
         if (chart.isEmpty()) {
             cmd.quitApp();
             return;
@@ -152,19 +152,20 @@ public final class GenXyEditor {
             }
         });
 
+        cmd.setRendererHandler(options.canvas(), canvas -> Platform.runLater(() -> fxPanel.setScene(new Scene(buildGui(chart.get(), canvas)))));
         frame.setMenuBar(cmd.buildMenuBar(chart.get()));
 
         frame.setTitle("Genealogy XY Editor - " + chart.get().originalFile().get().getAbsolutePath());
         frame.add(fxPanel);
         frame.setVisible(true);
 
-        Platform.runLater(() -> fxPanel.setScene(new Scene(buildGui(chart.get()))));
+        Platform.runLater(() -> fxPanel.setScene(new Scene(buildGui(chart.get(), options.canvas()))));
     }
 
 
     private static final String CLASS_DRIVER_JDBC = "org.sqlite.JDBC";
 
-    private static void initJdbc() throws ClassNotFoundException, SQLException {
+    static void initJdbc() throws ClassNotFoundException, SQLException {
         LOG.debug("loading JDBC driver: {}...", CLASS_DRIVER_JDBC);
         LOG.info("successfully loaded JDBC driver class: {}", Class.forName(CLASS_DRIVER_JDBC).getCanonicalName());
 
@@ -194,17 +195,56 @@ public final class GenXyEditor {
         }
     }
 
-    private static Parent buildGui(final FamilyChart chart) {
+    /**
+     * @param canvas true to draw the chart on a {@link ChartCanvas}, false to build nodes for it
+     */
+    private static Parent buildGui(final FamilyChart chart, final boolean canvas) {
         if (!Platform.isFxApplicationThread()) {
             throw new IllegalStateException();
         }
 
+        final Region workspace = canvas ? new ChartCanvas(chart) : buildNodeView(chart);
+        chart.readRemainder();
+
+        final HBox statusbar = buildStatusBar(chart);
+
+
+        final BorderPane root = new BorderPane();
+        root.setCenter(workspace);
+        root.setBottom(statusbar);
+
+        return root;
+    }
+
+    private static Region buildNodeView(final FamilyChart chart) {
+        chart.buildGraphics();
+
         final Pane canvas = new Pane();
         canvas.setBackground(new Background(new BackgroundFill(chart.metrics().colors().bg(), CornerRadii.EMPTY, Insets.EMPTY)));
 
         chart.addGraphicsTo(canvas.getChildren());
 
         final ZoomPane workspace = new ZoomPane(canvas);
+
+        // connector lines are not bound to the plaques; they catch up once per pulse
+        final Runnable geometry = chart::updateGeometry;
+        canvas.sceneProperty().addListener((prop, was, is) -> {
+            if (Objects.nonNull(was)) {
+                was.removePreLayoutPulseListener(geometry);
+            }
+            if (Objects.nonNull(is)) {
+                is.addPreLayoutPulseListener(geometry);
+            }
+        });
+
+        final FrameTimes frames = new FrameTimes();
+        chart.detail().set(LevelOfDetail.of(chart.metrics(), workspace.scaleProperty().get()));
+        workspace.scaleProperty().addListener((prop, was, is) -> {
+            chart.detail().set(LevelOfDetail.of(chart.metrics(), is.doubleValue()));
+            frames.activity(chart.detail().get().name());
+        });
+        canvas.addEventFilter(MouseEvent.MOUSE_DRAGGED, t -> frames.activity(chart.detail().get().name()));
+
         workspace.setOnMouseClicked(t -> {
             if (t.isStillSincePress()) {
                 chart.clearSelection();
@@ -266,25 +306,22 @@ public final class GenXyEditor {
             }
         });
 
-
-        final HBox statusbar = buildStatusBar(chart);
-
-
-        final BorderPane root = new BorderPane();
-        root.setCenter(workspace);
-        root.setBottom(statusbar);
-
-        return root;
+        return workspace;
     }
 
     private static HBox buildStatusBar(FamilyChart chart) {
         final Text statusName = new Text();
         statusName.textProperty().bind(chart.selectedName());
 
+        final Text statusLoad = new Text();
+        statusLoad.textProperty().bind(chart.loadStatus());
+
         final Text statusVersion = new Text(VERSION);
 
         final Region ws = new Region();
         HBox.setHgrow(ws, Priority.ALWAYS);
-        return new HBox(statusName, ws, statusVersion);
+        final Region ws2 = new Region();
+        HBox.setHgrow(ws2, Priority.ALWAYS);
+        return new HBox(statusName, ws, statusLoad, ws2, statusVersion);
     }
 }
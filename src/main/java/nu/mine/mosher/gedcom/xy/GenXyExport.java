@@ -0,0 +1,135 @@
+package nu.mine.mosher.gedcom.xy;
+
+import nu.mine.mosher.gedcom.xy.util.PhaseReport;
+import org.slf4j.*;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Headless export of charts to PDF and SVG, without the GUI (and without any JavaFX scene).
+ * <pre>
+ * GenXyEditor --export [--destroy-layout] [--no-snapshot] [--sequential] [--view-only] [--pdf[=FILE]] [--svg[=FILE]] INPUT...
+ * </pre>
+ * By default, both a PDF and an SVG file are written next to each input file.
+ * Explicit output files can only be given for a single input file.
+ * Prints the time each file takes to standard output.
+ */
+public final class GenXyExport {
+    private static final Logger LOG = LoggerFactory.getLogger(GenXyExport.class);
+
+    private GenXyExport() {
+        throw new IllegalStateException("not intended to be instantiated");
+    }
+
+    private static final class Output {
+        private boolean wanted;
+        private Optional<File> file = Optional.empty();
+    }
+
+    public static void main(final String... args) {
+        System.setProperty("java.awt.headless", "true");
+        GenXyEditor.initLogging();
+
+        final Output pdf = new Output();
+        final Output svg = new Output();
+        final List<File> inputs = new ArrayList<>();
+        final List<String> rest = new ArrayList<>();
+        for (final String arg : args) {
+            if (arg.equals("--pdf") || arg.startsWith("--pdf=")) {
+                parseOutput(arg, pdf);
+            } else if (arg.equals("--svg") || arg.startsWith("--svg=")) {
+                parseOutput(arg, svg);
+            } else if (arg.startsWith("--")) {
+                rest.add(arg);
+            } else {
+                inputs.add(new File(arg));
+            }
+        }
+        if (!pdf.wanted && !svg.wanted) {
+            pdf.wanted = true;
+            svg.wanted = true;
+        }
+        if (inputs.isEmpty()) {
+            usage("no input files given");
+            return;
+        }
+        if (1 < inputs.size() && (pdf.file.isPresent() || svg.file.isPresent())) {
+            usage("output files can only be given for a single input file");
+            return;
+        }
+
+        final Options options = Options.parse(rest.toArray(new String[0]));
+
+        try {
+            GenXyEditor.initJdbc();
+        } catch (final Throwable e) {
+            LOG.error("Cannot load JDBC driver; FTM files cannot be exported.", e);
+        }
+
+        int failures = 0;
+        for (final File input : inputs) {
+            try {
+                export(input, options, pdf.wanted ? Optional.of(pdf.file.orElse(sibling(input, ".pdf"))) : Optional.empty(), svg.wanted ? Optional.of(svg.file.orElse(sibling(input, ".svg"))) : Optional.empty());
+            } catch (final Throwable e) {
+                ++failures;
+                LOG.error("Error exporting file: {}", input, e);
+                System.err.printf("%s: FAILED: %s%n", input, e);
+            }
+        }
+
+        if (0 < failures) {
+            System.exit(1);
+        }
+    }
+
+    private static void export(final File input, final Options options, final Optional<File> pdf, final Optional<File> svg) throws Exception {
+        final long t0 = System.nanoTime();
+
+        final FamilyChart chart;
+        final PhaseReport report = new PhaseReport("export", input);
+        try {
+            chart = CommandHandler.readChart(input, options, Optional.empty(), report);
+            chart.setFromOrigHeadless(report);
+        } finally {
+            report.finish();
+        }
+        final long t1 = System.nanoTime();
+
+        if (pdf.isPresent()) {
+            chart.savePdf(pdf.get());
+        }
+        final long t2 = System.nanoTime();
+
+        if (svg.isPresent()) {
+            chart.saveSvg(svg.get());
+        }
+        final long t3 = System.nanoTime();
+
+        System.out.printf("%s: %d individuals, %d families; read %d ms, PDF %d ms, SVG %d ms, total %d ms%n",
+            input, chart.indis().size(), chart.famis().size(), ms(t1 - t0), ms(t2 - t1), ms(t3 - t2), ms(t3 - t0));
+    }
+
+    private static void parseOutput(final String arg, final Output output) {
+        output.wanted = true;
+        final int eq = arg.indexOf('=');
+        if (0 <= eq) {
+            output.file = Optional.of(new File(arg.substring(eq + 1)));
+        }
+    }
+
+    private static File sibling(final File input, final String extension) {
+        final String name = input.getName().replaceFirst("(?i)\\.(ged|ftm)$", "") + extension;
+        return new File(input.getAbsoluteFile().getParentFile(), name);
+    }
+
+    private static long ms(final long nanos) {
+        return nanos / 1_000_000L;
+    }
+
+    private static void usage(final String problem) {
+        System.err.println("error: " + problem);
+        System.err.println("usage: GenXyEditor --export [--destroy-layout] [--no-snapshot] [--sequential] [--view-only] [--pdf[=FILE]] [--svg[=FILE]] INPUT...");
+        System.exit(2);
+    }
+}
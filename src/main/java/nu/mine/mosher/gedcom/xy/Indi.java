@@ -2,6 +2,7 @@ package nu.mine.mosher.gedcom.xy;
 
 import javafx.beans.binding.*;
 import javafx.beans.property.*;
+import javafx.beans.value.ObservableObjectValue;
 import javafx.event.Event;
 import javafx.geometry.*;
 import javafx.scene.*;
@@ -27,7 +28,7 @@ public class Indi {
     private final String nameSur;
 
     private Metrics metrics;
-    private final TreeNode<GedcomLine> node;
+    private TreeNode<GedcomLine> node;
     private final String id;
     private String idCoords;
     private final Coords coords;
@@ -36,11 +37,17 @@ public class Indi {
     private final String lifespan;
     private final String tagline;
 
-    private final StackPane plaque = new StackPane();
+    // position in the chart model (which holds the plaque's size, and the selected and dirty flags)
+    private ChartModel model;
+    private int idx = -1;
+
+    // built only for display, by calc
+    private StackPane plaque;
+    private BooleanProperty selected;
 
     private boolean wasSelected = false;
-    private final BooleanProperty selected = new SimpleBooleanProperty(this, "selected", false);
     private FamilyChart.Selection selection;
+    private ObservableObjectValue<LevelOfDetail> detail;
 
 
     public int getSex() {
@@ -56,7 +63,24 @@ public class Indi {
     }
 
     public void select(final boolean select) {
-        this.selected.setValue(select);
+        this.model.selected(this.idx, select);
+        if (Objects.nonNull(this.selected)) {
+            this.selected.setValue(select);
+        }
+    }
+
+    void attach(final ChartModel model, final int idx) {
+        this.model = model;
+        this.idx = idx;
+        model.label(idx, buildLabel());
+        this.coords.attach(model, idx);
+    }
+
+    /**
+     * @return index of this individual in the chart model
+     */
+    public int index() {
+        return this.idx;
     }
 
 
@@ -77,7 +101,7 @@ public class Indi {
 
     private static final Pattern PAT_NAME = Pattern.compile("(.*)/([^/]*?)/([^/]*?)");
 
-    private static String parseNameSur(String name) {
+    static String parseNameSur(String name) {
         final Matcher matcher = PAT_NAME.matcher(name);
         if (!matcher.matches()) {
             return "";
@@ -86,7 +110,7 @@ public class Indi {
         return matcher.group(2).trim();
     }
 
-    private static String parseNameGiven(String name) {
+    static String parseNameGiven(String name) {
         final Matcher matcher = PAT_NAME.matcher(name);
         if (!matcher.matches()) {
             return name.trim();
@@ -105,8 +129,24 @@ public class Indi {
         return n1.trim()+" ~ "+n2.trim();
     }
 
+    /**
+     * Measures the plaque, without building it. This is all that is
+     * needed for exporting, and does not need the JavaFX toolkit.
+     */
+    public void measure() {
+        final String label = this.model.label(this.idx);
+        Dimension2D text = this.metrics.measure(label, 0D);
+        if (text.getWidth() > this.metrics.getWidthMax()) {
+            text = this.metrics.measure(label, this.metrics.getWidthMax());
+        }
+        final double inset = this.metrics.getFontSize() / 2.0D;
+        this.model.size(this.idx, text.getWidth() + inset * 2.0D, text.getHeight() + inset * 2.0D);
+    }
+
     public void calc() {
         final ColorScheme colors = this.metrics.colors();
+        this.plaque = new StackPane();
+        this.selected = new SimpleBooleanProperty(this, "selected", selected());
 
         final Text textshape = new Text();
         final ObjectBinding<Color> fillBinding = new ObjectBinding<>()
@@ -122,25 +162,54 @@ public class Indi {
             }
         };
         textshape.fillProperty().bind(fillBinding);
+        textshape.visibleProperty().bind(Bindings.equal(this.detail, LevelOfDetail.FULL));
         textshape.setFont(this.metrics.getFont());
         textshape.setTextAlignment(TextAlignment.CENTER);
-        textshape.setText(buildLabel());
-        new Scene(new Group(textshape));
-        textshape.applyCss();
-        if (textshape.getLayoutBounds().getWidth() > this.metrics.getWidthMax()) {
+        final String label = this.model.label(this.idx);
+        textshape.setText(label);
+        // the plaque was already measured (see measure), so this just looks up whether it wraps
+        if (this.metrics.measure(label, 0D).getWidth() > this.metrics.getWidthMax()) {
             textshape.setWrappingWidth(this.metrics.getWidthMax());
         }
         final double inset = this.metrics.getFontSize() / 2.0D;
-        final double w = textshape.getLayoutBounds().getWidth() + inset * 2.0D;
-        final double h = textshape.getLayoutBounds().getHeight() + inset * 2.0D;
+        final double w = width();
+        final double h = height();
 
         final Background bgNormal = new Background(new BackgroundFill(colors.indiBg(), CORNERS, Insets.EMPTY));
         final Background bgSelected = new Background(new BackgroundFill(colors.indiSelBg(), CORNERS, Insets.EMPTY));
-        this.plaque.backgroundProperty().bind(Bindings.when(selected).then(bgSelected).otherwise(bgNormal));
+        final Background bgDot = new Background(new BackgroundFill(colors.indiBorder(), CornerRadii.EMPTY, Insets.EMPTY));
+        final Background bgDotDirty = new Background(new BackgroundFill(colors.indiBorderDirty(), CornerRadii.EMPTY, Insets.EMPTY));
+        final Background bgDotSelected = new Background(new BackgroundFill(colors.indiSelBg(), CornerRadii.EMPTY, Insets.EMPTY));
+        final BooleanProperty dirty = this.coords.propertyDirty();
+        this.plaque.backgroundProperty().bind(new ObjectBinding<>() {
+            {
+                super.bind(selected, dirty, detail);
+            }
+
+            @Override
+            protected Background computeValue() {
+                if (detail.get() == LevelOfDetail.DOTS) {
+                    return selected.get() ? bgDotSelected : dirty.get() ? bgDotDirty : bgDot;
+                }
+                return selected.get() ? bgSelected : bgNormal;
+            }
+        });
 
         final Border borderNormal = new Border(new BorderStroke(colors.indiBorder(), BorderStrokeStyle.SOLID, CORNERS, BorderWidths.DEFAULT));
         final Border borderDirty = new Border(new BorderStroke(colors.indiBorderDirty(), BorderStrokeStyle.SOLID, CORNERS, BorderWidths.DEFAULT));
-        this.plaque.borderProperty().bind(Bindings.when(this.coords.propertyDirty()).then(borderDirty).otherwise(borderNormal));
+        this.plaque.borderProperty().bind(new ObjectBinding<>() {
+            {
+                super.bind(dirty, detail);
+            }
+
+            @Override
+            protected Border computeValue() {
+                if (detail.get() == LevelOfDetail.DOTS) {
+                    return Border.EMPTY;
+                }
+                return dirty.get() ? borderDirty : borderNormal;
+            }
+        });
 
         StackPane.setMargin(textshape, new Insets(inset));
         this.plaque.getChildren().addAll(textshape);
@@ -167,7 +236,7 @@ public class Indi {
             t.consume();
         });
         this.plaque.setOnMouseDragged(t -> {
-            selection.drag(new Point2D(t.getX(), t.getY()));
+            selection.dragOnPulse(new Point2D(t.getX(), t.getY()));
             t.consume();
         });
         this.plaque.setOnMouseReleased(t -> {
@@ -185,6 +254,10 @@ public class Indi {
         this.coords.dragTo(snap(this.coords.xyUser().add(delta)));
     }
 
+    public void moveTo(final Point2D at) {
+        this.coords.dragTo(at);
+    }
+
     private Point2D snap(final Point2D p) {
         return new Point2D(snap(p.getX()), snap(p.getY()));
     }
@@ -236,8 +309,12 @@ public class Indi {
         this.selection = selection;
     }
 
+    public void setDetail(final ObservableObjectValue<LevelOfDetail> detail) {
+        this.detail = detail;
+    }
+
     public boolean intersects(double x, double y, double w, double h) {
-        return this.plaque.getBoundsInParent().intersects(x,y,w,h);
+        return this.model.intersects(this.idx, x, y, w, h);
     }
 
     private boolean near(double a, double b) {
@@ -256,6 +333,10 @@ public class Indi {
         return this.node;
     }
 
+    void attachNode(final TreeNode<GedcomLine> node) {
+        this.node = node;
+    }
+
     public void layOut(final Point2D at) {
         this.coords.layOut(at);
     }
@@ -338,7 +419,7 @@ public class Indi {
                 ? ""
                 : ("("+this.lifespan+")");
 
-        final Bounds bounds = this.plaque.getBoundsInParent();
+        final Bounds bounds = bounds();
         builder.addPerson(bounds, this.nameGiven, this.nameSur, dates, this.tagline, this.id);
     }
 
@@ -348,7 +429,7 @@ public class Indi {
                 ? ""
                 : ("("+this.lifespan+")");
 
-        final Bounds bounds = this.plaque.getBoundsInParent();
+        final Bounds bounds = bounds();
         svg.addPerson(bounds, this.nameGiven, this.nameSur, dates, this.tagline, this.id);
     }
 
@@ -373,6 +454,18 @@ public class Indi {
         this.coords.save();
     }
 
+    /**
+     * After this individual's _XY line has been written by patching the file (see {@link GedcomPatcher}),
+     * keeps the tree (if it has been read) up to date, and marks the coordinates as saved.
+     */
+    void savedXyPatched() {
+        if (Objects.nonNull(this.node)) {
+            saveXyToTree();
+        } else {
+            this.coords.save();
+        }
+    }
+
     private static Optional<TreeNode<GedcomLine>> findChild(final TreeNode<GedcomLine> parent, final String tag) {
         for (final TreeNode<GedcomLine> child : parent) {
             if (child.getObject().getTagString().equals(tag)) {
@@ -409,23 +502,33 @@ public class Indi {
     }
 
     public boolean selected() {
-        return this.selected.get();
+        return Objects.nonNull(this.model) && this.model.selected(this.idx);
     }
 
     public double width() {
-        return this.plaque.getWidth();
+        return this.model.width(this.idx);
     }
 
     public double height() {
-        return this.plaque.getHeight();
+        return this.model.height(this.idx);
     }
 
     public Bounds bounds() {
-        return this.plaque.getBoundsInParent();
+        return this.model.bounds(this.idx);
     }
 
     public String getTagline()
     {
         return this.tagline;
     }
+
+    public String getLifespan()
+    {
+        return this.lifespan;
+    }
+
+    public String getIdCoords()
+    {
+        return this.idCoords;
+    }
 }
@@ -0,0 +1,799 @@
+/*
+    Copyright © 2000–2020, Christopher Alan Mosher, Shelton, Connecticut, USA, <cmosher01@gmail.com>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package nu.mine.mosher.gedcom.xy;
+
+import org.slf4j.*;
+
+import java.util.*;
+
+/**
+ * The {@link Layout} algorithm, for one island (connected group) of individuals.
+ * Relationships are kept as compressed adjacency arrays of int indexes (one
+ * run of entries per individual or family), so the layout of even a very large
+ * tree is a handful of passes over primitive arrays.
+ * The resulting positions are left in this object, for the caller to place.
+ */
+final class IslandLayout {
+    private static final Logger LOG = LoggerFactory.getLogger(IslandLayout.class);
+
+    private static final double MAX_LEVEL = Layout.MAX_LEVEL;
+    private static final double GEN_HEIGHT = Layout.GEN_HEIGHT;
+    private static final double MAX_WIDTH = Layout.MAX_WIDTH;
+    private static final double DX_FAMILY = Layout.DX_FAMILY;
+
+    private final List<Indi> indis;
+
+    /* individuals, by index into indis */
+    private final int cIndi;
+    private final int[] sex; // 0=unknown, 1=male, 2=female
+    private final int[] father; // or -1
+    private final int[] mother; // or -1
+    private final int[] childToFamily; // or -1
+    /* spouses of individual i are spouse[spouseStart[i]] to spouse[spouseStart[i+1]-1]; likewise for children and families */
+    private final int[] spouseStart;
+    private final int[] spouse;
+    private final int[] childStart;
+    private final int[] child;
+    private final int[] spouseToFamilyStart;
+    private final int[] spouseToFamily;
+
+    /* children of family f are famChild[famChildStart[f]] to famChild[famChildStart[f+1]-1]; famChildByBirth has them sorted */
+    private final int[] famChildStart;
+    private final int[] famChild;
+    private final int[] famChildByBirth;
+
+    private final double[] x;
+    private final double[] y;
+    private final int[] level;
+    private final int[] maxMale;
+    private final int[] house; // or -1
+    private final Marks mark;
+
+    /* scratch space, reused */
+    private final Ints queue = new Ints();
+    private final Ints queueLevel = new Ints();
+    private final Ints group = new Ints();
+    private final Ints groupTodo = new Ints();
+    private final Marks grouped;
+    private final Ints leftSpouses = new Ints();
+    private final Ints rightSpouses = new Ints();
+    private final Marks inLeft;
+    private final Marks inRight;
+
+    IslandLayout(final List<Indi> indis, final List<Fami> famis) {
+        this.indis = indis;
+        this.cIndi = indis.size();
+        final int cFami = famis.size();
+
+        final Map<Indi, Integer> index = new IdentityHashMap<>(this.cIndi);
+        for (int i = 0; i < this.cIndi; ++i) {
+            index.put(indis.get(i), i);
+        }
+
+        this.sex = new int[this.cIndi];
+        for (int i = 0; i < this.cIndi; ++i) {
+            this.sex[i] = indis.get(i).getSex();
+        }
+        this.father = filled(this.cIndi, -1);
+        this.mother = filled(this.cIndi, -1);
+        this.childToFamily = filled(this.cIndi, -1);
+
+        final int[] husb = new int[cFami];
+        final int[] wife = new int[cFami];
+        this.spouseStart = new int[this.cIndi + 1];
+        this.childStart = new int[this.cIndi + 1];
+        this.spouseToFamilyStart = new int[this.cIndi + 1];
+        this.famChildStart = new int[cFami + 1];
+
+        // count each individual's relationships (into the following start position), ...
+        for (int f = 0; f < cFami; ++f) {
+            final Fami fami = famis.get(f);
+            husb[f] = fami.getHusb().map(index::get).orElse(-1);
+            wife[f] = fami.getWife().map(index::get).orElse(-1);
+            countSpouse(husb[f], wife[f]);
+            countSpouse(wife[f], husb[f]);
+            final int cChild = fami.getChildren().size();
+            this.famChildStart[f + 1] = this.famChildStart[f] + cChild;
+            if (0 <= husb[f]) {
+                this.childStart[husb[f] + 1] += cChild;
+            }
+            if (0 <= wife[f]) {
+                this.childStart[wife[f] + 1] += cChild;
+            }
+        }
+        accumulate(this.spouseStart);
+        accumulate(this.childStart);
+        accumulate(this.spouseToFamilyStart);
+
+        // ... then fill them in, in the same order
+        this.spouse = new int[this.spouseStart[this.cIndi]];
+        this.child = new int[this.childStart[this.cIndi]];
+        this.spouseToFamily = new int[this.spouseToFamilyStart[this.cIndi]];
+        this.famChild = new int[this.famChildStart[cFami]];
+        final int[] atSpouse = Arrays.copyOf(this.spouseStart, this.cIndi);
+        final int[] atChild = Arrays.copyOf(this.childStart, this.cIndi);
+        final int[] atSpouseToFamily = Arrays.copyOf(this.spouseToFamilyStart, this.cIndi);
+        for (int f = 0; f < cFami; ++f) {
+            final int h = husb[f];
+            final int w = wife[f];
+            if (0 <= h) {
+                this.spouseToFamily[atSpouseToFamily[h]++] = f;
+                if (0 <= w) {
+                    this.spouse[atSpouse[h]++] = w;
+                }
+            }
+            if (0 <= w) {
+                this.spouseToFamily[atSpouseToFamily[w]++] = f;
+                if (0 <= h) {
+                    this.spouse[atSpouse[w]++] = h;
+                }
+            }
+            int k = this.famChildStart[f];
+            for (final Indi indi : famis.get(f).getChildren()) {
+                final int c = index.get(indi);
+                this.childToFamily[c] = f;
+                this.famChild[k++] = c;
+                if (0 <= h) {
+                    this.child[atChild[h]++] = c;
+                    this.father[c] = h;
+                }
+                if (0 <= w) {
+                    this.child[atChild[w]++] = c;
+                    this.mother[c] = w;
+                }
+            }
+        }
+
+        final long[] birth = new long[this.cIndi];
+        for (int i = 0; i < this.cIndi; ++i) {
+            birth[i] = indis.get(i).getBirthForSort();
+        }
+        this.famChildByBirth = this.famChild.clone();
+        for (int f = 0; f < cFami; ++f) {
+            sort(this.famChildByBirth, this.famChildStart[f], this.famChildStart[f + 1], (a, b) -> Long.compare(birth[a], birth[b]));
+        }
+
+        this.x = new double[this.cIndi];
+        this.y = new double[this.cIndi];
+        this.level = new int[this.cIndi];
+        this.maxMale = new int[this.cIndi];
+        this.house = filled(this.cIndi, -1);
+        this.mark = new Marks(this.cIndi);
+        this.grouped = new Marks(this.cIndi);
+        this.inLeft = new Marks(this.cIndi);
+        this.inRight = new Marks(this.cIndi);
+    }
+
+    private void countSpouse(final int indi, final int spouse) {
+        if (0 <= indi) {
+            ++this.spouseToFamilyStart[indi + 1];
+            if (0 <= spouse) {
+                ++this.spouseStart[indi + 1];
+            }
+        }
+    }
+
+    private static void accumulate(final int[] start) {
+        for (int i = 1; i < start.length; ++i) {
+            start[i] += start[i - 1];
+        }
+    }
+
+    private static int[] filled(final int n, final int value) {
+        final int[] r = new int[n];
+        Arrays.fill(r, value);
+        return r;
+    }
+
+
+
+    /**
+     * A set of individuals that can be emptied in constant time: an individual
+     * is in the set if its stamp is the current generation.
+     */
+    private static final class Marks {
+        private final int[] stamp;
+        private int generation = 1;
+
+        private Marks(final int n) {
+            this.stamp = new int[n];
+        }
+
+        void clear() {
+            if (++this.generation == Integer.MAX_VALUE) {
+                Arrays.fill(this.stamp, 0);
+                this.generation = 1;
+            }
+        }
+
+        boolean has(final int i) {
+            return this.stamp[i] == this.generation;
+        }
+
+        void add(final int i) {
+            this.stamp[i] = this.generation;
+        }
+    }
+
+    /**
+     * A growable list of ints (also used as a queue, by index).
+     */
+    private static final class Ints {
+        private int[] items = new int[16];
+        private int size;
+
+        void add(final int i) {
+            if (this.items.length <= this.size) {
+                this.items = Arrays.copyOf(this.items, this.size * 2);
+            }
+            this.items[this.size++] = i;
+        }
+
+        int get(final int k) {
+            return this.items[k];
+        }
+
+        int size() {
+            return this.size;
+        }
+
+        void clear() {
+            this.size = 0;
+        }
+    }
+
+    @FunctionalInterface
+    private interface IntComparator {
+        int compare(int a, int b);
+    }
+
+    /**
+     * Sorts a[from] to a[to-1], stably (as List.sort does).
+     */
+    private static void sort(final int[] a, final int from, final int to, final IntComparator cmp) {
+        if (to - from <= 16) {
+            for (int i = from + 1; i < to; ++i) {
+                final int v = a[i];
+                int j = i - 1;
+                while (from <= j && 0 < cmp.compare(a[j], v)) {
+                    a[j + 1] = a[j];
+                    --j;
+                }
+                a[j + 1] = v;
+            }
+            return;
+        }
+        final int mid = (from + to) >>> 1;
+        sort(a, from, mid, cmp);
+        sort(a, mid, to, cmp);
+        if (cmp.compare(a[mid - 1], a[mid]) <= 0) {
+            return;
+        }
+        final int[] left = Arrays.copyOfRange(a, from, mid);
+        int i = 0;
+        int j = mid;
+        int k = from;
+        while (i < left.length && j < to) {
+            a[k++] = cmp.compare(a[j], left[i]) < 0 ? a[j++] : left[i++];
+        }
+        while (i < left.length) {
+            a[k++] = left[i++];
+        }
+    }
+
+
+
+    private void setLevel(final int i, final int lev) {
+        this.level[i] = lev;
+
+        // position along y axis
+        this.y[i] = (MAX_LEVEL - lev) * GEN_HEIGHT;
+    }
+
+    private void setIslandLevels(final int indi, final int lev) {
+        this.queue.clear();
+        this.queueLevel.clear();
+        enqueue(indi, lev);
+
+        for (int head = 0; head < this.queue.size(); ++head) {
+            final int i = this.queue.get(head);
+            if (!this.mark.has(i)) {
+                this.mark.add(i);
+                setLevel(i, this.queueLevel.get(head));
+                addRelatives(i);
+            }
+        }
+    }
+
+    private void addRelatives(final int i) {
+        final int lev = this.level[i];
+
+        //father
+        if (0 <= this.father[i]) {
+            enqueue(this.father[i], lev + 1);
+        }
+        //mother (only if no father)
+        else if (0 <= this.mother[i]) {
+            enqueue(this.mother[i], lev + 1);
+        }
+
+        //siblings
+        final int f = this.childToFamily[i];
+        if (0 <= f) {
+            for (int k = this.famChildStart[f]; k < this.famChildStart[f + 1]; ++k) {
+                enqueue(this.famChild[k], lev);
+            }
+        }
+
+        //children
+        for (int k = this.childStart[i]; k < this.childStart[i + 1]; ++k) {
+            enqueue(this.child[k], lev - 1);
+        }
+
+        //spouses
+        for (int k = this.spouseStart[i]; k < this.spouseStart[i + 1]; ++k) {
+            enqueue(this.spouse[k], lev);
+        }
+    }
+
+    private void enqueue(final int i, final int lev) {
+        // anyone already marked would be skipped when dequeued anyway
+        if (!this.mark.has(i)) {
+            this.queue.add(i);
+            this.queueLevel.add(lev);
+        }
+    }
+
+    private void setRootWithSpouses(final int i, final int root) {
+        if (this.mark.has(i)) {
+            return;
+        }
+
+        buildSpouseGroup(i);
+        for (int k = 0; k < this.group.size(); ++k) {
+            final int s = this.group.get(k);
+            if (s == i || this.father[s] < 0) {
+                this.house[s] = root;
+                this.mark.add(s);
+            }
+        }
+    }
+
+    private void setSeqWithSpouses(final int i, final double[] xForLevel, final boolean left, final Ints cleannext) {
+        buildSpouseGroup(i);
+        for (int k = this.group.size() - 1; 0 <= k; --k) {
+            final int s = this.group.get(k);
+            if (0 <= this.father[s]) {
+                final int h = this.house[this.father[s]];
+                if (0 <= h && h != this.house[i]) {
+                    cleannext.add(h);
+                }
+            }
+            if (0 <= this.mother[s]) {
+                final int h = this.house[this.mother[s]];
+                if (0 <= h && h != this.house[i]) {
+                    cleannext.add(h);
+                }
+            }
+        }
+
+        if (this.mark.has(i)) {
+            return;
+        }
+
+        // build list of spouses to be displayed off to the LEFT of the indi
+        this.leftSpouses.clear();
+        this.inLeft.clear();
+        this.leftSpouses.add(i);
+        this.inLeft.add(i);
+        for (int p = i; 0 <= p; ) {
+            int found = -1;
+            for (int k = this.spouseStart[p]; found < 0 && k < this.spouseStart[p + 1]; ++k) {
+                final int s = this.spouse[k];
+                if (!this.mark.has(s) && this.father[s] < 0 && s != i && !this.inLeft.has(s)) {
+                    found = s;
+                    this.leftSpouses.add(s);
+                    this.inLeft.add(s);
+                }
+            }
+            p = found;
+        }
+
+        // build list of spouses to be displayed off to the RIGHT of the indi
+        this.rightSpouses.clear();
+        this.inRight.clear();
+        for (int p = i; 0 <= p; ) {
+            int found = -1;
+            for (int k = this.spouseStart[p]; found < 0 && k < this.spouseStart[p + 1]; ++k) {
+                final int s = this.spouse[k];
+                if (!this.mark.has(s) && this.father[s] < 0 && s != i && !this.inLeft.has(s) && !this.inRight.has(s)) {
+                    found = s;
+                    this.rightSpouses.add(s);
+                    this.inRight.add(s);
+                }
+            }
+            p = found;
+        }
+        //add (to the right) all remaining spouses
+        for (int k = 0; k < this.group.size(); ++k) {
+            final int s = this.group.get(k);
+            if (!this.mark.has(s) && this.father[s] < 0 && !this.inLeft.has(s) && !this.inRight.has(s)) {
+                this.rightSpouses.add(s);
+                this.inRight.add(s);
+            }
+        }
+
+        final Ints lefts = left ? this.leftSpouses : this.rightSpouses;
+        final Ints rights = left ? this.rightSpouses : this.leftSpouses;
+        for (int k = lefts.size() - 1; 0 <= k; --k) {
+            displaySpouse(xForLevel, lefts.get(k));
+        }
+        for (int k = 0; k < rights.size(); ++k) {
+            displaySpouse(xForLevel, rights.get(k));
+        }
+    }
+
+    /*
+        Puts i and (unmarked) spouses, spouses' spouses, etc., into group, in breadth-first order.
+        As in the original algorithm, someone reachable from two spouses may be put in twice.
+     */
+    private void buildSpouseGroup(final int i) {
+        this.group.clear();
+        this.grouped.clear();
+        this.groupTodo.clear();
+        if (!this.mark.has(i)) {
+            this.groupTodo.add(i);
+        }
+        for (int head = 0; head < this.groupTodo.size(); ++head) {
+            final int s = this.groupTodo.get(head);
+            this.group.add(s);
+            this.grouped.add(s);
+            for (int k = this.spouseStart[s]; k < this.spouseStart[s + 1]; ++k) {
+                final int s2 = this.spouse[k];
+                if (!this.mark.has(s2) && !this.grouped.has(s2)) {
+                    this.groupTodo.add(s2);
+                }
+            }
+        }
+    }
+
+    private void displaySpouse(final double[] xForLevel, final int s) {
+        this.x[s] = xForLevel[this.level[s]];
+        this.mark.add(s);
+        xForLevel[this.level[s]] = this.x[s] + 2D * MAX_WIDTH;
+    }
+
+
+
+    int size() {
+        return this.cIndi;
+    }
+
+    Indi indi(final int i) {
+        return this.indis.get(i);
+    }
+
+    double x(final int i) {
+        return this.x[i];
+    }
+
+    double y(final int i) {
+        return this.y[i];
+    }
+
+    void layOut() {
+        LOG.debug("set generation levels (also sets position on y-axis)");
+        {
+            this.mark.clear();
+            int batch = 0;
+            for (int i = 0; i < this.cIndi; ++i) {
+                if (!this.mark.has(i)) {
+                    setIslandLevels(i, batch++ * 5);
+                }
+            }
+        }
+
+        LOG.debug("normalize indis' level nums");
+        final int cLev; //count of levels
+        {
+            int levMax = Integer.MIN_VALUE;
+            int levMin = Integer.MAX_VALUE;
+            for (int i = 0; i < this.cIndi; ++i) {
+                levMax = Math.max(levMax, this.level[i]);
+                levMin = Math.min(levMin, this.level[i]);
+            }
+
+            cLev = levMax - levMin + 1;
+            for (int i = 0; i < this.cIndi; ++i) {
+                this.level[i] -= levMin;
+            }
+        }
+
+
+        LOG.debug("calc max male-branch-descendant-generations size for all indis");
+        {
+            // Finding branches
+            final Marks walked = new Marks(this.cIndi); // guard against loops
+            for (int i = 0; i < this.cIndi; ++i) {
+                int c = (this.sex[i] == 1) ? 1 : 0;
+
+                walked.clear();
+                int fa = i;
+                int f;
+                while ((f = this.father[fa]) >= 0 && !walked.has(f)) {
+                    walked.add(f);
+                    ++c;
+                    fa = f;
+                }
+                if (this.maxMale[fa] < c) {
+                    this.maxMale[fa] = c;
+                }
+                if (0 <= this.mother[fa]) {
+                    this.maxMale[this.mother[fa]] = c + 1;
+                }
+            }
+        }
+
+
+        final int[] qToClean;
+        {
+            final Ints q = new Ints();
+            for (int i = 0; i < this.cIndi; ++i) {
+                if (this.maxMale[i] != 0) {
+                    q.add(i);
+                }
+            }
+            qToClean = Arrays.copyOf(q.items, q.size());
+            sort(qToClean, 0, qToClean.length, this::comparePrimaryHouse);
+        }
+
+
+        LOG.debug("Labeling branches");
+
+        this.mark.clear();
+
+        final Ints todo = new Ints();
+        for (final int indi : qToClean) {
+            setRootWithSpouses(indi, indi);
+            todo.clear();
+            todo.add(indi);
+            for (int t = 0; t < todo.size(); ++t) {
+                final int pgmi = todo.get(t);
+                for (int j = this.spouseToFamilyStart[pgmi]; j < this.spouseToFamilyStart[pgmi + 1]; ++j) {
+                    final int fami = this.spouseToFamily[j];
+                    for (int k = this.famChildStart[fami]; k < this.famChildStart[fami + 1]; ++k) {
+                        final int pchil = this.famChild[k];
+                        if (!this.mark.has(pchil)) {
+                            setRootWithSpouses(pchil, indi);
+                            if (this.sex[pchil] == 1) {
+                                todo.add(pchil);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+
+        LOG.debug("build new list with only house heads");
+        // house heads, in order of processing, as a doubly linked list (so one can be moved to the end)
+        final HouseQueue rptoclean2 = new HouseQueue(this.cIndi);
+        {
+            // Finding progenitors
+            //make a list of all house heads
+            final boolean[] setheads = new boolean[this.cIndi];
+            for (int i = 0; i < this.cIndi; ++i) {
+                if (0 <= this.house[i]) {
+                    setheads[this.house[i]] = true;
+                }
+            }
+
+            // put house heads on rptoclean2 list in order of processing
+            for (final int psec : qToClean) {
+                if (setheads[psec]) {
+                    rptoclean2.addLast(psec);
+                }
+            }
+        }
+
+
+        final double[] xForLevel = new double[cLev];
+
+        this.mark.clear();
+        LOG.debug("Moving branches");
+        final Marks guard = new Marks(this.cIndi);
+        // everyone a house's walk reaches is laid out by the end of it, as are their children, and so on;
+        // so walking them again, for a later house, would change nothing
+        final boolean[] done = new boolean[this.cIndi];
+        final Ints nexthouse = new Ints();
+        final Ints riChild2 = new Ints();
+        while (!rptoclean2.isEmpty()) {
+            final int psec = rptoclean2.removeFirst();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("branch head: {}", this.indis.get(psec).name());
+            }
+
+            nexthouse.clear();
+
+            guard.clear();
+            todo.clear();
+            todo.add(psec);
+            guard.add(psec);
+            for (int t = 0; t < todo.size(); ++t) {
+                final int pgmi = todo.get(t);
+                setSeqWithSpouses(pgmi, xForLevel, false, nexthouse);
+
+                for (int j = this.spouseToFamilyStart[pgmi]; j < this.spouseToFamilyStart[pgmi + 1]; ++j) {
+                    final int fami = this.spouseToFamily[j];
+                    final int c0 = this.famChildStart[fami];
+                    final int nch = this.famChildStart[fami + 1] - c0;
+                    if (nch > 0) {
+                        // put the (first two) children with spouses on the outside edges
+                        // search for children in "flip-flopping" order, viz.: 1, n, 2, n-1, ...
+                        int sp1 = -1;
+                        int sp2 = -1;
+                        for (int ch = 0; ch < nch; ++ch) {
+                            final int fch = flop(ch, nch);
+                            final int chil = this.famChildByBirth[c0 + fch];
+                            if (this.spouseStart[chil] < this.spouseStart[chil + 1]) {
+                                if (sp1 < 0) {
+                                    sp1 = fch;
+                                } else if (sp2 < 0) {
+                                    sp2 = fch;
+                                }
+                            }
+                        }
+
+                        riChild2.clear();
+                        if (sp1 >= 0) {
+                            riChild2.add(this.famChildByBirth[c0 + sp1]);
+                        }
+                        for (int ch = 0; ch < nch; ++ch) {
+                            if (ch != sp1 && ch != sp2) {
+                                riChild2.add(this.famChildByBirth[c0 + ch]);
+                            }
+                        }
+                        if (sp2 >= 0) {
+                            riChild2.add(this.famChildByBirth[c0 + sp2]);
+                        }
+
+                        boolean left = (riChild2.size() > 1);
+                        for (int k = 0; k < riChild2.size(); ++k) {
+                            final int pchil = riChild2.get(k);
+                            setSeqWithSpouses(pchil, xForLevel, left, nexthouse);
+                            left = false;
+                            if (/* TODO why was this here? it caused some children to be skipped altogether: pchil.sex == 1 &&*/ !guard.has(pchil) && !done[pchil]) {
+                                todo.add(pchil);
+                                guard.add(pchil);
+                            }
+                        }
+                    }
+                }
+            }
+
+            for (int t = 0; t < todo.size(); ++t) {
+                done[todo.get(t)] = true;
+            }
+
+            double xMax = Double.NEGATIVE_INFINITY;
+            boolean any = false;
+            for (int j = 0; j < cLev; ++j) {
+                if (xMax < xForLevel[j]) {
+                    xMax = xForLevel[j];
+                }
+                //kludge to see if any people in this house
+                if (j > 0 && xForLevel[j] != xForLevel[j - 1]) {
+                    any = true;
+                }
+            }
+            if (any) {
+                xMax += DX_FAMILY;
+                Arrays.fill(xForLevel, xMax);
+            }
+
+            for (int k = 0; k < nexthouse.size(); ++k) {
+                final int pindi = nexthouse.get(k);
+                if (rptoclean2.contains(pindi)) {
+                    rptoclean2.moveToEnd(pindi);
+                }
+            }
+        }
+    }
+
+    private static int flop(final int ch, final int nch) {
+        final int h = ch/2;
+        return (ch == 2*h) ? h : nch-(h+1);
+    }
+
+
+    /*
+        primary house first: greatest maxMale, then level, then sex
+     */
+    private int comparePrimaryHouse(final int a, final int b) {
+        int c = Integer.compare(this.maxMale[b], this.maxMale[a]);
+        if (c == 0) {
+            c = Integer.compare(this.level[b], this.level[a]);
+        }
+        if (c == 0) {
+            c = Integer.compare(this.sex[b], this.sex[a]);
+        }
+        return c;
+    }
+
+
+    /**
+     * Queue of house heads (no duplicates), any of which can be moved to the end.
+     */
+    private static final class HouseQueue {
+        private final int[] next;
+        private final int[] prev;
+        private final boolean[] queued;
+        private int first = -1;
+        private int last = -1;
+
+        private HouseQueue(final int n) {
+            this.next = new int[n];
+            this.prev = new int[n];
+            this.queued = new boolean[n];
+        }
+
+        boolean isEmpty() {
+            return this.first < 0;
+        }
+
+        boolean contains(final int i) {
+            return this.queued[i];
+        }
+
+        void addLast(final int i) {
+            this.prev[i] = this.last;
+            this.next[i] = -1;
+            if (0 <= this.last) {
+                this.next[this.last] = i;
+            } else {
+                this.first = i;
+            }
+            this.last = i;
+            this.queued[i] = true;
+        }
+
+        int removeFirst() {
+            final int i = this.first;
+            remove(i);
+            return i;
+        }
+
+        void moveToEnd(final int i) {
+            remove(i);
+            addLast(i);
+        }
+
+        private void remove(final int i) {
+            if (0 <= this.prev[i]) {
+                this.next[this.prev[i]] = this.next[i];
+            } else {
+                this.first = this.next[i];
+            }
+            if (0 <= this.next[i]) {
+                this.prev[this.next[i]] = this.prev[i];
+            } else {
+                this.last = this.prev[i];
+            }
+            this.queued[i] = false;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package nu.mine.mosher.gedcom.xy;
+
+/**
+ * How much of the chart to draw, depending on how far it is zoomed out.
+ * At FULL detail, plaques have their text, and families all their connector lines.
+ * At BOXES, the text would be too small to read, so plaques are plain rectangles;
+ * at DOTS, they are just coloured marks. Below FULL, each family is drawn as a single
+ * simplified glyph (see {@link Fami#glyph()}), instead of a line for each child.
+ */
+public enum LevelOfDetail {
+    FULL,
+    BOXES,
+    DOTS;
+
+    /**
+     * @param scale zoom scale (1 is actual size)
+     * @return level of detail for the chart's font at the given scale, according to the thresholds in the metrics
+     */
+    public static LevelOfDetail of(final Metrics metrics, final double scale) {
+        final double pixels = metrics.getFontSize() * scale;
+        if (pixels < metrics.lodDotPixels()) {
+            return DOTS;
+        }
+        if (pixels < metrics.lodTextPixels()) {
+            return BOXES;
+        }
+        return FULL;
+    }
+}
@@ -1,13 +1,15 @@
 package nu.mine.mosher.gedcom.xy;
 
-import javafx.geometry.Point2D;
-import javafx.scene.*;
+import javafx.application.Platform;
+import javafx.geometry.*;
 import javafx.scene.paint.Color;
 import javafx.scene.text.*;
 import nu.mine.mosher.gedcom.xy.util.Solarized;
 import org.slf4j.*;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
 
 import static java.util.stream.Collectors.*;
 
@@ -31,7 +33,10 @@ public final class Metrics {
     private final double dxAvg;
     private final double widthMax;
     private final double heightNominal;
-    private final Font font;
+    private final TextMeasurer.Cached measurer;
+    // lines of each label that had to be wrapped (see lines)
+    private final Map<String, List<String>> wrapped = new ConcurrentHashMap<>();
+    private Font font;
 
     // TODO: make more than just two color schemes
     // Note: the initial scheme (set here) must match the
@@ -41,18 +46,28 @@ public final class Metrics {
 
 
     public static Metrics buildMetricsFor(final List<Indi> indis, final List<Fami> famis) {
-        final double dxPartner = famis.stream().mapToDouble(Fami::getMarrDistance).filter(Metrics::nominalDistance).average().orElse(0D);
-        final double dyGeneration = famis.stream().mapToDouble(Fami::getGenDistance).filter(Metrics::nominalDistance).average().orElse(0D);
-        final double dxAvg = calculateAverageX(indis);
-        return new Metrics(dxPartner * MARRIAGE_SPACING_FACTOR, dyGeneration, dxAvg);
-    }
-
-    private static double calculateAverageX(final List<Indi> indis) {
-        final Map<Double, TreeSet<Double>> mapYtoXs = indis
-            .stream()
-            .map(Indi::laidOut)
-            .filter(Optional::isPresent)
-            .map(Optional::get)
+        return buildMetricsFor(
+            indis.stream().map(Indi::laidOut).filter(Optional::isPresent).map(Optional::get),
+            famis.stream().mapToDouble(Fami::getMarrDistance),
+            famis.stream().mapToDouble(Fami::getGenDistance));
+    }
+
+    /**
+     * Builds metrics from coordinates alone, before any {@link Indi} or {@link Fami} objects exist.
+     * @param laidOut coordinates of all individuals (that have any)
+     * @param distancesMarr distance between the partners of each family
+     * @param distancesGen distance between the parents and children of each family
+     * @return new metrics
+     */
+    static Metrics buildMetricsFor(final Stream<Point2D> laidOut, final DoubleStream distancesMarr, final DoubleStream distancesGen) {
+        final double dxPartner = distancesMarr.filter(Metrics::nominalDistance).average().orElse(0D);
+        final double dyGeneration = distancesGen.filter(Metrics::nominalDistance).average().orElse(0D);
+        final double dxAvg = calculateAverageX(laidOut);
+        return new Metrics(dxPartner * MARRIAGE_SPACING_FACTOR, dyGeneration, dxAvg, TextMeasurer.platform());
+    }
+
+    static double calculateAverageX(final Stream<Point2D> laidOut) {
+        final Map<Double, TreeSet<Double>> mapYtoXs = laidOut
             .collect(groupingBy(p -> Math.floor(p.getY() / YDIV), mapping(Point2D::getX, toCollection(TreeSet::new))));
 
         double avg = 0.0D;
@@ -82,22 +97,106 @@ public final class Metrics {
         return NOMINAL_DISTANCE_MIN < d && d < NOMINAL_DISTANCE_MAX;
     }
 
-    private Metrics(final double dxPartner, final double dyGeneration, double dxAvg) {
+    private Metrics(final double dxPartner, final double dyGeneration, double dxAvg, final TextMeasurer measurer) {
         this.dxAvg = nominalDistance(dxAvg) ? dxAvg : DX_DEFAULT;
         this.dxPartner = nominalDistance(dxPartner) ? dxPartner : dxAvg;
         this.dyGeneration = nominalDistance(dyGeneration) ? dyGeneration : dxAvg * 2.0D;
 
         this.fontSize = clamp(6, Math.rint(this.dxAvg/ FONT_SIZE_RATIO), 24);
 
-        this.font = Font.font(FONT_FAMILY_NAME, FontWeight.BOLD, this.fontSize);
-        final Text text = new Text(PLAQUE_MAX);
-        text.setFont(this.font);
-        new Scene(new Group(text));
-        text.applyCss();
-        this.widthMax = text.getLayoutBounds().getWidth();
-        this.heightNominal = text.getLayoutBounds().getHeight();
+        this.measurer = new TextMeasurer.Cached(measurer);
+        final Dimension2D max = measureOnThreadFor(measurer, PLAQUE_MAX);
+        // also cached now, for the exports (which run on the event dispatch thread)
+        measureOnThreadFor(measurer, Fami.PHANTOM);
+        this.widthMax = max.getWidth();
+        this.heightNominal = max.getHeight();
+
+        LOG.info("metrics: dxAvg={},dxPartner={},dyGeneration={},fontSize={},measurer={},widthMax={},heightNominal={}", this.dxAvg, this.dxPartner, this.dyGeneration, this.fontSize, this.measurer, this.widthMax, this.heightNominal);
+    }
+
+    /*
+        Charts are read (and so their metrics built) on a background thread, but the
+        JavaFX measurer can only be used on the JavaFX thread, so it measures there (while this
+        thread waits). Not within the cache's lock, which the JavaFX thread may need meanwhile.
+     */
+    private Dimension2D measureOnThreadFor(final TextMeasurer measurer, final String text) {
+        if (!(measurer instanceof TextMeasurer.Fx) || Platform.isFxApplicationThread()) {
+            return measure(text, 0D);
+        }
+        final FutureTask<Dimension2D> task = new FutureTask<>(() -> measure(text, 0D));
+        Platform.runLater(task);
+        try {
+            return task.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted while measuring on the JavaFX thread");
+        } catch (final ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Measures plaque text in this chart's font (remembering the answer, for any other plaques with the same text).
+     * @param text text to measure
+     * @param wrappingWidth width to wrap lines at, or 0 for no wrapping
+     * @return size of the text
+     */
+    public Dimension2D measure(final String text, final double wrappingWidth) {
+        return this.measurer.measure(text, this.fontSize, wrappingWidth);
+    }
+
+    /**
+     * Breaks plaque text into the lines that a JavaFX Text node wrapped at {@link #getWidthMax()}
+     * shows (see {@link Indi#measure}): at spaces, or within a word too wide for a line of its own.
+     * So a plaque drawn line by line has the same lines as the one measured.
+     * @param label plaque text, possibly with line breaks
+     * @return lines to draw
+     */
+    public List<String> lines(final String label) {
+        if (measure(label, 0D).getWidth() <= this.widthMax) {
+            return List.of(label.split("\n"));
+        }
+        return this.wrapped.computeIfAbsent(label, this::wrap);
+    }
+
+    private List<String> wrap(final String label) {
+        final List<String> lines = new ArrayList<>();
+        for (final String line : label.split("\n")) {
+            String curr = "";
+            for (final String word : line.split(" ")) {
+                final String next = curr.isEmpty() ? word : curr + " " + word;
+                if (fits(next)) {
+                    curr = next;
+                    continue;
+                }
+                if (!curr.isEmpty()) {
+                    lines.add(curr);
+                }
+                curr = word;
+                // a word too wide for a line of its own is broken wherever it has to be
+                while (!fits(curr) && 1 < curr.length()) {
+                    int n = 1;
+                    while (n < curr.length() - 1 && fits(curr.substring(0, n + 1))) {
+                        ++n;
+                    }
+                    lines.add(curr.substring(0, n));
+                    curr = curr.substring(n);
+                }
+            }
+            lines.add(curr);
+        }
+        return List.copyOf(lines);
+    }
+
+    private boolean fits(final String text) {
+        return measure(text, 0D).getWidth() <= this.widthMax;
+    }
 
-        LOG.info("metrics: dxAvg={},dxPartner={},dyGeneration={},fontSizeEst={},font=\"{}\",fontSize={},widthMax={},heightNominal={}", this.dxAvg, this.dxPartner, this.dyGeneration, this.fontSize, this.font.getName(), this.font.getSize(), this.widthMax, this.heightNominal);
+    /**
+     * Logs how much text measuring has been done (and how much the cache saved), for the given phase.
+     */
+    public void logMeasurement(final String phase) {
+        LOG.info("text measurement, after {}: {}", phase, this.measurer.stats());
     }
 
     public double getFontSize() {
@@ -128,7 +227,13 @@ public final class Metrics {
         return this.heightNominal;
     }
 
+    /**
+     * Only for display; needs the JavaFX toolkit.
+     */
     public Font getFont() {
+        if (Objects.isNull(this.font)) {
+            this.font = Font.font(FONT_FAMILY_NAME, FontWeight.BOLD, this.fontSize);
+        }
         return this.font;
     }
 
@@ -161,6 +266,39 @@ public final class Metrics {
         return GenXyEditor.prefs().getInt("snapToGrid", 25);
     }
 
+    /**
+     * @return on-screen font size (in pixels) below which plaques are drawn without text
+     */
+    public double lodTextPixels() {
+        return GenXyEditor.prefs().getDouble("lodTextPixels", 4.0D);
+    }
+
+    /**
+     * @return on-screen font size (in pixels) below which plaques are drawn as dots
+     */
+    public double lodDotPixels() {
+        return GenXyEditor.prefs().getDouble("lodDotPixels", 1.5D);
+    }
+
+    /**
+     * @param s the two level-of-detail thresholds (text, then dots), separated by a comma
+     */
+    void setLod(final String s) {
+        try {
+            final String[] thresholds = s.split(",");
+            final double text = Double.parseDouble(thresholds[0].trim());
+            final double dots = Double.parseDouble(thresholds[1].trim());
+            if (0D <= dots && dots <= text && text <= 1000D) {
+                GenXyEditor.prefs().putDouble("lodTextPixels", text);
+                GenXyEditor.prefs().putDouble("lodDotPixels", dots);
+            } else {
+                LOG.warn("Ignoring invalid level-of-detail thresholds: {}", s);
+            }
+        } catch (final Exception e) {
+            LOG.warn("Ignoring invalid level-of-detail thresholds: {}", s, e);
+        }
+    }
+
     public void setColors(final ColorScheme newColorScheme) {
         this.colors = Objects.requireNonNull(newColorScheme);
     }
@@ -0,0 +1,81 @@
+package nu.mine.mosher.gedcom.xy;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.File;
+
+/**
+ * Modal dialog shown while a chart is being opened (on other threads). It shows which phase
+ * is in progress (and how far along it is, for phases that know), and has a Cancel button.
+ * Its methods, other than {@link OpenProgress#showUntilDone()}, can be called from any thread.
+ */
+final class OpenProgress {
+    private final JDialog dialog;
+    private final JLabel labelPhase = new JLabel(" ");
+    private final JProgressBar bar = new JProgressBar();
+
+    /**
+     * @param onCancel called (on the event dispatch thread) when the user presses Cancel
+     */
+    OpenProgress(final Frame owner, final File file, final Runnable onCancel) {
+        this.dialog = new JDialog(owner, "Opening " + file.getName(), true);
+        this.dialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+
+        this.bar.setIndeterminate(true);
+
+        final JButton cancel = new JButton("Cancel");
+        cancel.addActionListener(e -> {
+            cancel.setEnabled(false);
+            this.labelPhase.setText("cancelling...");
+            onCancel.run();
+        });
+
+        final JPanel panel = new JPanel(new BorderLayout(8, 8));
+        panel.setBorder(BorderFactory.createEmptyBorder(12, 12, 12, 12));
+        panel.add(this.labelPhase, BorderLayout.NORTH);
+        panel.add(this.bar, BorderLayout.CENTER);
+        final JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 0, 0));
+        buttons.add(cancel);
+        panel.add(buttons, BorderLayout.SOUTH);
+
+        this.dialog.setContentPane(panel);
+        this.dialog.setSize(480, 140);
+        this.dialog.setLocationRelativeTo(owner);
+    }
+
+    /**
+     * Shows that the given phase has begun (with no idea how long it will take).
+     */
+    void phase(final String name) {
+        SwingUtilities.invokeLater(() -> {
+            this.labelPhase.setText(name);
+            this.bar.setIndeterminate(true);
+        });
+    }
+
+    /**
+     * Shows how far along the current phase is.
+     */
+    void progress(final int done, final int total) {
+        SwingUtilities.invokeLater(() -> {
+            this.bar.setIndeterminate(false);
+            this.bar.setMaximum(total);
+            this.bar.setValue(done);
+        });
+    }
+
+    /**
+     * Shows the dialog, and returns once {@link OpenProgress#done()} is called.
+     * Call on the event dispatch thread (which keeps handling events meanwhile).
+     */
+    void showUntilDone() {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            throw new IllegalStateException("Not running on event dispatch thread.");
+        }
+        this.dialog.setVisible(true);
+    }
+
+    void done() {
+        SwingUtilities.invokeLater(this.dialog::dispose);
+    }
+}
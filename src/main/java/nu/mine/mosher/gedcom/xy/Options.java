@@ -0,0 +1,117 @@
+package nu.mine.mosher.gedcom.xy;
+
+import org.slf4j.*;
+
+import java.util.*;
+
+/**
+ * Command line options.
+ */
+public final class Options {
+    private static final Logger LOG = LoggerFactory.getLogger(Options.class);
+
+    private boolean destroyLayout;
+    private boolean compareFtmLoaders;
+    private boolean sequential;
+    private boolean progressive;
+    private boolean noSnapshot;
+    private boolean viewOnly;
+    private boolean canvas;
+
+    public static Options parse(final String... args) {
+        final Options options = new Options();
+        for (final String arg : args) {
+            switch (arg) {
+                case "--destroy-layout":
+                    options.destroyLayout = true;
+                    break;
+                case "--compare-ftm-loaders":
+                    options.compareFtmLoaders = true;
+                    break;
+                case "--sequential":
+                    options.sequential = true;
+                    break;
+                case "--progressive":
+                    options.progressive = true;
+                    break;
+                case "--no-snapshot":
+                    options.noSnapshot = true;
+                    break;
+                case "--view-only":
+                    options.viewOnly = true;
+                    break;
+                case "--canvas":
+                    options.canvas = true;
+                    break;
+                default:
+                    LOG.warn("Ignoring unknown command line argument: {}", arg);
+            }
+        }
+        LOG.info("options: {}", options);
+        return options;
+    }
+
+    /**
+     * @return true to discard any existing _XY coordinates and lay out the chart automatically
+     */
+    public boolean destroyLayout() {
+        return this.destroyLayout;
+    }
+
+    /**
+     * @return true to also run the legacy FTM person query, and log timings and differences
+     */
+    public boolean compareFtmLoaders() {
+        return this.compareFtmLoaders;
+    }
+
+    /**
+     * @return true to read files on a single thread (and single database connection);
+     * for GEDCOM files, this builds the individuals sequentially
+     */
+    public boolean sequential() {
+        return this.sequential;
+    }
+
+    /**
+     * @return true to show the initial viewport of an FTM tree (that has _XY facts) first,
+     * and read everyone else in the background
+     */
+    public boolean progressive() {
+        return this.progressive;
+    }
+
+    /**
+     * @return true to neither read nor write snapshots of opened files
+     */
+    public boolean noSnapshot() {
+        return this.noSnapshot;
+    }
+
+    /**
+     * @return true to stream GEDCOM files, keeping only the chart (and where each record is in the file),
+     * instead of the whole tree
+     */
+    public boolean viewOnly() {
+        return this.viewOnly;
+    }
+
+    /**
+     * @return true to draw the chart onto tiled canvases, instead of building a node for every plaque and line
+     */
+    public boolean canvas() {
+        return this.canvas;
+    }
+
+    @Override
+    public String toString() {
+        return
+            "destroyLayout=" + this.destroyLayout +
+            ", compareFtmLoaders=" + this.compareFtmLoaders +
+            ", sequential=" + this.sequential +
+            ", progressive=" + this.progressive +
+            ", noSnapshot=" + this.noSnapshot +
+            ", viewOnly=" + this.viewOnly +
+            ", canvas=" + this.canvas;
+    }
+}
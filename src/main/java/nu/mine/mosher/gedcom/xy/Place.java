@@ -4,7 +4,6 @@ package nu.mine.mosher.gedcom.xy;
 import org.slf4j.*;
 
 import java.util.*;
-import java.util.regex.*;
 
 // Taken from Ftm-Web-View
 
@@ -47,12 +46,47 @@ public class Place
 
 
 
+    /**
+     * Bounded (least-recently-used) cache of parsed places, keyed by the raw FTM place string.
+     * A tree typically reuses a few thousand distinct places across all its people,
+     * so each distinct string gets parsed only once, and the resulting (immutable)
+     * {@link Place} is shared. Not thread-safe; use one cache per load.
+     */
+    public static class Cache {
+        private final Map<String, Place> map;
+        private long hits;
+        private long misses;
 
+        public Cache(final int capacity) {
+            this.map = new LinkedHashMap<>(Math.min(capacity, 1024), 0.75F, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, Place> eldest) {
+                    return capacity < size();
+                }
+            };
+        }
 
+        public Place fromFtmPlace(final String s) {
+            if (Objects.isNull(s)) {
+                return EMPTY;
+            }
+            Place place = this.map.get(s);
+            if (Objects.isNull(place)) {
+                ++this.misses;
+                place = Place.fromFtmPlace(s);
+                this.map.put(s, place);
+            } else {
+                ++this.hits;
+            }
+            return place;
+        }
 
+        public void logStatistics() {
+            LOG.info("Place cache: {} hits, {} misses, {} entries.", this.hits, this.misses, this.map.size());
+        }
+    }
 
-
-
+    private static final Place EMPTY = new Builder(null).build();
 
 
 
@@ -117,50 +151,96 @@ public class Place
         /*
                 /Hamilton, Madison, New York, USA|/0.7474722/-1.318502
                 /Place, Name w/some slash/es | and, vertical | bars|//
-         */
-        private static final Pattern FTM_PLACE_WITH_VERTICALBAR = Pattern.compile("^/(?<name>.*)\\|(?<code>[^/|]*?)/(?<lat>[^/|]*?)/(?<lon>[^/|]*?)$");
 
-        /*
+            i.e., "/" NAME "|" CODE "/" LAT "/" LON
+
                 /Room 401, Flint Hall, Syracuse University/Syracuse/Onondaga/New York/USA/11269/0.7513314/-1.329023
                 /another place / with slashes | and  bars, but, resolved, in///Connecticut/USA/-9//
 
-            Use the first capture group ("name") from the first pattern as input to the second pattern:
+            i.e., "/" NAME "/" CODE "/" LAT "/" LON
+            where NAME can be hierarchical: P0 "/" P1 "/" P2 "/" P3 "/" P4
+
+            CODE, LAT, LON, and P1 through P4 never contain a slash or vertical bar,
+            so they are found by scanning backwards from the end of the string
+            (in one pass, without any backtracking). NAME (which includes P0)
+            is anything else on one line.
         */
-        private static final Pattern FTM_PLACE_WITH_SLASH = Pattern.compile("^/(?<name>.*)/(?<code>[^/|]*?)/(?<lat>[^/|]*?)/(?<lon>[^/|]*?)$");
+        private void parseDescription(final String description) {
+            if (description.charAt(0) != '/') {
+                return;
+            }
 
-        private static final Pattern FTM_PLACE_HIERARCHICAL = Pattern.compile("^(?<p0>.*)/(?<p1>[^/|]*?)/(?<p2>[^/|]*?)/(?<p3>[^/|]*?)/(?<p4>[^/|]*?)$");
+            final int slashLon = description.lastIndexOf('/');
+            final int slashLat = description.lastIndexOf('/', slashLon - 1);
+            if (slashLat <= 0) {
+                return;
+            }
+            if (hasBar(description, slashLat + 1, slashLon) || hasBar(description, slashLon + 1, description.length())) {
+                return;
+            }
 
+            int i = slashLat - 1;
+            while (0 < i && !isSlashOrBar(description.charAt(i))) {
+                --i;
+            }
+            if (i <= 0 || hasLineTerminator(description, 1, i)) {
+                return;
+            }
 
-        private void parseDescription(final String description) {
-            //-------------------------------------------------------
-            {
-                final Matcher withBar = FTM_PLACE_WITH_VERTICALBAR.matcher(description);
-                if (withBar.matches()) {
-                    parseAndAddHierarchy(withBar.group("name"));
-
-                    buildDescription();
-                    return;
+            final String name = description.substring(1, i);
+            if (description.charAt(i) == '|') {
+                parseAndAddHierarchy(name);
+            } else if (!parseHierarchical(name)) {
+                parseAndAddHierarchy(name);
+            }
+
+            buildDescription();
+        }
+
+        private boolean parseHierarchical(final String name) {
+            final int[] slash = new int[4];
+            int end = name.length();
+            for (int k = 3; 0 <= k; --k) {
+                slash[k] = name.lastIndexOf('/', end - 1);
+                if (slash[k] < 0 || hasBar(name, slash[k] + 1, end)) {
+                    return false;
+                }
+                end = slash[k];
+            }
+
+            parseAndAddHierarchy(name.substring(0, slash[0]));
+            addHierarchy(name.substring(slash[0] + 1, slash[1]));
+            addHierarchy(name.substring(slash[1] + 1, slash[2]));
+            addHierarchy(name.substring(slash[2] + 1, slash[3]));
+            addHierarchy(name.substring(slash[3] + 1));
+            return true;
+        }
+
+        private static boolean isSlashOrBar(final char c) {
+            return c == '/' || c == '|';
+        }
+
+        private static boolean hasBar(final String s, final int begin, final int end) {
+            for (int i = begin; i < end; ++i) {
+                if (s.charAt(i) == '|') {
+                    return true;
                 }
             }
-            //-------------------------------------------------------
-            {
-                final Matcher withSlash = FTM_PLACE_WITH_SLASH.matcher(description);
-                if (withSlash.matches()) {
-                    final Matcher hier = FTM_PLACE_HIERARCHICAL.matcher(withSlash.group("name"));
-                    if (hier.matches()) {
-                        parseAndAddHierarchy(hier.group("p0"));
-                        addHierarchy(hier.group("p1"));
-                        addHierarchy(hier.group("p2"));
-                        addHierarchy(hier.group("p3"));
-                        addHierarchy(hier.group("p4"));
-                    } else {
-                        parseAndAddHierarchy(withSlash.group("name"));
-                    }
-
-                    buildDescription();
+            return false;
+        }
+
+        private static boolean hasLineTerminator(final String s, final int begin, final int end) {
+            for (int i = begin; i < end; ++i) {
+                switch (s.charAt(i)) {
+                    case '\n':
+                    case '\r':
+                    case '\u0085':
+                    case '\u2028':
+                    case '\u2029':
+                        return true;
                 }
             }
-            //-------------------------------------------------------
+            return false;
         }
 
         private void buildDescription() {
@@ -168,9 +248,12 @@ public class Place
         }
 
         private void parseAndAddHierarchy(final String csvParts) {
-            Arrays.stream(csvParts.split(",")).
-                map(String::trim).
-                forEach(this::addHierarchy);
+            int begin = 0;
+            for (int comma = csvParts.indexOf(','); 0 <= comma; comma = csvParts.indexOf(',', begin)) {
+                addHierarchy(csvParts.substring(begin, comma).trim());
+                begin = comma + 1;
+            }
+            addHierarchy(csvParts.substring(begin).trim());
         }
 
         private void addHierarchy(String part) {
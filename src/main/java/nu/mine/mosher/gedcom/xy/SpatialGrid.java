@@ -0,0 +1,192 @@
+package nu.mine.mosher.gedcom.xy;
+
+import javafx.geometry.*;
+
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * A uniform grid over the plaques in a {@link ChartModel}, for finding the individuals
+ * within a rectangle (or under a point) without looking at everyone. Each individual is
+ * filed under the one cell that has the center of its plaque, and is moved to another cell
+ * whenever it moves there; so queries are widened by the largest plaque seen so far.
+ */
+final class SpatialGrid {
+    private static final double CELL = 256.0D;
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final ChartModel model;
+
+    private final Map<Long, Cell> cells = new HashMap<>();
+    /* cell, and position within it, of each individual */
+    private long[] cellOf = new long[0];
+    private int[] slotOf = new int[0];
+    private double halfWidthMax;
+    private double halfHeightMax;
+
+    private static final class Cell {
+        private final int col;
+        private final int row;
+        private int[] items = new int[8];
+        private int count;
+
+        private Cell(final int col, final int row) {
+            this.col = col;
+            this.row = row;
+        }
+    }
+
+    SpatialGrid(final ChartModel model, final int capacity) {
+        this.model = model;
+        ensure(capacity);
+    }
+
+    void ensure(final int n) {
+        if (this.cellOf.length < n) {
+            final int was = this.cellOf.length;
+            this.cellOf = Arrays.copyOf(this.cellOf, n);
+            this.slotOf = Arrays.copyOf(this.slotOf, n);
+            Arrays.fill(this.cellOf, was, n, NONE);
+        }
+    }
+
+    /**
+     * Files (or refiles) individual i under the cell at the given position.
+     */
+    void put(final int i, final double x, final double y) {
+        final int col = cell(x);
+        final int row = cell(y);
+        final long key = key(col, row);
+        if (this.cellOf[i] == key) {
+            return;
+        }
+        remove(i);
+
+        final Cell cell = this.cells.computeIfAbsent(key, k -> new Cell(col, row));
+        if (cell.items.length <= cell.count) {
+            cell.items = Arrays.copyOf(cell.items, cell.count * 2);
+        }
+        this.slotOf[i] = cell.count;
+        cell.items[cell.count++] = i;
+        this.cellOf[i] = key;
+    }
+
+    private void remove(final int i) {
+        if (this.cellOf[i] == NONE) {
+            return;
+        }
+        final Cell cell = this.cells.get(this.cellOf[i]);
+        final int last = cell.items[--cell.count];
+        cell.items[this.slotOf[i]] = last;
+        this.slotOf[last] = this.slotOf[i];
+        if (cell.count == 0) {
+            this.cells.remove(this.cellOf[i]);
+        }
+        this.cellOf[i] = NONE;
+    }
+
+    /**
+     * Notes the size of a plaque, so queries are widened enough to find it.
+     */
+    void extent(final double w, final double h) {
+        this.halfWidthMax = Math.max(this.halfWidthMax, w / 2.0D);
+        this.halfHeightMax = Math.max(this.halfHeightMax, h / 2.0D);
+    }
+
+    /**
+     * Passes each individual whose plaque intersects the given rectangle to the given consumer (in no particular order).
+     */
+    void forEachWithin(final double x, final double y, final double w, final double h, final IntConsumer consumer) {
+        final int c0 = cell(x - this.halfWidthMax);
+        final int c1 = cell(x + w + this.halfWidthMax);
+        final int r0 = cell(y - this.halfHeightMax);
+        final int r1 = cell(y + h + this.halfHeightMax);
+
+        // a rectangle covering a large (mostly empty) area is quicker to check against every occupied cell
+        if (((long)c1 - c0 + 1L) * ((long)r1 - r0 + 1L) <= this.cells.size()) {
+            for (int row = r0; row <= r1; ++row) {
+                for (int col = c0; col <= c1; ++col) {
+                    final Cell cell = this.cells.get(key(col, row));
+                    if (Objects.nonNull(cell)) {
+                        within(cell, x, y, w, h, consumer);
+                    }
+                }
+            }
+        } else {
+            for (final Cell cell : this.cells.values()) {
+                if (c0 <= cell.col && cell.col <= c1 && r0 <= cell.row && cell.row <= r1) {
+                    within(cell, x, y, w, h, consumer);
+                }
+            }
+        }
+    }
+
+    private void within(final Cell cell, final double x, final double y, final double w, final double h, final IntConsumer consumer) {
+        for (int k = 0; k < cell.count; ++k) {
+            final int i = cell.items[k];
+            if (this.model.intersects(i, x, y, w, h)) {
+                consumer.accept(i);
+            }
+        }
+    }
+
+    /**
+     * @return the topmost (last) individual whose plaque contains the given point, or -1 if none does
+     */
+    int hit(final double x, final double y) {
+        final int[] top = {-1};
+        forEachWithin(x, y, 0D, 0D, i -> top[0] = Math.max(top[0], i));
+        return top[0];
+    }
+
+    /**
+     * @return bounds of all plaques, found by looking only at the cells near the edges
+     */
+    Bounds bounds() {
+        if (this.cells.isEmpty()) {
+            return new BoundingBox(0D, 0D, 0D, 0D);
+        }
+        int colMin = Integer.MAX_VALUE;
+        int colMax = Integer.MIN_VALUE;
+        int rowMin = Integer.MAX_VALUE;
+        int rowMax = Integer.MIN_VALUE;
+        for (final Cell cell : this.cells.values()) {
+            colMin = Math.min(colMin, cell.col);
+            colMax = Math.max(colMax, cell.col);
+            rowMin = Math.min(rowMin, cell.row);
+            rowMax = Math.max(rowMax, cell.row);
+        }
+
+        // the outermost edge could belong to a big plaque centered a few cells in
+        final int dc = (int)Math.ceil(this.halfWidthMax / CELL) + 1;
+        final int dr = (int)Math.ceil(this.halfHeightMax / CELL) + 1;
+
+        double xMin = Double.POSITIVE_INFINITY;
+        double yMin = Double.POSITIVE_INFINITY;
+        double xMax = Double.NEGATIVE_INFINITY;
+        double yMax = Double.NEGATIVE_INFINITY;
+        for (final Cell cell : this.cells.values()) {
+            if (colMin + dc < cell.col && cell.col < colMax - dc && rowMin + dr < cell.row && cell.row < rowMax - dr) {
+                continue;
+            }
+            for (int k = 0; k < cell.count; ++k) {
+                final int i = cell.items[k];
+                final double hw = this.model.width(i) / 2.0D;
+                final double hh = this.model.height(i) / 2.0D;
+                xMin = Math.min(xMin, this.model.x(i) - hw);
+                yMin = Math.min(yMin, this.model.y(i) - hh);
+                xMax = Math.max(xMax, this.model.x(i) + hw);
+                yMax = Math.max(yMax, this.model.y(i) + hh);
+            }
+        }
+        return new BoundingBox(xMin, yMin, xMax - xMin, yMax - yMin);
+    }
+
+    private static int cell(final double c) {
+        return (int)Math.floor(c / CELL);
+    }
+
+    private static long key(final int col, final int row) {
+        return ((long)col << 32) | (row & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,193 @@
+package nu.mine.mosher.gedcom.xy;
+
+import javafx.geometry.Dimension2D;
+import javafx.scene.*;
+import javafx.scene.text.*;
+import org.slf4j.*;
+
+import java.awt.GraphicsEnvironment;
+import java.awt.font.*;
+import java.io.InputStream;
+import java.text.*;
+import java.util.*;
+
+/**
+ * Measures the size of (bold, centered, multi-line) plaque text, for a given font size.
+ * The JavaFX measurer needs the JavaFX toolkit, so it can only be used by the GUI, and only on the
+ * JavaFX thread (it keeps its text nodes in a plain map);
+ * the AWT measurer works headless, and uses the same Noto Sans Bold font as the PDF export.
+ */
+public interface TextMeasurer {
+    /**
+     * @param text text to measure, possibly with line breaks
+     * @param fontSize font size, in points
+     * @param wrappingWidth width at which to wrap lines, or 0 for no wrapping
+     * @return width and height of the text's layout bounds
+     */
+    Dimension2D measure(String text, double fontSize, double wrappingWidth);
+
+    /**
+     * @return measurer suitable for the current environment (AWT if headless, otherwise JavaFX)
+     */
+    static TextMeasurer platform() {
+        return GraphicsEnvironment.isHeadless() ? new Awt() : new Fx();
+    }
+
+
+
+    final class Fx implements TextMeasurer {
+        private Font font;
+        // one off-screen text node per font size, reused for every measurement
+        private final Map<Double, Text> texts = new HashMap<>();
+
+        public Font font(final double fontSize) {
+            if (Objects.isNull(this.font) || this.font.getSize() != fontSize) {
+                this.font = Font.font(Metrics.FONT_FAMILY_NAME, FontWeight.BOLD, fontSize);
+            }
+            return this.font;
+        }
+
+        private Text text(final double fontSize) {
+            return this.texts.computeIfAbsent(fontSize, k -> {
+                final Text textshape = new Text();
+                textshape.setFont(font(fontSize));
+                textshape.setTextAlignment(TextAlignment.CENTER);
+                new Scene(new Group(textshape));
+                textshape.applyCss();
+                return textshape;
+            });
+        }
+
+        @Override
+        public Dimension2D measure(final String text, final double fontSize, final double wrappingWidth) {
+            final Text textshape = text(fontSize);
+            textshape.setText(text);
+            textshape.setWrappingWidth(Math.max(wrappingWidth, 0D));
+            return new Dimension2D(textshape.getLayoutBounds().getWidth(), textshape.getLayoutBounds().getHeight());
+        }
+
+        @Override
+        public String toString() {
+            return "JavaFX";
+        }
+    }
+
+
+
+    final class Awt implements TextMeasurer {
+        private static final Logger LOG = LoggerFactory.getLogger(Awt.class);
+        private static final FontRenderContext FRC = new FontRenderContext(null, true, true);
+        private static final java.awt.Font BASE = loadFont();
+
+        private java.awt.Font font;
+
+        private static java.awt.Font loadFont() {
+            try (final InputStream is = TextMeasurer.class.getResourceAsStream("util/NotoSans-Bold.ttf")) {
+                return java.awt.Font.createFont(java.awt.Font.TRUETYPE_FONT, Objects.requireNonNull(is));
+            } catch (final Exception e) {
+                LOG.error("Error loading NotoSans font resource; will use the default sans-serif font.", e);
+                return new java.awt.Font(java.awt.Font.SANS_SERIF, java.awt.Font.BOLD, 1);
+            }
+        }
+
+        private java.awt.Font font(final double fontSize) {
+            if (Objects.isNull(this.font) || this.font.getSize2D() != (float)fontSize) {
+                this.font = BASE.deriveFont((float)fontSize);
+            }
+            return this.font;
+        }
+
+        @Override
+        public Dimension2D measure(final String text, final double fontSize, final double wrappingWidth) {
+            final java.awt.Font f = font(fontSize);
+            final LineMetrics lm = f.getLineMetrics("M", FRC);
+            final double lineHeight = lm.getAscent() + lm.getDescent() + lm.getLeading();
+
+            double width = 0D;
+            int lines = 0;
+            for (final String line : text.split("\n", -1)) {
+                if (line.isEmpty()) {
+                    ++lines;
+                    continue;
+                }
+                final double w = f.getStringBounds(line, FRC).getWidth();
+                if (wrappingWidth <= 0D || w <= wrappingWidth) {
+                    width = Math.max(width, w);
+                    ++lines;
+                } else {
+                    final AttributedString as = new AttributedString(line);
+                    as.addAttribute(TextAttribute.FONT, f);
+                    final AttributedCharacterIterator it = as.getIterator();
+                    final LineBreakMeasurer lbm = new LineBreakMeasurer(it, FRC);
+                    while (lbm.getPosition() < it.getEndIndex()) {
+                        final TextLayout layout = lbm.nextLayout((float)wrappingWidth);
+                        width = Math.max(width, layout.getAdvance());
+                        ++lines;
+                    }
+                    // wrapped text takes the whole wrapping width, as in JavaFX
+                    width = Math.max(width, wrappingWidth);
+                }
+            }
+            return new Dimension2D(width, lines * lineHeight);
+        }
+
+        @Override
+        public String toString() {
+            return "AWT";
+        }
+    }
+
+
+
+    /**
+     * Remembers the size of each text (for each wrapping width) measured by another measurer,
+     * because many people have the same label (and measuring it again gives the same answer).
+     * Keeps count of lookups, hits, and the time spent measuring, for logging.
+     */
+    final class Cached implements TextMeasurer {
+        private final TextMeasurer measurer;
+        private final Map<Double, Map<String, Dimension2D>> cache = new HashMap<>();
+        private double fontSize;
+        private long cLookup;
+        private long cHit;
+        private long nanosMeasuring;
+
+        public Cached(final TextMeasurer measurer) {
+            this.measurer = measurer;
+        }
+
+        @Override
+        public synchronized Dimension2D measure(final String text, final double fontSize, final double wrappingWidth) {
+            if (this.fontSize != fontSize) {
+                this.cache.clear();
+                this.fontSize = fontSize;
+            }
+            ++this.cLookup;
+            final Map<String, Dimension2D> sizes = this.cache.computeIfAbsent(wrappingWidth, k -> new HashMap<>());
+            final Dimension2D cached = sizes.get(text);
+            if (Objects.nonNull(cached)) {
+                ++this.cHit;
+                return cached;
+            }
+            final long t0 = System.nanoTime();
+            final Dimension2D size = this.measurer.measure(text, fontSize, wrappingWidth);
+            this.nanosMeasuring += System.nanoTime() - t0;
+            sizes.put(text, size);
+            return size;
+        }
+
+        /**
+         * @return counts of lookups and cache hits, and total time spent measuring, so far
+         */
+        public synchronized String stats() {
+            return String.format("%d lookups, %d hits (%.1f%%), %d measured in %d ms",
+                this.cLookup, this.cHit, this.cLookup == 0L ? 0D : this.cHit * 100D / this.cLookup,
+                this.cLookup - this.cHit, this.nanosMeasuring / 1_000_000L);
+        }
+
+        @Override
+        public String toString() {
+            return "cached " + this.measurer;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package nu.mine.mosher.gedcom.xy.util;
+
+import javafx.animation.AnimationTimer;
+import org.slf4j.*;
+
+/**
+ * Measures the time between frames while the user is zooming, panning, or dragging,
+ * and logs it (once things have been quiet for a second, or the label changes),
+ * labeled with what was being shown, such as the level of detail.
+ */
+public final class FrameTimes {
+    private static final Logger LOG = LoggerFactory.getLogger(FrameTimes.class);
+
+    private static final long QUIET = 1_000_000_000L;
+    // frames this long after the last interaction are idle ones, not worth counting
+    private static final long ACTIVE = 100_000_000L;
+
+    private final AnimationTimer timer;
+    private boolean running;
+    private String label = "";
+    private long nanosActivity;
+    private long nanosFrame;
+    private int cFrame;
+    private long nanosTotal;
+    private long nanosMax;
+
+    public FrameTimes() {
+        this.timer = new AnimationTimer() {
+            @Override
+            public void handle(final long now) {
+                frame(now);
+            }
+        };
+    }
+
+    /**
+     * Call on the JavaFX thread, on each user interaction that causes frames to be drawn.
+     * @param label what is being shown
+     */
+    public void activity(final String label) {
+        if (!label.equals(this.label)) {
+            log();
+            this.label = label;
+        }
+        this.nanosActivity = System.nanoTime();
+        if (!this.running) {
+            this.running = true;
+            this.nanosFrame = 0L;
+            this.timer.start();
+        }
+    }
+
+    private void frame(final long now) {
+        if (0L < this.nanosFrame && now - this.nanosActivity < ACTIVE) {
+            final long nanos = now - this.nanosFrame;
+            ++this.cFrame;
+            this.nanosTotal += nanos;
+            this.nanosMax = Math.max(this.nanosMax, nanos);
+        }
+        this.nanosFrame = now;
+
+        if (QUIET < now - this.nanosActivity) {
+            this.timer.stop();
+            this.running = false;
+            log();
+        }
+    }
+
+    private void log() {
+        if (0 < this.cFrame) {
+            LOG.info("Frame times ({}): {} frames, average {} ms, worst {} ms.",
+                this.label, this.cFrame, String.format("%.1f", this.nanosTotal / 1e6D / this.cFrame), String.format("%.1f", this.nanosMax / 1e6D));
+        }
+        this.cFrame = 0;
+        this.nanosTotal = 0L;
+        this.nanosMax = 0L;
+        // the next frame's time would span the change, so do not count it
+        this.nanosFrame = 0L;
+    }
+}
@@ -114,12 +114,16 @@ public class PdfBuilder implements AutoCloseable {
             return;
         }
 
+        addLine(line.getStartX(), line.getStartY(), line.getEndX(), line.getEndY());
+    }
+
+    public void addLine(final double startX, final double startY, final double endX, final double endY) {
         this.canvas
             .saveState()
             .setStrokeColor(COLOR_LINES)
             .setLineWidth(0.5f)
-            .moveTo(x(line.getStartX()), y(line.getStartY()))
-            .lineTo(x(line.getEndX()), y(line.getEndY()))
+            .moveTo(x(startX), y(startY))
+            .lineTo(x(endX), y(endY))
             .stroke()
             .restoreState()
         ;
@@ -0,0 +1,278 @@
+package nu.mine.mosher.gedcom.xy.util;
+
+import nu.mine.mosher.gedcom.xy.GenXyEditor;
+import org.slf4j.*;
+
+import java.io.*;
+import java.lang.management.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+
+/**
+ * Timing report for the phases of one operation (opening or saving a file).
+ * Each phase records wall time, CPU time, allocated bytes, and an optional item count.
+ * CPU time and allocations are measured on the thread that runs the phase, so a phase
+ * that only waits for other threads will show little of either; phases can be run
+ * on worker threads, though.
+ * When finished, the report is logged, and also appended, as one line of JSON, to a file next to the log file.
+ * A report can also be cancelled (from any thread), which makes the next phase to begin,
+ * or the next check within a long phase, throw a {@link CancellationException};
+ * and it can tell a listener as each phase begins.
+ */
+public final class PhaseReport {
+    private static final Logger LOG = LoggerFactory.getLogger(PhaseReport.class);
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final Object LOCK_FILE = new Object();
+
+    private final String operation;
+    private final String file;
+    private final Instant started = Instant.now();
+    private final long nanosStart = System.nanoTime();
+    private final List<Phase> phases = new ArrayList<>();
+    private boolean disabled;
+    private volatile boolean cancelled;
+    private volatile Consumer<String> listener = name -> {};
+
+    public PhaseReport(final String operation, final File file) {
+        this.operation = operation;
+        this.file = Objects.isNull(file) ? "" : file.getName();
+    }
+
+    /**
+     * @return a report that records nothing
+     */
+    public static PhaseReport none() {
+        final PhaseReport report = new PhaseReport("", null);
+        report.disabled = true;
+        return report;
+    }
+
+    /**
+     * @param listener called (on the phase's thread) with the name of each phase as it begins
+     */
+    public void onBegin(final Consumer<String> listener) {
+        this.listener = Objects.requireNonNull(listener);
+    }
+
+    /**
+     * Cancels the operation: the next phase to begin (or check) will throw a {@link CancellationException}.
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public boolean cancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * For long phases to call now and then.
+     * @throws CancellationException if the operation has been cancelled
+     */
+    public void checkCancelled() {
+        if (this.cancelled) {
+            throw new CancellationException(this.operation + " cancelled");
+        }
+    }
+
+    public Phase begin(final String name) {
+        return begin(name, 0);
+    }
+
+    private Phase begin(final String name, final int depth) {
+        checkCancelled();
+        this.listener.accept(name);
+        final Phase phase = new Phase(name, depth);
+        if (!this.disabled) {
+            synchronized (this.phases) {
+                this.phases.add(phase);
+            }
+        }
+        return phase;
+    }
+
+    public final class Phase implements AutoCloseable {
+        private final String name;
+        private final int depth;
+        private final Thread thread = Thread.currentThread();
+        private final long nanosBegin = System.nanoTime();
+        private final long cpuBegin = cpu();
+        private final long allocBegin = allocated();
+        private long nanos = -1L;
+        private long cpu = -1L;
+        private long alloc = -1L;
+        private long items = -1L;
+
+        private Phase(final String name, final int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+
+        /**
+         * Begins a nested phase.
+         */
+        public Phase begin(final String name) {
+            return PhaseReport.this.begin(name, this.depth + 1);
+        }
+
+        /**
+         * @throws CancellationException if the operation has been cancelled
+         */
+        public void checkCancelled() {
+            PhaseReport.this.checkCancelled();
+        }
+
+        public Phase items(final long items) {
+            this.items = items;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (Thread.currentThread() != this.thread) {
+                LOG.warn("Phase \"{}\" ended on a different thread than it began on.", this.name);
+            }
+            this.nanos = System.nanoTime() - this.nanosBegin;
+            this.cpu = diff(cpu(), this.cpuBegin);
+            this.alloc = diff(allocated(), this.allocBegin);
+        }
+
+        private static long diff(final long end, final long begin) {
+            return (end < 0L || begin < 0L) ? -1L : end - begin;
+        }
+    }
+
+    /**
+     * Logs the report, and appends it to the JSON lines file.
+     */
+    public void finish() {
+        if (this.disabled) {
+            return;
+        }
+        final long nanosTotal = System.nanoTime() - this.nanosStart;
+        final List<Phase> done;
+        synchronized (this.phases) {
+            done = List.copyOf(this.phases);
+        }
+
+        log(done, nanosTotal);
+
+        append(toJson(done, nanosTotal));
+    }
+
+    private void log(final List<Phase> done, final long nanosTotal) {
+        final StringBuilder sb = new StringBuilder(128);
+        sb.append(String.format("Phase report: %s %s, total %.1f ms%s", this.operation, this.file, ms(nanosTotal), this.cancelled ? " (cancelled)" : ""));
+        for (final Phase p : done) {
+            sb.append(String.format("%n    %-40s wall=%9.1f ms  cpu=%9.1f ms  alloc=%9.1f MB  items=%s  [%s]",
+                "  ".repeat(p.depth) + p.name,
+                ms(p.nanos),
+                ms(p.cpu),
+                p.alloc < 0L ? -1.0D : p.alloc / (1024.0D * 1024.0D),
+                p.items < 0L ? "-" : Long.toString(p.items),
+                p.thread.getName()));
+        }
+        LOG.info("{}", sb);
+    }
+
+    private String toJson(final List<Phase> done, final long nanosTotal) {
+        final StringBuilder sb = new StringBuilder(256);
+        sb.append("{");
+        sb.append("\"version\":").append(quote(Objects.toString(GenXyEditor.VERSION, ""))).append(",");
+        sb.append("\"started\":").append(quote(this.started.toString())).append(",");
+        sb.append("\"operation\":").append(quote(this.operation)).append(",");
+        sb.append("\"file\":").append(quote(this.file)).append(",");
+        sb.append("\"wallNanos\":").append(nanosTotal).append(",");
+        sb.append("\"cancelled\":").append(this.cancelled).append(",");
+        sb.append("\"phases\":[");
+        for (int i = 0; i < done.size(); ++i) {
+            final Phase p = done.get(i);
+            if (0 < i) {
+                sb.append(",");
+            }
+            sb.append("{");
+            sb.append("\"name\":").append(quote(p.name)).append(",");
+            sb.append("\"depth\":").append(p.depth).append(",");
+            sb.append("\"thread\":").append(quote(p.thread.getName())).append(",");
+            sb.append("\"wallNanos\":").append(p.nanos).append(",");
+            sb.append("\"cpuNanos\":").append(p.cpu).append(",");
+            sb.append("\"allocatedBytes\":").append(p.alloc).append(",");
+            sb.append("\"items\":").append(p.items);
+            sb.append("}");
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    private static void append(final String json) {
+        final Optional<Path> path = jsonPath();
+        if (path.isEmpty()) {
+            return;
+        }
+        try {
+            synchronized (LOCK_FILE) {
+                Files.writeString(path.get(), json + "\n", StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            LOG.debug("Wrote phase report to {}", path.get());
+        } catch (final IOException e) {
+            LOG.warn("Could not write phase report file: {}", path.get(), e);
+        }
+    }
+
+    private static Optional<Path> jsonPath() {
+        final String log = LogbackConfigurator.getFilePath();
+        if (Objects.isNull(log) || log.isBlank()) {
+            return Optional.empty();
+        }
+        final String base = log.endsWith(".log") ? log.substring(0, log.length() - 4) : log;
+        return Optional.of(Paths.get(base + ".phases.jsonl"));
+    }
+
+    private static String quote(final String s) {
+        final StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (final char c : s.toCharArray()) {
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int)c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static double ms(final long nanos) {
+        return nanos < 0L ? -1.0D : nanos / 1e6D;
+    }
+
+    private static long cpu() {
+        if (!THREADS.isCurrentThreadCpuTimeSupported()) {
+            return -1L;
+        }
+        return THREADS.getCurrentThreadCpuTime();
+    }
+
+    private static long allocated() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean)THREADS;
+            if (t.isThreadAllocatedMemorySupported() && t.isThreadAllocatedMemoryEnabled()) {
+                return t.getCurrentThreadAllocatedBytes();
+            }
+        }
+        return -1L;
+    }
+}
@@ -80,13 +80,17 @@ public class SvgBuilder {
             return;
         }
 
+        addLine(line.getStartX(), line.getStartY(), line.getEndX(), line.getEndY());
+    }
+
+    public void addLine(final double startX, final double startY, final double endX, final double endY) {
         final Element e = this.doc.createElementNS(W3C_SVG_NS_URI, "line");
 
-        e.setAttribute("x1", Double.toString(line.getStartX()));
-        e.setAttribute("y1", Double.toString(line.getStartY()));
+        e.setAttribute("x1", Double.toString(startX));
+        e.setAttribute("y1", Double.toString(startY));
 
-        e.setAttribute("x2", Double.toString(line.getEndX()));
-        e.setAttribute("y2", Double.toString(line.getEndY()));
+        e.setAttribute("x2", Double.toString(endX));
+        e.setAttribute("y2", Double.toString(endY));
 
         this.svg.appendChild(e);
     }
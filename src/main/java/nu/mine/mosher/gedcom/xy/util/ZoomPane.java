@@ -1,5 +1,6 @@
 package nu.mine.mosher.gedcom.xy.util;
 
+import javafx.beans.property.*;
 import javafx.geometry.*;
 import javafx.scene.*;
 import javafx.scene.control.ScrollPane;
@@ -18,6 +19,7 @@ public final class ZoomPane extends ScrollPane {
     private final Node zoomNode;
 
     private double scaleValue = 1.0D;
+    private final ReadOnlyDoubleWrapper scale = new ReadOnlyDoubleWrapper(this.scaleValue);
 
 
 
@@ -44,9 +46,17 @@ public final class ZoomPane extends ScrollPane {
 
 
 
+    /**
+     * @return current zoom scale (1 is actual size)
+     */
+    public ReadOnlyDoubleProperty scaleProperty() {
+        return this.scale.getReadOnlyProperty();
+    }
+
     private void updateScale() {
         this.target.setScaleX(this.scaleValue);
         this.target.setScaleY(this.scaleValue);
+        this.scale.set(this.scaleValue);
     }
 
     private void onScroll(final double zoom, final Point2D mouse) {